@@ -0,0 +1,155 @@
+package com.deltax.util.listener;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The conflation state of a listener's queue, applying a {@link ConflationPolicy
+ * ConflationPolicy}.
+ * <p>
+ * Signals are identified by their sequence number, i.e. the number of signals
+ * queued before them; the queue tells the conflater which signals are
+ * {@link #added(Signal, long) added} to and {@link #removed(Signal, long) removed}
+ * from it, and asks it whether a new signal must be {@link #offer(Signal, long, long)
+ * queued, discarded or replace a pending one}. All the methods must be invoked holding
+ * the queue's lock.
+ *
+ * @author <a href="mailto:cristianosadunTAKETHISAWAY@hotmail.com">Cristiano
+ *         Sadun</a>
+ * @version 1.0
+ */
+class Conflater {
+
+	/**
+	 * Returned by {@link #offer(Signal, long, long) offer()} when the signal must be queued.
+	 */
+	static final int QUEUE = -1;
+
+	/**
+	 * Returned by {@link #offer(Signal, long, long) offer()} when the signal must be discarded.
+	 */
+	static final int DISCARD = -2;
+
+	/*
+	 * The number of SAMPLE entries above which the expired ones are removed
+	 */
+	private static final int MIN_SWEEP_SIZE = 64;
+
+	private static class Entry {
+		private long seq;
+		private long time;
+	}
+
+	private ConflationPolicy policy;
+	private Map entries = new HashMap();
+	private long conflated;
+	private int sweepSize = MIN_SWEEP_SIZE;
+
+	Conflater(ConflationPolicy policy) {
+		this.policy = policy;
+	}
+
+	/**
+	 * Decide what to do with a new signal.
+	 *
+	 * @param signal the signal
+	 * @param head the sequence number of the oldest pending signal
+	 * @param tail the sequence number the signal would have if queued
+	 * @return {@link #QUEUE QUEUE}, {@link #DISCARD DISCARD}, or the position, relative to
+	 *          the oldest pending signal, of the pending signal to replace
+	 */
+	int offer(Signal signal, long head, long tail) {
+		Object key = policy.getKeyFunction().getKey(signal);
+		if (key == null)
+			return QUEUE;
+		Entry e = (Entry) entries.get(key);
+		if (e == null)
+			return QUEUE;
+		switch (policy.getMode()) {
+			case ConflationPolicy.SAMPLE :
+				if (System.currentTimeMillis() - e.time >= policy.getInterval())
+					return QUEUE;
+				break;
+			case ConflationPolicy.COALESCE :
+				if (e.seq < head
+					|| System.currentTimeMillis() - e.time >= policy.getInterval())
+					return QUEUE;
+				conflated++;
+				return (int) (e.seq - head);
+			default :
+				if (e.seq < head)
+					return QUEUE;
+				conflated++;
+				return (int) (e.seq - head);
+		}
+		conflated++;
+		return DISCARD;
+	}
+
+	/**
+	 * Record that a signal has been queued with the given sequence number.
+	 */
+	void added(Signal signal, long seq) {
+		Object key = policy.getKeyFunction().getKey(signal);
+		if (key == null)
+			return;
+		Entry e = (Entry) entries.get(key);
+		if (e == null) {
+			entries.put(key, e = new Entry());
+			if (policy.getMode() == ConflationPolicy.SAMPLE && entries.size() > sweepSize)
+				sweep();
+		}
+		e.seq = seq;
+		e.time = System.currentTimeMillis();
+	}
+
+	/**
+	 * Record that the signal with the given sequence number is no longer pending.
+	 */
+	void removed(Signal signal, long seq) {
+		Object key = policy.getKeyFunction().getKey(signal);
+		if (key == null)
+			return;
+		Entry e = (Entry) entries.get(key);
+		if (e == null || e.seq != seq)
+			return;
+		// With SAMPLE, the time of the last queued signal is needed until the interval expires
+		if (policy.getMode() != ConflationPolicy.SAMPLE
+			|| System.currentTimeMillis() - e.time >= policy.getInterval())
+			entries.remove(key);
+	}
+
+	/*
+	 * Remove the SAMPLE entries whose interval has expired, which make no difference
+	 * to offer(). Sweeping only when the entries have doubled keeps the cost constant
+	 * per added signal
+	 */
+	private void sweep() {
+		long now = System.currentTimeMillis();
+		for (Iterator i = entries.values().iterator(); i.hasNext();) {
+			Entry e = (Entry) i.next();
+			if (now - e.time >= policy.getInterval())
+				i.remove();
+		}
+		sweepSize = Math.max(MIN_SWEEP_SIZE, entries.size() * 2);
+	}
+
+	/**
+	 * Forget all the pending signals.
+	 */
+	void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Return the number of signals discarded or replaced so far.
+	 */
+	long getConflatedCount() {
+		return conflated;
+	}
+
+	ConflationPolicy getPolicy() {
+		return policy;
+	}
+}
@@ -0,0 +1,174 @@
+package com.deltax.util.listener;
+
+/**
+ * A policy which reduces the signals queued for a listener which cannot keep up
+ * with a high rate of signals, so that it receives the newest state rather than
+ * a backlog of stale updates.
+ * <p>
+ * Signals are conflated by <i>key</i>, as computed by a {@link KeyFunction KeyFunction}
+ * (by default, the pair signal class/source): signals with different keys are
+ * never conflated with each other. The following modes are available:
+ * <ul>
+ * <li>{@link #KEEP_LATEST KEEP_LATEST}: a signal replaces the pending signal with
+ * the same key, if any, keeping its place in the queue;
+ * <li>{@link #COALESCE COALESCE}: as above, but only if the pending signal has
+ * been queued less than the policy's interval ago; so the listener receives at most
+ * one signal per key per interval, and a key's signals are never held back longer than
+ * the interval by newer ones;
+ * <li>{@link #SAMPLE SAMPLE}: a signal is discarded if another signal with the same key
+ * has been queued less than the policy's interval ago, whether the listener
+ * is keeping up or not.
+ * </ul>
+ * A policy is set for a listener by {@link ListenerSupport#setConflationPolicy(Listener, ConflationPolicy)
+ * ListenerSupport.setConflationPolicy()} or
+ * {@link PooledListenerSupport#setConflationPolicy(Listener, ConflationPolicy)
+ * PooledListenerSupport.setConflationPolicy()}.
+ *
+ * @author <a href="mailto:cristianosadunTAKETHISAWAY@hotmail.com">Cristiano
+ *         Sadun</a>
+ * @version 1.0
+ */
+public class ConflationPolicy {
+
+	/**
+	 * Computes the conflation key of a signal.
+	 */
+	public interface KeyFunction {
+
+		/**
+		 * Return the conflation key of the given signal.
+		 *
+		 * @param signal the signal
+		 * @return the key, or <b>null</b> if the signal must never be conflated
+		 */
+		public Object getKey(Signal signal);
+	}
+
+	/**
+	 * Mode: a signal replaces the pending signal with the same key.
+	 */
+	public static final int KEEP_LATEST = 0;
+
+	/**
+	 * Mode: a signal replaces the pending signal with the same key, if this has
+	 * been queued within the policy's interval.
+	 */
+	public static final int COALESCE = 1;
+
+	/**
+	 * Mode: a signal is discarded if another signal with the same key has been
+	 * queued within the policy's interval.
+	 */
+	public static final int SAMPLE = 2;
+
+	/**
+	 * A key function whose keys are the pair signal class/source, with sources
+	 * compared by equality.
+	 */
+	public static final KeyFunction CLASS_AND_SOURCE = new KeyFunction() {
+		public Object getKey(Signal signal) {
+			return new ClassAndSource(signal.getClass(), signal.getSource());
+		}
+	};
+
+	private static class ClassAndSource {
+		private Class cls;
+		private Object source;
+
+		ClassAndSource(Class cls, Object source) {
+			this.cls = cls;
+			this.source = source;
+		}
+
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ClassAndSource))
+				return false;
+			ClassAndSource other = (ClassAndSource) obj;
+			return cls == other.cls
+				&& (source == null ? other.source == null : source.equals(other.source));
+		}
+
+		public int hashCode() {
+			return cls.hashCode() * 31 + (source == null ? 0 : source.hashCode());
+		}
+	}
+
+	private int mode;
+	private KeyFunction keyFunction;
+	private long interval;
+
+	/**
+	 * Create a policy with the given mode, key function and interval.
+	 *
+	 * @param mode one of {@link #KEEP_LATEST KEEP_LATEST}, {@link #COALESCE COALESCE}
+	 *         or {@link #SAMPLE SAMPLE}
+	 * @param keyFunction the function computing the conflation key of each signal
+	 * @param interval the interval in milliseconds (ignored for {@link #KEEP_LATEST KEEP_LATEST})
+	 */
+	public ConflationPolicy(int mode, KeyFunction keyFunction, long interval) {
+		if (mode != KEEP_LATEST && mode != COALESCE && mode != SAMPLE)
+			throw new IllegalArgumentException("Invalid conflation mode " + mode);
+		if (keyFunction == null)
+			throw new IllegalArgumentException("keyFunction cannot be null");
+		if (mode != KEEP_LATEST && interval <= 0)
+			throw new IllegalArgumentException("The interval must be positive");
+		this.mode = mode;
+		this.keyFunction = keyFunction;
+		this.interval = interval;
+	}
+
+	/**
+	 * Create a policy with the given mode and interval, which conflates signals of
+	 * the same class and source.
+	 *
+	 * @param mode one of {@link #KEEP_LATEST KEEP_LATEST}, {@link #COALESCE COALESCE}
+	 *         or {@link #SAMPLE SAMPLE}
+	 * @param interval the interval in milliseconds (ignored for {@link #KEEP_LATEST KEEP_LATEST})
+	 */
+	public ConflationPolicy(int mode, long interval) {
+		this(mode, CLASS_AND_SOURCE, interval);
+	}
+
+	/**
+	 * Create a {@link #KEEP_LATEST KEEP_LATEST} policy which conflates signals of
+	 * the same class and source.
+	 */
+	public ConflationPolicy() {
+		this(KEEP_LATEST, 0);
+	}
+
+	/**
+	 * Return the policy's mode.
+	 *
+	 * @return one of {@link #KEEP_LATEST KEEP_LATEST}, {@link #COALESCE COALESCE}
+	 *          or {@link #SAMPLE SAMPLE}
+	 */
+	public int getMode() {
+		return mode;
+	}
+
+	/**
+	 * Return the function computing the conflation key of each signal.
+	 *
+	 * @return the function computing the conflation key of each signal
+	 */
+	public KeyFunction getKeyFunction() {
+		return keyFunction;
+	}
+
+	/**
+	 * Return the policy's interval.
+	 *
+	 * @return the interval in milliseconds
+	 */
+	public long getInterval() {
+		return interval;
+	}
+
+	public String toString() {
+		String[] names = { "keep latest", "coalesce", "sample" };
+		if (mode == KEEP_LATEST)
+			return names[mode];
+		return names[mode] + " every " + interval + "ms";
+	}
+}
@@ -1,5 +1,6 @@
 package com.deltax.util.listener;
 
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.HashMap;
@@ -22,15 +23,75 @@ import org.sadun.util.ClassResolver;
  * repeated, so if the signal above is called
  * <tt>org.sadun.signals.<b>InitSignal</b></tt>, the associated method will
  * be the same <tt>on<b>Init</b>Signal</tt>.
- * 
+ * <p>
+ * A signal whose class is not known is dispatched to the method of its closest
+ * known superclass, if any, or ignored. The association between each received
+ * signal class and the method to invoke is resolved once, and then cached.
+ * <p>
+ * For the fastest dispatch, an explicit {@link Invoker Invoker} can be
+ * {@link #addKnownSignal(Class, Dispatcher.Invoker) associated} to a signal class,
+ * so that the target's method is invoked directly rather than via reflection.
  * 
  * @author Cristiano Sadun
  */
 public class Dispatcher implements Listener {
 
+    /**
+     * An object which invokes the appropriate method of the dispatcher's target for a
+     * signal class.
+     * <p>
+     * For example:
+     * <pre>
+     * dispatcher.addKnownSignal(InitSignal.class, new Dispatcher.Invoker() {
+     *    public void invoke(Object target, Signal signal) {
+     *       ((MyTarget)target).onInitSignal((InitSignal)signal);
+     *    }
+     * });
+     * </pre>
+     */
+    public interface Invoker {
+
+        /**
+         * Invoke the target's method for the given signal.
+         * 
+         * @param target the dispatcher's target
+         * @param signal the signal to dispatch
+         * @throws Exception if the invoked method fails
+         */
+        public void invoke(Object target, Signal signal) throws Exception;
+    }
+
+    /*
+     * Invokes a method via reflection
+     */
+    private static class MethodInvoker implements Invoker {
+
+        private Method method;
+
+        MethodInvoker(Method method) {
+            this.method = method;
+            try {
+                // Skip the access checks on each invocation
+                method.setAccessible(true);
+            } catch (SecurityException e) {
+                // Invoke with access checks
+            }
+        }
+
+        public void invoke(Object target, Signal signal) throws Exception {
+            method.invoke(target, new Object[] { signal });
+        }
+    }
+
+    /*
+     * Cached for signal classes with no known method
+     */
+    private static final Object NO_INVOKER = new Object();
+
     private Object target;
-    private Map clsToMethod = new HashMap();
-    private boolean debug = true;
+    private Map clsToInvoker = new HashMap();
+    private volatile Map dispatchCache = new HashMap();
+    private boolean debug = false;
     private final static Pattern methodPattern = Pattern
             .compile("on(.*)Signal");
 
@@ -137,7 +198,7 @@ public class Dispatcher implements Listener {
                 throw new IllegalArgumentException("The target object's "
                         + methodName + "(" + signalClass.getName()
                         + ") method must have void type.");
-            clsToMethod.put(signalClass, m);
+            setInvoker(signalClass, new MethodInvoker(m));
             if (debug)
                 System.err.println("Associated known signal " + signalClass
                         + " to method " + m.getName());
@@ -151,14 +212,76 @@ public class Dispatcher implements Listener {
         }
     }
 
+    /**
+     * Add a signal class to the ones known by the dispatcher, associating it
+     * to the given invoker.
+     * 
+     * @param signalClass
+     * @param invoker the invoker to use for signals of the given class
+     */
+    public void addKnownSignal(Class signalClass, Invoker invoker) {
+        if (!Signal.class.isAssignableFrom(signalClass))
+            throw new IllegalArgumentException("The class " + signalClass
+                    + " does not extend " + Signal.class.getName());
+        if (invoker == null)
+            throw new IllegalArgumentException("invoker cannot be null");
+        setInvoker(signalClass, invoker);
+    }
+
+    /**
+     * Set whether or not the dispatcher prints diagnostic messages on System.err.
+     * The default is <b>false</b>.
+     * 
+     * @param debug if <b>true</b>, diagnostic messages are printed
+     */
+    public void setDebug(boolean debug) {
+        this.debug = debug;
+    }
+
     public void receive(Signal signal) {
-        Method m = (Method) clsToMethod.get(signal.getClass());
+        Object invoker = dispatchCache.get(signal.getClass());
+        if (invoker == null)
+            invoker = resolve(signal.getClass());
+        if (invoker == NO_INVOKER) {
+            if (debug)
+                System.err.println("No method for " + signal.getClass().getName()
+                        + ", ignoring " + signal);
+            return;
+        }
         try {
-            m.invoke(target, new Object[] { signal });
+            ((Invoker) invoker).invoke(target, signal);
+        } catch (InvocationTargetException e) {
+            e.getTargetException().printStackTrace();
         } catch (Exception e) {
             e.printStackTrace();
         }
+    }
 
+    private synchronized void setInvoker(Class signalClass, Invoker invoker) {
+        clsToInvoker.put(signalClass, invoker);
+        dispatchCache = new HashMap();
+    }
+
+    /*
+     * Find the invoker for the given class or its closest superclass, and cache it
+     */
+    private synchronized Object resolve(Class signalClass) {
+        Object invoker = dispatchCache.get(signalClass);
+        if (invoker != null)
+            return invoker;
+        invoker = NO_INVOKER;
+        for (Class c = signalClass; c != null; c = c.getSuperclass()) {
+            Object i = clsToInvoker.get(c);
+            if (i != null) {
+                invoker = i;
+                break;
+            }
+        }
+        // Copy on write, so that lookups need no synchronization
+        Map newCache = new HashMap(dispatchCache);
+        newCache.put(signalClass, invoker);
+        dispatchCache = newCache;
+        return invoker;
     }
 
     private String baseName(String name) {
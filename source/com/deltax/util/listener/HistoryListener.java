@@ -6,6 +6,9 @@ import java.io.IOException;
 
 /**
  * A listener which logs an history of received signals to a file. 
+ * <p>
+ * For a binary history which is cheap to record and can be replayed, see
+ * {@link JournalListener JournalListener}.
  *
  * @author <a href="mailto:cristianosadunTAKETHISAWAY@hotmail.com">Cristiano Sadun</a>
  * @version 1.0
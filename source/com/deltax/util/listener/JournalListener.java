@@ -0,0 +1,108 @@
+package com.deltax.util.listener;
+
+import java.io.IOException;
+
+/**
+ * A listener which records the received signals in a {@link SignalJournal SignalJournal},
+ * and distributes them to other listeners.
+ * <p>
+ * Unlike a {@link HistoryListener HistoryListener}, recording a signal does not involve
+ * any I/O operation, and the history can be replayed: a listener {@link #attach(Listener)
+ * attached} to the journal listener first receives the signals recorded so far, as
+ * {@link JournalSignal JournalSignal}s, and then the signals received by the journal listener,
+ * with no signal missing or repeated.
+ *
+ * @author <a href="mailto:cristianosadunTAKETHISAWAY@hotmail.com">Cristiano
+ *         Sadun</a>
+ * @version 1.0
+ */
+public class JournalListener implements Listener {
+
+	private SignalJournal journal;
+	private volatile Listener[] listeners = new Listener[0];
+
+	/**
+	 * Create a listener recording the received signals in the given journal.
+	 *
+	 * @param journal the journal
+	 */
+	public JournalListener(SignalJournal journal) {
+		if (journal == null)
+			throw new IllegalArgumentException("journal cannot be null");
+		this.journal = journal;
+	}
+
+	/**
+	 * Create a listener recording the received signals in the given journal, and
+	 * passing them to the given listener. The signals already in the journal are not
+	 * replayed to the listener.
+	 *
+	 * @param journal the journal
+	 * @param listener the listener
+	 */
+	public JournalListener(SignalJournal journal, Listener listener) {
+		this(journal);
+		listeners = new Listener[] { listener };
+	}
+
+	public void receive(Signal signal) {
+		Listener[] l;
+		synchronized (this) {
+			try {
+				journal.record(signal);
+			} catch (IOException e) {
+				e.printStackTrace(System.err);
+			}
+			l = listeners;
+		}
+		for (int i = 0; i < l.length; i++)
+			SignalQueue.deliver(l[i], signal);
+	}
+
+	/**
+	 * Replay the journal to the given listener, and then pass it the signals received
+	 * from now on. The signals received while the journal is replayed are passed to the listener
+	 * after the replayed ones.
+	 *
+	 * @param listener the listener
+	 * @throws IOException if the journal cannot be read
+	 */
+	public void attach(Listener listener) throws IOException {
+		// Replay most of the journal without holding back the recording...
+		long next = journal.replayFrom(listener, 0);
+		synchronized (this) {
+			// ...and the rest while no signal is received
+			journal.replayFrom(listener, next);
+			Listener[] l = new Listener[listeners.length + 1];
+			System.arraycopy(listeners, 0, l, 0, listeners.length);
+			l[listeners.length] = listener;
+			listeners = l;
+		}
+	}
+
+	/**
+	 * Stop passing the received signals to the given listener.
+	 *
+	 * @param listener the listener
+	 */
+	public synchronized void detach(Listener listener) {
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == listener) {
+				Listener[] l = new Listener[listeners.length - 1];
+				System.arraycopy(listeners, 0, l, 0, i);
+				System.arraycopy(listeners, i + 1, l, i, l.length - i);
+				listeners = l;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Return the journal where the received signals are recorded.
+	 *
+	 * @return the journal
+	 */
+	public SignalJournal getJournal() {
+		return journal;
+	}
+}
@@ -0,0 +1,79 @@
+package com.deltax.util.listener;
+
+/**
+ * A signal replayed from a {@link SignalJournal SignalJournal}. Its source is the
+ * journal, and its {@link #getTime() time} is the time the original signal has been
+ * recorded.
+ *
+ * @author <a href="mailto:cristianosadunTAKETHISAWAY@hotmail.com">Cristiano
+ *         Sadun</a>
+ * @version 1.0
+ */
+public class JournalSignal extends TimeStampedSignal {
+
+	private long recordNumber;
+	private String signalClassName;
+	private String sourceDescription;
+	private String description;
+
+	/**
+	 * Create a replayed signal.
+	 *
+	 * @param journal the journal
+	 * @param recordNumber the number of the record in the journal
+	 * @param time the time the original signal has been recorded
+	 * @param signalClassName the name of the class of the original signal
+	 * @param sourceDescription the description of the source of the original signal
+	 * @param description the description of the original signal
+	 */
+	public JournalSignal(SignalJournal journal, long recordNumber, long time,
+		String signalClassName, String sourceDescription, String description) {
+		super(journal);
+		this.time = time;
+		this.recordNumber = recordNumber;
+		this.signalClassName = signalClassName;
+		this.sourceDescription = sourceDescription;
+		this.description = description;
+	}
+
+	/**
+	 * Return the number of the record in the journal.
+	 *
+	 * @return the number of the record in the journal
+	 */
+	public long getRecordNumber() {
+		return recordNumber;
+	}
+
+	/**
+	 * Return the name of the class of the original signal.
+	 *
+	 * @return the name of the class of the original signal
+	 */
+	public String getSignalClassName() {
+		return signalClassName;
+	}
+
+	/**
+	 * Return the description (i.e. the <tt>toString()</tt>) of the source of
+	 * the original signal.
+	 *
+	 * @return the description of the source of the original signal
+	 */
+	public String getSourceDescription() {
+		return sourceDescription;
+	}
+
+	/**
+	 * Return the description (i.e. the <tt>toString()</tt>) of the original signal.
+	 *
+	 * @return the description of the original signal
+	 */
+	public String getDescription() {
+		return description;
+	}
+
+	public String toString() {
+		return description;
+	}
+}
@@ -0,0 +1,186 @@
+package com.deltax.util.listener;
+
+import org.sadun.util.tp.Histogram;
+
+/**
+ * The delivery statistics of a listener registered with a
+ * {@link ListenerSupport ListenerSupport} or a {@link PooledListenerSupport
+ * PooledListenerSupport}: how many signals are pending in its queue, how many
+ * have been delivered, discarded or conflated, and how long the listener takes to
+ * process them.
+ * <p>
+ * The objects returned by the supports are snapshots, which don't change
+ * when more signals are delivered.
+ *
+ * @author <a href="mailto:cristianosadunTAKETHISAWAY@hotmail.com">Cristiano
+ *         Sadun</a>
+ * @version 1.0
+ */
+public class ListenerStatistics {
+
+	private Listener listener;
+	private long delivered;
+	private long failed;
+	private long shed;
+	private long isolations;
+	private Histogram processingTime = new Histogram();
+
+	// Set in snapshots only
+	private int queueDepth;
+	private int maxQueueDepth;
+	private long dropped;
+	private long conflated;
+	private boolean enabled;
+
+	ListenerStatistics(Listener listener) {
+		this.listener = listener;
+	}
+
+	/*
+	 * Invoked by the delivering thread
+	 */
+	synchronized void delivered(long time, boolean ok) {
+		processingTime.record(time);
+		if (ok)
+			delivered++;
+		else
+			failed++;
+	}
+
+	synchronized void shed(int n) {
+		shed += n;
+	}
+
+	synchronized void isolated() {
+		isolations++;
+	}
+
+	synchronized ListenerStatistics snapshot(int queueDepth, int maxQueueDepth,
+		long dropped, long conflated, boolean enabled) {
+		ListenerStatistics s = new ListenerStatistics(listener);
+		s.delivered = delivered;
+		s.failed = failed;
+		s.shed = shed;
+		s.isolations = isolations;
+		s.processingTime = processingTime.copy();
+		s.queueDepth = queueDepth;
+		s.maxQueueDepth = maxQueueDepth;
+		s.dropped = dropped;
+		s.conflated = conflated;
+		s.enabled = enabled;
+		return s;
+	}
+
+	/**
+	 * Return the listener.
+	 *
+	 * @return the listener
+	 */
+	public Listener getListener() {
+		return listener;
+	}
+
+	/**
+	 * Return the number of signals pending in the listener's queue.
+	 *
+	 * @return the number of signals pending in the listener's queue
+	 */
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	/**
+	 * Return the largest number of signals which have been pending in the
+	 * listener's queue.
+	 *
+	 * @return the largest number of signals pending in the listener's queue
+	 */
+	public int getMaxQueueDepth() {
+		return maxQueueDepth;
+	}
+
+	/**
+	 * Return the number of signals delivered to the listener.
+	 *
+	 * @return the number of signals delivered to the listener
+	 */
+	public long getDelivered() {
+		return delivered;
+	}
+
+	/**
+	 * Return the number of signals whose delivery failed with an exception.
+	 *
+	 * @return the number of signals whose delivery failed
+	 */
+	public long getFailed() {
+		return failed;
+	}
+
+	/**
+	 * Return the number of signals discarded because the listener's queue was full.
+	 *
+	 * @return the number of signals discarded because the listener's queue was full
+	 */
+	public long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * Return the number of pending signals discarded because the listener fell
+	 * behind, with the {@link ListenerSupport#ISOLATE_SHED ISOLATE_SHED} policy.
+	 *
+	 * @return the number of shed signals
+	 */
+	public long getShed() {
+		return shed;
+	}
+
+	/**
+	 * Return the number of signals discarded or replaced by the listener's
+	 * {@link ConflationPolicy conflation policy}.
+	 *
+	 * @return the number of conflated signals
+	 */
+	public long getConflated() {
+		return conflated;
+	}
+
+	/**
+	 * Return the number of times the listener has been isolated because it fell
+	 * behind.
+	 *
+	 * @return the number of times the listener has been isolated
+	 */
+	public long getIsolations() {
+		return isolations;
+	}
+
+	/**
+	 * Return <b>true</b> if the listener is enabled.
+	 *
+	 * @return <b>true</b> if the listener is enabled
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Return the histogram of the time (in ms.) taken by the listener to process
+	 * each signal.
+	 *
+	 * @return the histogram of the processing times
+	 */
+	public Histogram getProcessingTime() {
+		return processingTime;
+	}
+
+	public String toString() {
+		return listener + ": " + queueDepth + " pending (max " + maxQueueDepth + "), "
+			+ delivered + " delivered, " + failed + " failed, " + dropped + " dropped, "
+			+ shed + " shed, " + conflated + " conflated, processing time avg "
+			+ (long) processingTime.getAverage() + "ms, 99% "
+			+ processingTime.getPercentile(99) + "ms, max " + processingTime.getMax() + "ms"
+			+ (enabled ? "" : ", disabled");
+	}
+}
@@ -8,6 +8,7 @@ import java.util.List;
 import java.util.Set;
 
 import org.sadun.util.tp.ThreadPool;
+import org.sadun.util.tp.VirtualThreads;
 
 /**
  * <b>This class is the pluggable support for asynchronous listening.</b>
@@ -17,6 +18,16 @@ import org.sadun.util.tp.ThreadPool;
  * {@link #notify(Signal)} method to be called to actually send signals.
  * <p>
  * It also allows to enable or disable a specific listener.
+ * <p>
+ * Each listener receives signals in a thread of its own, unless a maximum
+ * number of threads is specified. Optionally, such threads can be virtual
+ * threads (see {@link org.sadun.util.tp.VirtualThreads VirtualThreads}), so
+ * that supporting a very large number of listeners costs little memory: in this
+ * case, unless a maximum number of threads is specified, a listener's thread
+ * exists only while signals are being delivered to the listener.
+ * <p>
+ * For a large number of listeners, {@link PooledListenerSupport PooledListenerSupport}
+ * shares a small pool of threads among all the listeners.
  * @author <a href="mailto:cristianosadunTAKETHISAWAY@hotmail.com">Cristiano
  *         Sadun</a>
  * @version 3.0
@@ -34,23 +45,82 @@ public class ListenerSupport implements IListenerSupport {
 	public final static long DEFAULT_RECEIVE_TIMEOUT = 10000L;
 	// Wait at most 10 secs for a thread to die when stopped.
 
+	/**
+	 * Wait strategy: a listener's thread with no signals to deliver waits 
+	 * until a signal is notified. This is the default.
+	 */
+	public final static int WAIT_PARK = 0;
+
+	/**
+	 * Wait strategy: a listener's thread with no signals to deliver checks
+	 * for signals a number of times before waiting, which reduces the latency
+	 * of bursts of signals at the cost of some CPU.
+	 */
+	public final static int WAIT_SPIN_THEN_PARK = 1;
+
+	/**
+	 * Wait strategy: a listener's thread with no signals to deliver never waits,
+	 * but yields and checks again. This gives the lowest latency, but keeps the 
+	 * thread busy: use only with few listeners and dedicated processors.
+	 */
+	public final static int WAIT_YIELD = 2;
+
+	/**
+	 * Isolation policy: listeners which fall behind are not isolated. This is the
+	 * default.
+	 */
+	public final static int ISOLATE_NONE = 0;
+
+	/**
+	 * Isolation policy: listeners which fall behind are {@link #setEnabled(Listener, boolean)
+	 * disabled}, until explicitly enabled again.
+	 */
+	public final static int ISOLATE_DISABLE = 1;
+
+	/**
+	 * Isolation policy: the pending signals of listeners which fall behind are
+	 * discarded.
+	 */
+	public final static int ISOLATE_SHED = 2;
+
 	/**
 	 * A lock used in accessing the listeners/queue registry.
 	 */
 	protected Object lock;
 	private HashMap queueTable;
+	private RoutingTable routingTable = new RoutingTable();
 	private long receiveTimeout = DEFAULT_RECEIVE_TIMEOUT;
 	
 	private ThreadPool threadPool;
+	private boolean virtualThreads;
     private Set disabledListeners = new HashSet();
+    private int waitStrategy = WAIT_PARK;
+    private int isolationPolicy = ISOLATE_NONE;
+    private int isolationThreshold = Integer.MAX_VALUE;
+    private Set isolatedListeners = new HashSet();
 
 	/**
-	 * Create a listener support which uses at most the given number of threads
+	 * Create a listener support which uses at most the given number of threads,
+	 * optionally using virtual threads.
+	 * 
+	 * @param maxThreads the maximum number of threads, or a negative
+	 *         number to use one thread per listener
+	 * @param virtualThreads if <b>true</b>, and the virtual machine
+	 *         {@link VirtualThreads#isSupported() supports} it, listeners
+	 *         are run in virtual threads
 	 */
-	public ListenerSupport(int maxThreads) {
+	public ListenerSupport(int maxThreads, boolean virtualThreads) {
 		lock = new Object();
 		queueTable = new HashMap();
-		if (maxThreads>0) threadPool=new ThreadPool(maxThreads);
+		this.virtualThreads = virtualThreads && VirtualThreads.isSupported();
+		if (maxThreads>0) threadPool=new ThreadPool(maxThreads, true, this.virtualThreads);
+	}
+
+	/**
+	 * Create a listener support which uses at most the given number of threads
+	 */
+	public ListenerSupport(int maxThreads) {
+		this(maxThreads, false);
 	}
 	
 	/**
@@ -71,22 +141,62 @@ public class ListenerSupport implements IListenerSupport {
 	 *            the listener to add
 	 */
 	public void addListener(Listener listener) {
+		addListener(listener, null, null);
+	}
+
+	/**
+	 * Add a listener to the listeners set, subscribing it only to the signals
+	 * of the given class (or its subclasses) and from the given source. 
+	 * <p>
+	 * Signals are routed by a table computed once for each signal class, so
+	 * that a signal is put only in the queues of the listeners subscribed to it.
+	 * <p>
+	 * If the listener is already registered, the subscription is added to its existing 
+	 * ones.
+	 * 
+	 * @param listener
+	 *            the listener to add
+	 * @param signalClass 
+	 *            the class of the signals to receive, or <b>null</b> for any signal
+	 * @param source 
+	 *            the source of the signals to receive, compared by identity, 
+	 *            or <b>null</b> for any source
+	 */
+	public void addListener(Listener listener, Class signalClass, Object source) {
 		synchronized (lock) {
-			SignalQueue signalqueue = new SignalQueue(listener);
+			SignalQueue existing = (SignalQueue) queueTable.get(listener);
+			if (existing != null) {
+				routingTable.add(existing, signalClass, source);
+				return;
+			}
+			
+			if (threadPool==null && virtualThreads) {
+				// The queue's thread is started when signals arrive
+				SignalQueue signalqueue = new SignalQueue(listener, true);
+				routingTable.add(signalqueue, signalClass, source);
+				queueTable.put(listener, signalqueue);
+				return;
+			}
+			
+			SignalQueue signalqueue = new SignalQueue(listener, false, waitStrategy);
 			
 			if (threadPool==null) {
-			    signalqueue.start();
+			    VirtualThreads.newThread(
+			    	signalqueue, 
+			    	"signal-queue", 
+			    	false, 
+			    	true).start();
 			}
 			else {
-			    if (!threadPool.start(signalqueue))
+			    // Not queued if no thread is free, so a refused queue doesn't hold a thread later
+			    if (!threadPool.start(signalqueue, true))
                     throw new RuntimeException(
                             "Could not start signal queue thread - "+(threadPool.size()-threadPool.getBusyCount())+" threads free");
 			}
+			// No need to wait for the queue's thread to be running: a queue
+			// stopped before its thread starts exits immediately
+			routingTable.add(signalqueue, signalClass, source);
 			queueTable.put(listener, signalqueue);
-            
-            while(! signalqueue.isAlive()) 
-                Thread.yield();
-            
 		}
 	}
     
@@ -106,6 +216,9 @@ public class ListenerSupport implements IListenerSupport {
 				i.hasNext();
 				((SignalQueue) queueTable.get(i.next())).doStop());
 			queueTable.clear();
+			routingTable.clear();
+			disabledListeners.clear();
+			isolatedListeners.clear();
 		}
 	}
 
@@ -121,16 +234,29 @@ public class ListenerSupport implements IListenerSupport {
 	}
 
 	/**
-	 * Broadcast a signal. The order of invocation is unspecified.
+	 * Broadcast a signal to the listeners subscribed to it. The order of invocation 
+	 * is unspecified.
 	 */
 	public void notify(Signal signal) {
+		RoutingTable.Route route = routingTable.getRoute(signal.getClass());
 		synchronized (lock) {
-			for (Iterator i = queueTable.keySet().iterator();
-				i.hasNext();) {
-                Listener l = (Listener)i.next();
-                if (!isEnabled(l)) continue;
-				((SignalQueue)queueTable.get(l)).receive(signal);
-            }
+			send(route.getTargets(), signal);
+			send(route.getTargets(signal.getSource()), signal);
+		}
+	}
+
+	/*
+	 * Must be invoked holding the lock
+	 */
+	private void send(Object[] queues, Signal signal) {
+		for (int i = 0; i < queues.length; i++) {
+			SignalQueue queue = (SignalQueue) queues[i];
+			if (!isEnabled(queue.getListener())) continue;
+			if (isolationPolicy != ISOLATE_NONE && queue.size() >= isolationThreshold) {
+				isolate(queue);
+				if (isolationPolicy == ISOLATE_DISABLE) continue;
+			}
+			queue.receive(signal);
 		}
 	}
 
@@ -162,10 +288,61 @@ public class ListenerSupport implements IListenerSupport {
 				interruptedexception.printStackTrace();
 			}
 			queueTable.remove(listener);
+			routingTable.remove(signalqueue);
             disabledListeners.remove(listener);
+            isolatedListeners.remove(listener);
+		}
+	}
+
+	/*
+	 * Must be invoked holding the lock
+	 */
+	private void isolate(SignalQueue queue) {
+		queue.isolated();
+		if (isolationPolicy == ISOLATE_DISABLE) {
+			disabledListeners.add(queue.getListener());
+			isolatedListeners.add(queue.getListener());
+		} else
+			queue.shed();
+	}
+
+	/**
+	 * Return the strategy used by the listeners' threads to wait for signals.
+	 * 
+	 * @return one of {@link #WAIT_PARK WAIT_PARK}, {@link #WAIT_SPIN_THEN_PARK 
+	 *          WAIT_SPIN_THEN_PARK} or {@link #WAIT_YIELD WAIT_YIELD}
+	 */
+	public int getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	/**
+	 * Set the strategy used by the threads of the listeners added afterwards to
+	 * wait for signals. It does not apply to listeners run on demand in virtual
+	 * threads, whose threads never wait.
+	 * 
+	 * @param waitStrategy one of {@link #WAIT_PARK WAIT_PARK} (the default), 
+	 *         {@link #WAIT_SPIN_THEN_PARK WAIT_SPIN_THEN_PARK} or {@link #WAIT_YIELD WAIT_YIELD}
+	 */
+	public void setWaitStrategy(int waitStrategy) {
+		if (waitStrategy != WAIT_PARK
+			&& waitStrategy != WAIT_SPIN_THEN_PARK
+			&& waitStrategy != WAIT_YIELD)
+			throw new IllegalArgumentException("Invalid wait strategy " + waitStrategy);
+		synchronized (lock) {
+			this.waitStrategy = waitStrategy;
 		}
 	}
 
+	/**
+	 * Return <b>true</b> if listeners are run in virtual threads.
+	 * 
+	 * @return <b>true</b> if listeners are run in virtual threads
+	 */
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
 	/**
 	 * Allows subclasses to retrieve the queue threads (experimental)
 	 * 
@@ -240,13 +417,130 @@ public class ListenerSupport implements IListenerSupport {
      * @param enabled if false, the listener will not be notified events.
      */
     public void setEnabled(Listener listener, boolean enabled) {
-        if (enabled) 
-            disabledListeners.remove(listener);
-        else
-            if (queueTable.containsKey(listener))
-                disabledListeners.add(listener);
+        synchronized (lock) {
+            if (enabled) {
+                disabledListeners.remove(listener);
+                isolatedListeners.remove(listener);
+            } else
+                if (queueTable.containsKey(listener))
+                    disabledListeners.add(listener);
+        }
     }
+
+	/**
+	 * Set what happens to a listener which falls behind, i.e. whose queue holds the
+	 * given number of pending signals when a new signal is notified.
+	 * <p>
+	 * With {@link #ISOLATE_DISABLE ISOLATE_DISABLE}, the listener is
+	 * {@link #setEnabled(Listener, boolean) disabled}, and receives no more signals
+	 * (besides the pending ones) until it is enabled again. With {@link #ISOLATE_SHED
+	 * ISOLATE_SHED}, its pending signals are discarded, and it keeps receiving the
+	 * new ones. Either way, the other listeners are not slowed down by it.
+	 *
+	 * @param isolationPolicy one of {@link #ISOLATE_NONE ISOLATE_NONE} (the default),
+	 *         {@link #ISOLATE_DISABLE ISOLATE_DISABLE} or {@link #ISOLATE_SHED ISOLATE_SHED}
+	 * @param maxQueueDepth the number of pending signals above which a listener is isolated
+	 */
+	public void setIsolationPolicy(int isolationPolicy, int maxQueueDepth) {
+		if (isolationPolicy != ISOLATE_NONE
+			&& isolationPolicy != ISOLATE_DISABLE
+			&& isolationPolicy != ISOLATE_SHED)
+			throw new IllegalArgumentException("Invalid isolation policy " + isolationPolicy);
+		if (maxQueueDepth < 1)
+			throw new IllegalArgumentException("maxQueueDepth must be at least 1");
+		synchronized (lock) {
+			this.isolationPolicy = isolationPolicy;
+			this.isolationThreshold = maxQueueDepth;
+		}
+	}
+
+	/**
+	 * Return what happens to a listener which falls behind.
+	 *
+	 * @return one of {@link #ISOLATE_NONE ISOLATE_NONE}, {@link #ISOLATE_DISABLE
+	 *          ISOLATE_DISABLE} or {@link #ISOLATE_SHED ISOLATE_SHED}
+	 */
+	public int getIsolationPolicy() {
+		synchronized (lock) {
+			return isolationPolicy;
+		}
+	}
+
+	/**
+	 * Return <b>true</b> if the given listener has been disabled because it fell
+	 * behind, and not enabled since.
+	 *
+	 * @param listener the listener
+	 * @return <b>true</b> if the given listener is isolated
+	 */
+	public boolean isIsolated(Listener listener) {
+		synchronized (lock) {
+			return isolatedListeners.contains(listener);
+		}
+	}
+
+	/**
+	 * Return the delivery statistics of the given listener.
+	 *
+	 * @param listener the listener
+	 * @return the listener's statistics, or <b>null</b> if the listener is not registered
+	 */
+	public ListenerStatistics getStatistics(Listener listener) {
+		synchronized (lock) {
+			SignalQueue queue = (SignalQueue) queueTable.get(listener);
+			return queue == null ? null : queue.getStatistics(isEnabled(listener));
+		}
+	}
+
+	/**
+	 * Return the delivery statistics of all the registered listeners.
+	 *
+	 * @return the listeners' statistics
+	 */
+	public ListenerStatistics[] getStatistics() {
+		synchronized (lock) {
+			SignalQueue[] queues = getQueues();
+			ListenerStatistics[] result = new ListenerStatistics[queues.length];
+			for (int i = 0; i < queues.length; i++)
+				result[i] = queues[i].getStatistics(isEnabled(queues[i].getListener()));
+			return result;
+		}
+	}
     
+	/**
+	 * Set the {@link ConflationPolicy conflation policy} applied to the signals
+	 * queued for one of the contained listeners, so that a listener which cannot keep
+	 * up receives the newest signals rather than a growing backlog.
+	 * <p>
+	 * If a listener has not been {@link #addListener(Listener) added} to
+	 * the support, this method does nothing.
+	 *
+	 * @param listener the listener
+	 * @param policy the policy, or <b>null</b> to queue all the signals (the default)
+	 */
+	public void setConflationPolicy(Listener listener, ConflationPolicy policy) {
+		synchronized (lock) {
+			SignalQueue queue = (SignalQueue) queueTable.get(listener);
+			if (queue != null)
+				queue.setConflationPolicy(policy);
+		}
+	}
+
+	/**
+	 * Return the {@link ConflationPolicy conflation policy} applied to the signals
+	 * queued for one of the contained listeners.
+	 *
+	 * @param listener the listener
+	 * @return the policy, or <b>null</b> if the listener is not registered or
+	 *          all its signals are queued
+	 */
+	public ConflationPolicy getConflationPolicy(Listener listener) {
+		synchronized (lock) {
+			SignalQueue queue = (SignalQueue) queueTable.get(listener);
+			return queue == null ? null : queue.getConflationPolicy();
+		}
+	}
+
     private boolean isEnabled(Listener l) {
         return ! disabledListeners.contains(l);
     }
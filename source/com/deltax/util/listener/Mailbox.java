@@ -0,0 +1,268 @@
+package com.deltax.util.listener;
+
+/**
+ * The bounded queue of signals for a single listener of a
+ * {@link PooledListenerSupport PooledListenerSupport}, backed by a ring buffer.
+ * <p>
+ * A mailbox is <i>scheduled</i> on the support's pool when it receives a signal
+ * and it's not already scheduled; when run, it delivers a batch of signals and
+ * then either reschedules itself, if more signals are pending, or becomes idle.
+ * Since at most one thread at a time runs a mailbox, signals are delivered to the
+ * listener in the order they have been received.
+ * <p>
+ * A mailbox can be given a {@link ConflationPolicy conflation policy}, which is
+ * applied before the overflow policy: a signal which replaces a pending one needs no room.
+ *
+ * @author <a href="mailto:cristianosadunTAKETHISAWAY@hotmail.com">Cristiano
+ *         Sadun</a>
+ * @version 1.0
+ */
+class Mailbox implements Runnable {
+
+	/**
+	 * The maximum number of signals delivered each time the mailbox is run.
+	 */
+	static final int BATCH_SIZE = 64;
+
+	private PooledListenerSupport support;
+	private Listener listener;
+	private Signal[] ring;
+	private Signal[] batch;
+	private int head;
+	private volatile int count;
+	private int maxCount;
+	private long taken;
+	private Conflater conflater;
+	private boolean scheduled;
+	private volatile boolean closed;
+	private int blocked;
+	private Thread deliverer;
+	private long dropped;
+	private ListenerStatistics stats;
+
+	volatile boolean enabled = true;
+	volatile boolean isolated;
+
+	Mailbox(PooledListenerSupport support, Listener listener, int capacity) {
+		this.support = support;
+		this.listener = listener;
+		this.stats = new ListenerStatistics(listener);
+		this.ring = new Signal[capacity];
+		this.batch = new Signal[Math.min(capacity, BATCH_SIZE)];
+	}
+
+	/**
+	 * Put a signal in the mailbox, applying the given overflow policy if the
+	 * mailbox is full.
+	 *
+	 * @return <b>true</b> if the mailbox must be scheduled
+	 */
+	synchronized boolean put(Signal signal, int overflowPolicy) {
+		if (closed)
+			return false;
+		if (conflater != null) {
+			int r = conflater.offer(signal, taken, taken + count);
+			if (r == Conflater.DISCARD)
+				return false;
+			if (r >= 0) {
+				// A pending signal is replaced: the mailbox is already scheduled
+				ring[(head + r) % ring.length] = signal;
+				return false;
+			}
+		}
+		while (count == ring.length) {
+			switch (overflowPolicy) {
+				case PooledListenerSupport.DROP_NEWEST :
+					dropped++;
+					return false;
+				case PooledListenerSupport.DROP_OLDEST :
+					if (conflater != null)
+						conflater.removed(ring[head], taken);
+					ring[head] = null;
+					head = (head + 1) % ring.length;
+					count--;
+					taken++;
+					dropped++;
+					break;
+				default :
+					if (deliverer == Thread.currentThread()) {
+						// Notified by the listener itself: blocking would deadlock
+						grow();
+						break;
+					}
+					blocked++;
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						dropped++;
+						return false;
+					} finally {
+						blocked--;
+					}
+					if (closed)
+						return false;
+			}
+		}
+		ring[(head + count) % ring.length] = signal;
+		if (conflater != null)
+			conflater.added(signal, taken + count);
+		count++;
+		if (count > maxCount)
+			maxCount = count;
+		if (scheduled)
+			return false;
+		scheduled = true;
+		return true;
+	}
+
+	public void run() {
+		int n;
+		synchronized (this) {
+			if (closed) {
+				scheduled = false;
+				notifyAll();
+				return;
+			}
+			n = Math.min(count, batch.length);
+			for (int i = 0; i < n; i++) {
+				batch[i] = ring[head];
+				ring[head] = null;
+				head = (head + 1) % ring.length;
+				if (conflater != null)
+					conflater.removed(batch[i], taken + i);
+			}
+			count -= n;
+			taken += n;
+			deliverer = Thread.currentThread();
+			if (blocked > 0)
+				notifyAll();
+		}
+		boolean again = false;
+		try {
+			for (int i = 0; i < n; i++) {
+				Signal signal = batch[i];
+				batch[i] = null;
+				if (closed || !enabled)
+					continue;
+				long start = System.currentTimeMillis();
+				boolean ok = false;
+				try {
+					SignalQueue.deliver(listener, signal);
+					ok = true;
+				} catch (RuntimeException e) {
+					e.printStackTrace(System.err);
+				} finally {
+					stats.delivered(System.currentTimeMillis() - start, ok);
+				}
+			}
+		} finally {
+			synchronized (this) {
+				deliverer = null;
+				again = count > 0 && !closed;
+				if (!again)
+					scheduled = false;
+				notifyAll();
+			}
+			// The thread is a pooled one: don't leave it interrupted
+			Thread.interrupted();
+		}
+		if (again)
+			support.schedule(this);
+	}
+
+	/**
+	 * Close the mailbox, discarding the pending signals and interrupting
+	 * the delivery in progress, if any.
+	 */
+	synchronized void close() {
+		closed = true;
+		for (int i = 0; i < count; i++)
+			ring[(head + i) % ring.length] = null;
+		taken += count;
+		count = 0;
+		if (conflater != null)
+			conflater.clear();
+		if (deliverer != null)
+			deliverer.interrupt();
+		notifyAll();
+	}
+
+	/**
+	 * Wait at most the given time for the delivery in progress, if any, to complete.
+	 *
+	 * @return <b>true</b> if no delivery is in progress
+	 */
+	synchronized boolean awaitIdle(long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		while (deliverer != null) {
+			long toWait = end - System.currentTimeMillis();
+			if (toWait <= 0)
+				return false;
+			wait(toWait);
+		}
+		return true;
+	}
+
+	int size() {
+		return count;
+	}
+
+	/**
+	 * Discard the pending signals.
+	 *
+	 * @return the number of discarded signals
+	 */
+	synchronized int shed() {
+		int n = count;
+		for (int i = 0; i < n; i++) {
+			if (conflater != null)
+				conflater.removed(ring[head], taken + i);
+			ring[head] = null;
+			head = (head + 1) % ring.length;
+		}
+		count = 0;
+		taken += n;
+		stats.shed(n);
+		if (blocked > 0)
+			notifyAll();
+		return n;
+	}
+
+	void isolated() {
+		stats.isolated();
+	}
+
+	synchronized ListenerStatistics getStatistics() {
+		long conflated = conflater == null ? 0 : conflater.getConflatedCount();
+		return stats.snapshot(count, maxCount, dropped, conflated, enabled);
+	}
+
+	synchronized long getDroppedCount() {
+		return dropped;
+	}
+
+	synchronized void setConflationPolicy(ConflationPolicy policy) {
+		conflater = policy == null ? null : new Conflater(policy);
+	}
+
+	synchronized ConflationPolicy getConflationPolicy() {
+		return conflater == null ? null : conflater.getPolicy();
+	}
+
+	synchronized long getConflatedCount() {
+		return conflater == null ? 0 : conflater.getConflatedCount();
+	}
+
+	Listener getListener() {
+		return listener;
+	}
+
+	private void grow() {
+		Signal[] newRing = new Signal[ring.length * 2];
+		for (int i = 0; i < count; i++)
+			newRing[i] = ring[(head + i) % ring.length];
+		ring = newRing;
+		head = 0;
+	}
+}
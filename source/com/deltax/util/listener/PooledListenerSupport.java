@@ -0,0 +1,513 @@
+package com.deltax.util.listener;
+
+import java.util.HashMap;
+
+import org.sadun.util.tp.ThreadPool;
+
+/**
+ * A listener support where all the listeners share a small pool of threads,
+ * rather than having a thread each as with {@link ListenerSupport ListenerSupport}.
+ * <p>
+ * Each listener has a bounded <i>mailbox</i>, where {@link #notify(Signal) notified}
+ * signals are queued. A mailbox with pending signals is run by one of the
+ * pool's threads, which delivers a batch of signals to the listener and
+ * then moves on to another mailbox. Since a mailbox is never run by two threads at
+ * the same time, each listener receives the signals in the order they have been
+ * notified; different listeners receive signals concurrently.
+ * <p>
+ * Notifying a signal does not hold any lock on the support: it just puts the signal
+ * in each listener's mailbox, and schedules the mailboxes which were idle. When a
+ * mailbox is full, the {@link #setOverflowPolicy(int) overflow policy} applies:
+ * by default, the notifying thread waits for room in the mailbox.
+ * <p>
+ * Listeners can {@link #addListener(Listener, Class, Object) subscribe} to signals
+ * of a given class or from a given source only; signals are then put only in the
+ * mailboxes of the subscribed listeners.
+ * <p>
+ * Listeners must not block indefinitely in {@link Listener#receive(Signal) receive()},
+ * since they would hold a pooled thread.
+ *
+ * @author <a href="mailto:cristianosadunTAKETHISAWAY@hotmail.com">Cristiano
+ *         Sadun</a>
+ * @version 1.0
+ */
+public class PooledListenerSupport implements IListenerSupport {
+
+	/**
+	 * Overflow policy: when a mailbox is full, the notifying thread waits for
+	 * room in the mailbox.
+	 */
+	public static final int BLOCK = 0;
+
+	/**
+	 * Overflow policy: when a mailbox is full, the oldest pending signal is discarded.
+	 */
+	public static final int DROP_OLDEST = 1;
+
+	/**
+	 * Overflow policy: when a mailbox is full, the notified signal is discarded.
+	 */
+	public static final int DROP_NEWEST = 2;
+
+	/**
+	 * The default capacity of each listener's mailbox.
+	 */
+	public static final int DEFAULT_MAILBOX_CAPACITY = 1024;
+
+	/**
+	 * A lock used in accessing the listeners/mailbox registry.
+	 */
+	protected Object lock = new Object();
+	private HashMap mailboxTable = new HashMap();
+	private volatile Mailbox[] mailboxes = new Mailbox[0];
+	private RoutingTable routingTable = new RoutingTable();
+
+	private ThreadPool threadPool;
+	private boolean ownPool;
+	private int mailboxCapacity;
+	private volatile int overflowPolicy = BLOCK;
+	private volatile int isolationPolicy = ListenerSupport.ISOLATE_NONE;
+	private volatile int isolationThreshold = Integer.MAX_VALUE;
+	private long receiveTimeout = ListenerSupport.DEFAULT_RECEIVE_TIMEOUT;
+
+	/**
+	 * Create a listener support which runs the listeners on the given pool,
+	 * possibly shared with other supports, with mailboxes of the given capacity.
+	 *
+	 * @param threadPool the pool to use
+	 * @param mailboxCapacity the capacity of each listener's mailbox
+	 */
+	public PooledListenerSupport(ThreadPool threadPool, int mailboxCapacity) {
+		if (threadPool == null)
+			throw new IllegalArgumentException("threadPool cannot be null");
+		if (mailboxCapacity < 1)
+			throw new IllegalArgumentException("The mailbox capacity must be at least 1");
+		this.threadPool = threadPool;
+		this.mailboxCapacity = mailboxCapacity;
+	}
+
+	/**
+	 * Create a listener support which runs the listeners on a pool of daemon threads
+	 * of the given size, with mailboxes of the given capacity.
+	 *
+	 * @param threads the number of threads
+	 * @param mailboxCapacity the capacity of each listener's mailbox
+	 */
+	public PooledListenerSupport(int threads, int mailboxCapacity) {
+		this(new ThreadPool(threads, true), mailboxCapacity);
+		this.ownPool = true;
+	}
+
+	/**
+	 * Create a listener support which runs the listeners on a pool of daemon threads
+	 * of the given size, with mailboxes of the {@link #DEFAULT_MAILBOX_CAPACITY default} capacity.
+	 *
+	 * @param threads the number of threads
+	 */
+	public PooledListenerSupport(int threads) {
+		this(threads, DEFAULT_MAILBOX_CAPACITY);
+	}
+
+	/**
+	 * Create a listener support which runs the listeners on a pool with one daemon thread
+	 * per available processor, with mailboxes of the {@link #DEFAULT_MAILBOX_CAPACITY default} capacity.
+	 */
+	public PooledListenerSupport() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Add a listener to the listeners set. No thread is started.
+	 *
+	 * @param listener
+	 *            the listener to add
+	 */
+	public void addListener(Listener listener) {
+		addListener(listener, null, null);
+	}
+
+	/**
+	 * Add a listener to the listeners set, subscribing it only to the signals
+	 * of the given class (or its subclasses) and from the given source. No thread
+	 * is started.
+	 * <p>
+	 * If the listener is already registered, the subscription is added to its existing
+	 * ones.
+	 *
+	 * @param listener
+	 *            the listener to add
+	 * @param signalClass
+	 *            the class of the signals to receive, or <b>null</b> for any signal
+	 * @param source
+	 *            the source of the signals to receive, compared by identity,
+	 *            or <b>null</b> for any source
+	 */
+	public void addListener(Listener listener, Class signalClass, Object source) {
+		synchronized (lock) {
+			Mailbox mailbox = (Mailbox) mailboxTable.get(listener);
+			if (mailbox == null) {
+				mailbox = new Mailbox(this, listener, mailboxCapacity);
+				mailboxTable.put(listener, mailbox);
+				updateMailboxes();
+			}
+			routingTable.add(mailbox, signalClass, source);
+		}
+	}
+
+	/**
+	 * Remove a listener from the listeners set. Its pending signals are discarded,
+	 * and a delivery in progress is interrupted.
+	 *
+	 * @param listener
+	 *            the listener to remove
+	 * @exception BlockedListenerException
+	 *                if the listener does not return from {@link Listener#receive(Signal)
+	 *                receive()} within the {@link #getReceiveTimeout() receive timeout}
+	 */
+	public void removeListener(Listener listener) throws BlockedListenerException {
+		Mailbox mailbox;
+		synchronized (lock) {
+			mailbox = (Mailbox) mailboxTable.remove(listener);
+			if (mailbox == null)
+				return;
+			routingTable.remove(mailbox);
+			updateMailboxes();
+		}
+		mailbox.close();
+		try {
+			if (!mailbox.awaitIdle(receiveTimeout))
+				throw new BlockedListenerException(
+					"The listener "
+						+ listener
+						+ " did not return from receive() in time and appears to be blocked");
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Unconditionally unregister all the listeners.
+	 */
+	public void removeAllListeners() {
+		Mailbox[] removed;
+		synchronized (lock) {
+			removed = mailboxes;
+			mailboxTable.clear();
+			routingTable.clear();
+			updateMailboxes();
+		}
+		for (int i = 0; i < removed.length; i++)
+			removed[i].close();
+	}
+
+	/**
+	 * Check whether a listener is registered or not.
+	 *
+	 * @param listener
+	 *            the listener to check
+	 * @return true if the listener is registered
+	 */
+	public boolean isRegistered(Listener listener) {
+		synchronized (lock) {
+			return mailboxTable.containsKey(listener);
+		}
+	}
+
+	/**
+	 * Return the registered listeners.
+	 *
+	 * @return the registered listeners
+	 */
+	public Listener[] getListeners() {
+		Mailbox[] m = mailboxes;
+		Listener[] listeners = new Listener[m.length];
+		for (int i = 0; i < m.length; i++)
+			listeners[i] = m[i].getListener();
+		return listeners;
+	}
+
+	/**
+	 * Broadcast a signal to the listeners subscribed to it. Each listener receives 
+	 * it in order with respect to the other signals notified by the same thread; 
+	 * the order among listeners is unspecified.
+	 */
+	public void notify(Signal signal) {
+		notify(signal, overflowPolicy);
+	}
+
+	/**
+	 * Broadcast a signal to the listeners subscribed to it, applying the given
+	 * overflow policy rather than the {@link #setOverflowPolicy(int) support's one}
+	 * if a mailbox is full. This allows, for example, to drop routine signals but
+	 * not important ones.
+	 *
+	 * @param signal the signal to notify
+	 * @param overflowPolicy one of {@link #BLOCK BLOCK}, {@link #DROP_OLDEST DROP_OLDEST}
+	 *          or {@link #DROP_NEWEST DROP_NEWEST}
+	 */
+	public void notify(Signal signal, int overflowPolicy) {
+		checkOverflowPolicy(overflowPolicy);
+		RoutingTable.Route route = routingTable.getRoute(signal.getClass());
+		send(route.getTargets(), signal, overflowPolicy);
+		send(route.getTargets(signal.getSource()), signal, overflowPolicy);
+	}
+
+	private void send(Object[] targets, Signal signal, int policy) {
+		for (int i = 0; i < targets.length; i++) {
+			Mailbox mailbox = (Mailbox) targets[i];
+			if (!mailbox.enabled)
+				continue;
+			if (isolationPolicy != ListenerSupport.ISOLATE_NONE
+				&& mailbox.size() >= isolationThreshold) {
+				// A disabled mailbox would discard its pending signals anyway
+				mailbox.isolated();
+				if (isolationPolicy == ListenerSupport.ISOLATE_DISABLE) {
+					mailbox.isolated = true;
+					mailbox.enabled = false;
+				}
+				mailbox.shed();
+				if (!mailbox.enabled)
+					continue;
+			}
+			if (mailbox.put(signal, policy))
+				schedule(mailbox);
+		}
+	}
+
+	/**
+	 * Count the registered listeners.
+	 *
+	 * @return the number of currently registered listeners
+	 */
+	public int countListeners() {
+		return mailboxes.length;
+	}
+
+	/**
+	 * Return the the amount of time (in ms.) a {@link Listener} is given to exit
+	 * gracefully from the {@link Listener#receive(Signal)} method when it's
+	 * {@link #removeListener(Listener) removed}.
+	 *
+	 * @return the timeout in milliseconds
+	 */
+	public long getReceiveTimeout() {
+		return receiveTimeout;
+	}
+
+	/**
+	 * Set the the amount of time (in ms.) a {@link Listener} is given to exit
+	 * gracefully from the {@link Listener#receive(Signal)} method when it's
+	 * {@link #removeListener(Listener) removed}.
+	 *
+	 * @param receiveTimeout
+	 *            the timeout in milliseconds
+	 */
+	public void setReceiveTimeout(long receiveTimeout) {
+		this.receiveTimeout = receiveTimeout;
+	}
+
+	/**
+	 * Enables or disable one of the contained listeners. A disabled listener
+	 * doesn't receive signals, and the signals pending in its mailbox are discarded.
+	 * <p>
+	 * If a listener has not been {@link #addListener(Listener) added} to
+	 * the support, this method does nothing.
+	 *
+	 * @param listener the listener to disable or enable
+	 * @param enabled if false, the listener will not be notified events.
+	 */
+	public void setEnabled(Listener listener, boolean enabled) {
+		synchronized (lock) {
+			Mailbox mailbox = (Mailbox) mailboxTable.get(listener);
+			if (mailbox != null) {
+				mailbox.enabled = enabled;
+				if (enabled)
+					mailbox.isolated = false;
+			}
+		}
+	}
+
+	/**
+	 * Set what happens to a listener which falls behind, i.e. whose mailbox holds the
+	 * given number of pending signals when a new signal is notified. This allows to
+	 * protect the notifying threads and the other listeners from a slow listener
+	 * before its mailbox is full and the {@link #setOverflowPolicy(int) overflow policy}
+	 * applies.
+	 * <p>
+	 * With {@link ListenerSupport#ISOLATE_DISABLE ISOLATE_DISABLE}, the listener is
+	 * {@link #setEnabled(Listener, boolean) disabled} until it is enabled again. With
+	 * {@link ListenerSupport#ISOLATE_SHED ISOLATE_SHED}, its pending signals are discarded,
+	 * and it keeps receiving the new ones.
+	 *
+	 * @param isolationPolicy one of {@link ListenerSupport#ISOLATE_NONE ISOLATE_NONE} (the
+	 *         default), {@link ListenerSupport#ISOLATE_DISABLE ISOLATE_DISABLE} or
+	 *         {@link ListenerSupport#ISOLATE_SHED ISOLATE_SHED}
+	 * @param maxQueueDepth the number of pending signals above which a listener is isolated
+	 */
+	public void setIsolationPolicy(int isolationPolicy, int maxQueueDepth) {
+		if (isolationPolicy != ListenerSupport.ISOLATE_NONE
+			&& isolationPolicy != ListenerSupport.ISOLATE_DISABLE
+			&& isolationPolicy != ListenerSupport.ISOLATE_SHED)
+			throw new IllegalArgumentException("Invalid isolation policy " + isolationPolicy);
+		if (maxQueueDepth < 1)
+			throw new IllegalArgumentException("maxQueueDepth must be at least 1");
+		this.isolationThreshold = maxQueueDepth;
+		this.isolationPolicy = isolationPolicy;
+	}
+
+	/**
+	 * Return what happens to a listener which falls behind.
+	 *
+	 * @return one of {@link ListenerSupport#ISOLATE_NONE ISOLATE_NONE},
+	 *          {@link ListenerSupport#ISOLATE_DISABLE ISOLATE_DISABLE} or
+	 *          {@link ListenerSupport#ISOLATE_SHED ISOLATE_SHED}
+	 */
+	public int getIsolationPolicy() {
+		return isolationPolicy;
+	}
+
+	/**
+	 * Return <b>true</b> if the given listener has been disabled because it fell
+	 * behind, and not enabled since.
+	 *
+	 * @param listener the listener
+	 * @return <b>true</b> if the given listener is isolated
+	 */
+	public boolean isIsolated(Listener listener) {
+		synchronized (lock) {
+			Mailbox mailbox = (Mailbox) mailboxTable.get(listener);
+			return mailbox != null && mailbox.isolated;
+		}
+	}
+
+	/**
+	 * Return the delivery statistics of the given listener.
+	 *
+	 * @param listener the listener
+	 * @return the listener's statistics, or <b>null</b> if the listener is not registered
+	 */
+	public ListenerStatistics getStatistics(Listener listener) {
+		Mailbox mailbox;
+		synchronized (lock) {
+			mailbox = (Mailbox) mailboxTable.get(listener);
+		}
+		return mailbox == null ? null : mailbox.getStatistics();
+	}
+
+	/**
+	 * Return the delivery statistics of all the registered listeners.
+	 *
+	 * @return the listeners' statistics
+	 */
+	public ListenerStatistics[] getStatistics() {
+		Mailbox[] m = mailboxes;
+		ListenerStatistics[] result = new ListenerStatistics[m.length];
+		for (int i = 0; i < m.length; i++)
+			result[i] = m[i].getStatistics();
+		return result;
+	}
+
+	/**
+	 * Set the {@link ConflationPolicy conflation policy} applied to the signals
+	 * put in one of the contained listeners' mailbox, so that a listener which cannot
+	 * keep up receives the newest signals rather than stale ones (or, with the
+	 * {@link #BLOCK BLOCK} overflow policy, slowing down the notifying threads).
+	 * <p>
+	 * If a listener has not been {@link #addListener(Listener) added} to
+	 * the support, this method does nothing.
+	 *
+	 * @param listener the listener
+	 * @param policy the policy, or <b>null</b> to queue all the signals (the default)
+	 */
+	public void setConflationPolicy(Listener listener, ConflationPolicy policy) {
+		synchronized (lock) {
+			Mailbox mailbox = (Mailbox) mailboxTable.get(listener);
+			if (mailbox != null)
+				mailbox.setConflationPolicy(policy);
+		}
+	}
+
+	/**
+	 * Return the {@link ConflationPolicy conflation policy} applied to the signals
+	 * put in one of the contained listeners' mailbox.
+	 *
+	 * @param listener the listener
+	 * @return the policy, or <b>null</b> if the listener is not registered or
+	 *          all its signals are queued
+	 */
+	public ConflationPolicy getConflationPolicy(Listener listener) {
+		synchronized (lock) {
+			Mailbox mailbox = (Mailbox) mailboxTable.get(listener);
+			return mailbox == null ? null : mailbox.getConflationPolicy();
+		}
+	}
+
+	/**
+	 * Return the policy applied when a listener's mailbox is full.
+	 *
+	 * @return one of {@link #BLOCK BLOCK}, {@link #DROP_OLDEST DROP_OLDEST} or
+	 *          {@link #DROP_NEWEST DROP_NEWEST}
+	 */
+	public int getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * Set the policy applied when a listener's mailbox is full.
+	 *
+	 * @param overflowPolicy one of {@link #BLOCK BLOCK} (the default),
+	 *          {@link #DROP_OLDEST DROP_OLDEST} or {@link #DROP_NEWEST DROP_NEWEST}
+	 */
+	public void setOverflowPolicy(int overflowPolicy) {
+		checkOverflowPolicy(overflowPolicy);
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	private static void checkOverflowPolicy(int overflowPolicy) {
+		if (overflowPolicy != BLOCK
+			&& overflowPolicy != DROP_OLDEST
+			&& overflowPolicy != DROP_NEWEST)
+			throw new IllegalArgumentException("Invalid overflow policy " + overflowPolicy);
+	}
+
+	/**
+	 * Return the capacity of each listener's mailbox.
+	 *
+	 * @return the capacity of each listener's mailbox
+	 */
+	public int getMailboxCapacity() {
+		return mailboxCapacity;
+	}
+
+	/**
+	 * Return the pool running the listeners.
+	 *
+	 * @return the pool running the listeners
+	 */
+	public ThreadPool getThreadPool() {
+		return threadPool;
+	}
+
+	/**
+	 * Unregister all the listeners and, unless the pool has been given at
+	 * construction, terminate the pool's threads.
+	 */
+	public void shutdown() {
+		removeAllListeners();
+		if (ownPool)
+			threadPool.terminate();
+	}
+
+	void schedule(Mailbox mailbox) {
+		threadPool.start(mailbox);
+	}
+
+	/*
+	 * Must be invoked holding the lock
+	 */
+	private void updateMailboxes() {
+		Mailbox[] m = new Mailbox[mailboxTable.size()];
+		mailboxTable.values().toArray(m);
+		mailboxes = m;
+	}
+}
@@ -0,0 +1,158 @@
+package com.deltax.util.listener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The routing table of a listener support, which associates each signal
+ * class to the targets (signal queues or mailboxes) which are subscribed to it,
+ * either for any source or for a specific source.
+ * <p>
+ * A subscription to a signal class includes its subclasses; sources are
+ * compared by identity. The {@link Route route} for a signal class is computed
+ * the first time a signal of that class is routed, and then cached until the
+ * subscriptions change. Looking up a cached route does not synchronize.
+ *
+ * @author <a href="mailto:cristianosadunTAKETHISAWAY@hotmail.com">Cristiano
+ *         Sadun</a>
+ * @version 1.0
+ */
+class RoutingTable {
+
+	private static final Object[] NONE = new Object[0];
+
+	/**
+	 * The targets of the signals of a given class.
+	 */
+	static class Route {
+
+		private Object[] any;
+		private Map bySource;
+
+		/**
+		 * Return the targets which receive the signals from any source.
+		 */
+		Object[] getTargets() {
+			return any;
+		}
+
+		/**
+		 * Return the targets which receive only the signals from the given source.
+		 */
+		Object[] getTargets(Object source) {
+			if (bySource == null)
+				return NONE;
+			Object[] targets = (Object[]) bySource.get(source);
+			return targets == null ? NONE : targets;
+		}
+	}
+
+	private static class Subscription {
+		private Object target;
+		private Class signalClass;
+		private Object source;
+
+		Subscription(Object target, Class signalClass, Object source) {
+			this.target = target;
+			this.signalClass = signalClass;
+			this.source = source;
+		}
+	}
+
+	private List subscriptions = new ArrayList();
+	private volatile Map routes = new HashMap();
+
+	/**
+	 * Subscribe the given target to the signals of the given class and source.
+	 *
+	 * @param target the target
+	 * @param signalClass the class of the signals, or <b>null</b> for any signal
+	 * @param source the source of the signals, or <b>null</b> for any source
+	 */
+	synchronized void add(Object target, Class signalClass, Object source) {
+		if (signalClass != null && !Signal.class.isAssignableFrom(signalClass))
+			throw new IllegalArgumentException(signalClass.getName() + " is not a signal class");
+		subscriptions.add(new Subscription(target, signalClass, source));
+		routes = new HashMap();
+	}
+
+	/**
+	 * Remove all the subscriptions of the given target.
+	 */
+	synchronized void remove(Object target) {
+		for (Iterator i = subscriptions.iterator(); i.hasNext();) {
+			if (((Subscription) i.next()).target == target)
+				i.remove();
+		}
+		routes = new HashMap();
+	}
+
+	/**
+	 * Remove all the subscriptions.
+	 */
+	synchronized void clear() {
+		subscriptions.clear();
+		routes = new HashMap();
+	}
+
+	/**
+	 * Return the route for signals of the given class.
+	 */
+	Route getRoute(Class signalClass) {
+		Route route = (Route) routes.get(signalClass);
+		if (route != null)
+			return route;
+		synchronized (this) {
+			route = (Route) routes.get(signalClass);
+			if (route != null)
+				return route;
+			route = computeRoute(signalClass);
+			// Copy on write, so that lookups need no synchronization
+			Map newRoutes = new HashMap(routes);
+			newRoutes.put(signalClass, route);
+			routes = newRoutes;
+			return route;
+		}
+	}
+
+	/*
+	 * Must be invoked holding the table's monitor
+	 */
+	private Route computeRoute(Class signalClass) {
+		List any = new ArrayList();
+		Map bySource = new IdentityHashMap();
+		for (Iterator i = subscriptions.iterator(); i.hasNext();) {
+			Subscription s = (Subscription) i.next();
+			if (s.signalClass != null && !s.signalClass.isAssignableFrom(signalClass))
+				continue;
+			if (s.source == null) {
+				if (!any.contains(s.target))
+					any.add(s.target);
+			} else {
+				List l = (List) bySource.get(s.source);
+				if (l == null)
+					bySource.put(s.source, l = new ArrayList());
+				if (!l.contains(s.target))
+					l.add(s.target);
+			}
+		}
+		Route route = new Route();
+		route.any = any.toArray();
+		if (!bySource.isEmpty()) {
+			route.bySource = new IdentityHashMap();
+			for (Iterator i = bySource.entrySet().iterator(); i.hasNext();) {
+				Map.Entry e = (Map.Entry) i.next();
+				List l = (List) e.getValue();
+				// A target receiving from any source must not receive twice
+				l.removeAll(any);
+				if (!l.isEmpty())
+					route.bySource.put(e.getKey(), l.toArray());
+			}
+		}
+		return route;
+	}
+}
@@ -0,0 +1,490 @@
+package com.deltax.util.listener;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A binary, append-only journal of signals, stored in memory-mapped segment files.
+ * <p>
+ * Each {@link #record(Signal) recorded} signal is written, with a time stamp, in the
+ * current segment's mapped buffer: recording does not involve any system call nor any
+ * flushing, and the recorded signals survive the termination of the process (but not
+ * a failure of the operating system, unless {@link #force() forced} to disk). When the
+ * current segment is full, a new one is created; optionally, only a
+ * {@link #setMaxSegments(int) maximum number} of segments is kept.
+ * <p>
+ * The segments are the files called <tt><i>name</i>-<i>number</i>.jnl</tt> in the journal's
+ * directory. Each segment is indexed by record number and time stamp, so that the signals
+ * recorded since a given time can be {@link #replay(Listener, long) replayed} without
+ * reading the journal from the start. Signals are not serialized: they're replayed as
+ * {@link JournalSignal JournalSignal}s, which carry the name of the signal class and the
+ * description of the original signal and source.
+ * <p>
+ * A journal which already exists is reopened, and new signals are appended to it.
+ *
+ * @author <a href="mailto:cristianosadunTAKETHISAWAY@hotmail.com">Cristiano
+ *         Sadun</a>
+ * @version 1.0
+ */
+public class SignalJournal {
+
+	/**
+	 * The default size of each segment file, in bytes.
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+	private static final int MAGIC = 0x534a4e4c;
+	private static final int HEADER_SIZE = 12;
+	private static final int INDEX_INTERVAL = 64;
+	private static final String SUFFIX = ".jnl";
+
+	/*
+	 * A segment file, with a sparse index of its records: one entry every
+	 * INDEX_INTERVAL records.
+	 */
+	private static class Segment {
+		private File file;
+		private long firstRecord;
+		private int records;
+		private int end = HEADER_SIZE;
+		private long lastTime = Long.MIN_VALUE;
+		private long[] indexTimes = new long[16];
+		private int[] indexOffsets = new int[16];
+		private int indexSize;
+		private MappedByteBuffer buffer; // Only for the current segment
+
+		Segment(File file, long firstRecord) {
+			this.file = file;
+			this.firstRecord = firstRecord;
+		}
+
+		void added(int offset, int length, long time) {
+			if (records % INDEX_INTERVAL == 0) {
+				if (indexSize == indexTimes.length) {
+					long[] t = new long[indexSize * 2];
+					System.arraycopy(indexTimes, 0, t, 0, indexSize);
+					indexTimes = t;
+					int[] o = new int[indexSize * 2];
+					System.arraycopy(indexOffsets, 0, o, 0, indexSize);
+					indexOffsets = o;
+				}
+				indexTimes[indexSize] = time;
+				indexOffsets[indexSize++] = offset;
+			}
+			records++;
+			lastTime = time;
+			end = offset + 4 + length;
+		}
+
+		long getFirstTime() {
+			return indexSize == 0 ? Long.MAX_VALUE : indexTimes[0];
+		}
+
+		/*
+		 * Return the index entry from which to look for the given record
+		 * or time
+		 */
+		int locate(long fromRecord, long fromTime) {
+			int i = 0;
+			if (fromRecord > firstRecord)
+				i = (int) Math.min((fromRecord - firstRecord) / INDEX_INTERVAL, indexSize - 1);
+			int lo = i, hi = indexSize - 1;
+			// Find the last entry whose time precedes fromTime
+			while (lo < hi) {
+				int mid = (lo + hi + 1) >>> 1;
+				if (indexTimes[mid] < fromTime)
+					lo = mid;
+				else
+					hi = mid - 1;
+			}
+			return lo;
+		}
+	}
+
+	private File directory;
+	private String name;
+	private int segmentSize;
+	private int maxSegments;
+	private List segments = new ArrayList();
+	private Segment current;
+	private int nextSegmentNumber;
+	private long lastTime = Long.MIN_VALUE;
+	private boolean closed;
+
+	/**
+	 * Open the journal with the given name in the given directory, creating it if
+	 * it does not exist, with segments of the given size.
+	 *
+	 * @param directory the directory containing the segment files
+	 * @param name the name of the journal
+	 * @param segmentSize the size of each segment file, in bytes
+	 * @throws IOException if the journal cannot be opened
+	 */
+	public SignalJournal(File directory, String name, int segmentSize) throws IOException {
+		if (segmentSize < 1024)
+			throw new IllegalArgumentException("The segment size must be at least 1024 bytes");
+		this.directory = directory;
+		this.name = name;
+		this.segmentSize = segmentSize;
+		directory.mkdirs();
+		if (!directory.isDirectory())
+			throw new IOException(directory + " is not a directory");
+		open();
+	}
+
+	/**
+	 * Open the journal with the given name in the given directory, creating it if
+	 * it does not exist, with segments of the {@link #DEFAULT_SEGMENT_SIZE default} size.
+	 *
+	 * @param directory the directory containing the segment files
+	 * @param name the name of the journal
+	 * @throws IOException if the journal cannot be opened
+	 */
+	public SignalJournal(File directory, String name) throws IOException {
+		this(directory, name, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Append a signal to the journal.
+	 *
+	 * @param signal the signal to record
+	 * @throws IOException if a new segment cannot be created, or the journal is closed
+	 */
+	public synchronized void record(Signal signal) throws IOException {
+		if (closed)
+			throw new IOException("The journal is closed");
+		byte[] cls = signal.getClass().getName().getBytes("UTF-8");
+		byte[] src = String.valueOf(signal.getSource()).getBytes("UTF-8");
+		byte[] text = String.valueOf(signal).getBytes("UTF-8");
+		int len = 8 + 12 + cls.length + src.length + text.length;
+		// Keep the time stamps ordered, for the time index
+		long time = Math.max(System.currentTimeMillis(), lastTime);
+
+		if (current.end + 4 + len > current.buffer.capacity())
+			roll(4 + len);
+		MappedByteBuffer b = current.buffer;
+		int pos = current.end;
+		b.position(pos + 4);
+		b.putLong(time);
+		put(b, cls);
+		put(b, src);
+		put(b, text);
+		// The length is written last: a record is complete when its length is
+		b.putInt(pos, len);
+		current.added(pos, len, time);
+		lastTime = time;
+	}
+
+	/**
+	 * Replay all the recorded signals to the given listener, in the order they have
+	 * been recorded.
+	 *
+	 * @param listener the listener to receive the {@link JournalSignal JournalSignal}s
+	 * @return the number of replayed signals
+	 * @throws IOException if the segments cannot be read
+	 */
+	public long replay(Listener listener) throws IOException {
+		return replay(listener, Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Replay the signals recorded since the given time to the given listener, in the
+	 * order they have been recorded.
+	 *
+	 * @param listener the listener to receive the {@link JournalSignal JournalSignal}s
+	 * @param fromTime the time (as in {@link System#currentTimeMillis()}) of the
+	 *         first signal to replay
+	 * @return the number of replayed signals
+	 * @throws IOException if the segments cannot be read
+	 */
+	public long replay(Listener listener, long fromTime) throws IOException {
+		return replay(listener, fromTime, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Replay the signals recorded in the given time interval to the given listener, in
+	 * the order they have been recorded.
+	 *
+	 * @param listener the listener to receive the {@link JournalSignal JournalSignal}s
+	 * @param fromTime the time (as in {@link System#currentTimeMillis()}) of the
+	 *         first signal to replay
+	 * @param toTime the time of the last signal to replay
+	 * @return the number of replayed signals
+	 * @throws IOException if the segments cannot be read
+	 */
+	public long replay(Listener listener, long fromTime, long toTime) throws IOException {
+		long[] replayed = new long[1];
+		scan(listener, 0, fromTime, toTime, replayed);
+		return replayed[0];
+	}
+
+	/**
+	 * Replay the signals from the given record number on, and return the number
+	 * of the next record to be recorded when the replay ends.
+	 */
+	long replayFrom(Listener listener, long fromRecord) throws IOException {
+		return scan(listener, fromRecord, Long.MIN_VALUE, Long.MAX_VALUE, new long[1]);
+	}
+
+	/**
+	 * Write the recorded signals to disk.
+	 */
+	public synchronized void force() {
+		if (current.buffer != null)
+			current.buffer.force();
+	}
+
+	/**
+	 * Write the recorded signals to disk and close the journal. The journal
+	 * can still be replayed.
+	 */
+	public synchronized void close() {
+		if (closed)
+			return;
+		force();
+		current.buffer = null;
+		closed = true;
+	}
+
+	/**
+	 * Return the number of signals in the journal.
+	 *
+	 * @return the number of signals in the journal
+	 */
+	public synchronized long getRecordCount() {
+		Segment first = (Segment) segments.get(0);
+		return current.firstRecord + current.records - first.firstRecord;
+	}
+
+	/**
+	 * Return the number of segment files of the journal.
+	 *
+	 * @return the number of segment files of the journal
+	 */
+	public synchronized int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * Return the maximum number of segment files kept.
+	 *
+	 * @return the maximum number of segment files, or 0 if all the segments are kept
+	 */
+	public synchronized int getMaxSegments() {
+		return maxSegments;
+	}
+
+	/**
+	 * Set the maximum number of segment files kept: when a new segment is created, the
+	 * oldest ones are deleted.
+	 *
+	 * @param maxSegments the maximum number of segment files, or 0 to keep all the
+	 *         segments (the default)
+	 */
+	public synchronized void setMaxSegments(int maxSegments) {
+		if (maxSegments < 0)
+			throw new IllegalArgumentException("maxSegments cannot be negative");
+		this.maxSegments = maxSegments;
+	}
+
+	/**
+	 * Return the directory containing the segment files.
+	 *
+	 * @return the directory containing the segment files
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Return the name of the journal.
+	 *
+	 * @return the name of the journal
+	 */
+	public String getName() {
+		return name;
+	}
+
+	public String toString() {
+		return "signal journal " + new File(directory, name);
+	}
+
+	private void open() throws IOException {
+		String prefix = name + "-";
+		String[] names = directory.list();
+		List found = new ArrayList();
+		for (int i = 0; i < names.length; i++) {
+			if (!names[i].startsWith(prefix) || !names[i].endsWith(SUFFIX))
+				continue;
+			String number = names[i].substring(prefix.length(), names[i].length()
+				- SUFFIX.length());
+			try {
+				nextSegmentNumber = Math.max(nextSegmentNumber, Integer.parseInt(number) + 1);
+				found.add(names[i]);
+			} catch (NumberFormatException e) {
+				// Not a segment, ignore
+			}
+		}
+		String[] segmentNames = (String[]) found.toArray(new String[found.size()]);
+		// Segment numbers are zero-padded
+		Arrays.sort(segmentNames);
+		for (int i = 0; i < segmentNames.length; i++) {
+			Segment s = load(new File(directory, segmentNames[i]));
+			segments.add(s);
+			lastTime = Math.max(lastTime, s.lastTime);
+		}
+		if (segments.isEmpty()) {
+			roll(0);
+			return;
+		}
+		current = (Segment) segments.get(segments.size() - 1);
+		current.buffer = map(current.file, FileChannel.MapMode.READ_WRITE, -1);
+	}
+
+	private Segment load(File file) throws IOException {
+		MappedByteBuffer b = map(file, FileChannel.MapMode.READ_ONLY, -1);
+		if (b.limit() < HEADER_SIZE || b.getInt(0) != MAGIC)
+			throw new IOException(file + " is not a signal journal segment");
+		Segment s = new Segment(file, b.getLong(4));
+		int pos = HEADER_SIZE;
+		while (pos + 4 <= b.limit()) {
+			int len = b.getInt(pos);
+			// Zero marks the end of the segment (or an incomplete record)
+			if (len <= 0 || pos + 4 + len > b.limit())
+				break;
+			s.added(pos, len, b.getLong(pos + 4));
+			pos += 4 + len;
+		}
+		return s;
+	}
+
+	/*
+	 * Must be invoked holding the journal's monitor
+	 */
+	private void roll(int minSize) throws IOException {
+		long firstRecord = current == null ? 0 : current.firstRecord + current.records;
+		if (current != null) {
+			current.buffer.force();
+			current.buffer = null;
+		}
+		String number = String.valueOf(nextSegmentNumber++);
+		while (number.length() < 10)
+			number = "0" + number;
+		Segment s = new Segment(new File(directory, name + "-" + number + SUFFIX), firstRecord);
+		s.buffer = map(s.file, FileChannel.MapMode.READ_WRITE, Math.max(segmentSize,
+			HEADER_SIZE + minSize));
+		s.buffer.putInt(0, MAGIC);
+		s.buffer.putLong(4, firstRecord);
+		segments.add(s);
+		current = s;
+		while (maxSegments > 0 && segments.size() > maxSegments) {
+			Segment old = (Segment) segments.remove(0);
+			old.file.delete();
+		}
+	}
+
+	/*
+	 * Map a file, with the given size or its own size if negative
+	 */
+	private static MappedByteBuffer map(File file, FileChannel.MapMode mode, long size)
+		throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file,
+			mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw");
+		try {
+			if (size < 0)
+				size = raf.length();
+			else
+				raf.setLength(size);
+			// The mapping remains valid after the file is closed
+			return raf.getChannel().map(mode, 0, size);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private long scan(Listener listener, long fromRecord, long fromTime, long toTime,
+		long[] replayed) throws IOException {
+		Segment[] snapshot;
+		int[] ends, starts;
+		long[] startRecords;
+		Segment last;
+		ByteBuffer currentView;
+		long next;
+		synchronized (this) {
+			snapshot = (Segment[]) segments.toArray(new Segment[segments.size()]);
+			ends = new int[snapshot.length];
+			starts = new int[snapshot.length];
+			startRecords = new long[snapshot.length];
+			for (int i = 0; i < snapshot.length; i++) {
+				Segment s = snapshot[i];
+				ends[i] = s.end;
+				if (s.indexSize == 0 || s.firstRecord + s.records <= fromRecord
+					|| s.lastTime < fromTime) {
+					starts[i] = -1; // Nothing to replay
+					continue;
+				}
+				int entry = s.locate(fromRecord, fromTime);
+				starts[i] = s.indexOffsets[entry];
+				startRecords[i] = s.firstRecord + (long) entry * INDEX_INTERVAL;
+			}
+			last = current;
+			currentView = current.buffer == null ? null : current.buffer.duplicate();
+			next = current.firstRecord + current.records;
+		}
+		for (int i = 0; i < snapshot.length; i++) {
+			if (starts[i] < 0)
+				continue;
+			Segment s = snapshot[i];
+			if (s.getFirstTime() > toTime)
+				break;
+			ByteBuffer b;
+			if (s == last && currentView != null)
+				b = currentView;
+			else {
+				try {
+					b = map(s.file, FileChannel.MapMode.READ_ONLY, -1);
+				} catch (FileNotFoundException e) {
+					continue; // Deleted meanwhile
+				}
+			}
+			int pos = starts[i];
+			long record = startRecords[i];
+			while (pos < ends[i]) {
+				int len = b.getInt(pos);
+				long time = b.getLong(pos + 4);
+				if (time > toTime)
+					return next;
+				if (record >= fromRecord && time >= fromTime) {
+					b.position(pos + 12);
+					String cls = get(b);
+					String src = get(b);
+					String text = get(b);
+					listener.receive(new JournalSignal(this, record, time, cls, src, text));
+					replayed[0]++;
+				}
+				pos += 4 + len;
+				record++;
+			}
+		}
+		return next;
+	}
+
+	private static void put(ByteBuffer b, byte[] data) {
+		b.putInt(data.length);
+		b.put(data);
+	}
+
+	private static String get(ByteBuffer b) throws IOException {
+		byte[] data = new byte[b.getInt()];
+		b.get(data);
+		return new String(data, "UTF-8");
+	}
+}
@@ -1,89 +1,306 @@
 package com.deltax.util.listener;
 
-import java.util.ArrayList;
-import java.util.List;
+import org.sadun.util.tp.VirtualThreads;
 
-import com.deltax.util.FIFOQueue;
-import com.deltax.util.QueueEmptyException;
+/**
+ * The queue of signals for a single listener, which delivers them
+ * asynchronously when run in its own thread or in a pooled thread.
+ * <p>
+ * The signals are held in a ring buffer which grows as needed. The
+ * delivering thread takes all the pending signals (up to {@link #BATCH_SIZE})
+ * at each wakeup, and delivers them without holding the queue's monitor. When
+ * the queue is empty, it waits according to the queue's wait strategy (see
+ * {@link ListenerSupport#setWaitStrategy(int)}).
+ * <p>
+ * An <i>on demand</i> queue instead starts a virtual thread (if supported)
+ * when a signal is received and no thread is delivering signals; such thread
+ * terminates as soon as the queue is empty, so that an idle listener
+ * does not hold any thread.
+ * <p>
+ * A queue can be given a {@link ConflationPolicy conflation policy}, which is
+ * applied to the signals as they are received.
+ */
+class SignalQueue implements Runnable, Listener {
 
-class SignalQueue extends Thread implements Listener {
+	/**
+	 * The maximum number of signals taken from the queue at each wakeup.
+	 */
+	public static final int BATCH_SIZE = 64;
+
+	/**
+	 * The number of times an empty queue is checked before waiting, with the
+	 * {@link ListenerSupport#WAIT_SPIN_THEN_PARK} strategy.
+	 */
+	public static final int SPIN_COUNT = 1000;
+
+	private Object queueLock = new Object();
+	private Signal[] ring = new Signal[16];
+	private Signal[] batch = new Signal[BATCH_SIZE];
+	private int head;
+	private volatile int count;
+	private long taken;
+	private int maxCount;
+	private Conflater conflater;
+	private ListenerStatistics stats;
+	private boolean consumerWaiting;
+	private int waitStrategy;
 
-	private FIFOQueue queue;
 	private Listener listener;
-	private boolean shutDown;
-    private volatile boolean ignoreSignals; 
+	private volatile boolean shutDown;
+	private boolean onDemand;
+	private boolean draining;
+	private Thread runner;
+	private boolean running;
+	// An on demand queue may be briefly run by two threads, one about to exit
+	private int runners;
+    private volatile boolean ignoreSignals;
 	public static final int SLEEPING_INTERVAL = 1000;
-    
+
     private static final boolean debug = false;
 
-	public SignalQueue(Listener listener) {
-		queue = new FIFOQueue();
+	public SignalQueue(Listener listener, boolean onDemand, int waitStrategy) {
 		shutDown = false;
 		this.listener = listener;
-		setDaemon(true);
+		this.stats = new ListenerStatistics(listener);
+		this.onDemand = onDemand;
+		this.waitStrategy = waitStrategy;
+	}
+
+	public SignalQueue(Listener listener, boolean onDemand) {
+		this(listener, onDemand, ListenerSupport.WAIT_PARK);
+	}
+
+	public SignalQueue(Listener listener) {
+		this(listener, false);
 	}
 
 	public void doStop() {
 		shutDown = true;
-		interrupt();
-		
+		synchronized (this) {
+			if (runner != null && running)
+				runner.interrupt();
+		}
+	}
+
+	/**
+	 * Return <b>true</b> if a thread is currently running the queue.
+	 */
+	public synchronized boolean isAlive() {
+		return running;
+	}
+
+	/**
+	 * Return <b>true</b> if the queue runs on demand.
+	 */
+	public boolean isOnDemand() {
+		return onDemand;
+	}
+
+	/**
+	 * Wait at most the given time for the thread running the queue to terminate.
+	 * @param timeout the maximum time to wait, in milliseconds
+	 */
+	public synchronized void join(long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		while (running) {
+			long toWait = end - System.currentTimeMillis();
+			if (toWait <= 0)
+				return;
+			wait(toWait);
+		}
 	}
 
 	public void receive(Signal signal) {
-		synchronized (queue) {
-            if (debug) 
+		synchronized (queueLock) {
+            if (debug)
                 System.err.println("["+Thread.currentThread().getName()+"] Receiving "+signal);
-			queue.put(signal);
-			queue.notify();
+			if (conflater != null) {
+				int r = conflater.offer(signal, taken, taken + count);
+				if (r == Conflater.DISCARD)
+					return;
+				if (r >= 0) {
+					// A pending signal is replaced: the queue is already being run
+					ring[(head + r) % ring.length] = signal;
+					return;
+				}
+			}
+			if (count == ring.length)
+				grow();
+			ring[(head + count) % ring.length] = signal;
+			if (conflater != null)
+				conflater.added(signal, taken + count);
+			count++;
+			if (count > maxCount)
+				maxCount = count;
+			if (!onDemand) {
+				if (consumerWaiting) {
+					// Notify only once until the consumer wakes up
+					consumerWaiting = false;
+					queueLock.notify();
+				}
+				return;
+			}
+			if (draining || shutDown)
+				return;
+			draining = true;
 		}
+		VirtualThreads.newThread(this, "signal-queue", true, true).start();
 	}
 
 	public String[] getQueueState() {
-		List l = new ArrayList();
-		synchronized (queue) {
-			for (int i = 0; i < queue.size(); i++) {
-				l.add(queue.peek(i).toString());
-			}
+		synchronized (queueLock) {
+			String[] result = new String[count];
+			for (int i = 0; i < count; i++)
+				result[i] = ring[(head + i) % ring.length].toString();
+			return result;
 		}
-		String[] result = new String[l.size()];
-		l.toArray(result);
-		return result;
 	}
 
 	public void run() {
+		Thread current = Thread.currentThread();
+		synchronized (this) {
+			runner = current;
+			running = true;
+			runners++;
+		}
+		try {
+			if (onDemand)
+				drainQueue();
+			else
+				runQueue();
+		} finally {
+			synchronized (this) {
+				if (--runners == 0)
+					running = false;
+				if (runner == current)
+					runner = null;
+				notifyAll();
+			}
+			// The thread may be a pooled one: don't leave it interrupted
+			Thread.interrupted();
+		}
+	}
+
+	private void runQueue() {
 		while (!shutDown) {
-			if (queue.isEmpty()) {
-				synchronized (queue) {
+			int n;
+			synchronized (queueLock) {
+				n = take();
+			}
+			if (n == 0)
+				awaitSignals();
+			else
+				deliverBatch(n);
+		}
+	}
+
+	private void drainQueue() {
+		while (true) {
+			int n;
+			synchronized (queueLock) {
+				if (shutDown || count == 0) {
+					draining = false;
+					return;
+				}
+				n = take();
+			}
+			deliverBatch(n);
+		}
+	}
+
+	/*
+	 * Move up to BATCH_SIZE signals to the batch array. Must be invoked
+	 * holding the queue lock
+	 */
+	private int take() {
+		int n = Math.min(count, batch.length);
+		for (int i = 0; i < n; i++) {
+			batch[i] = ring[head];
+			ring[head] = null;
+			head = (head + 1) % ring.length;
+			if (conflater != null)
+				conflater.removed(batch[i], taken + i);
+		}
+		count -= n;
+		taken += n;
+		return n;
+	}
+
+	private void deliverBatch(int n) {
+		for (int i = 0; i < n; i++) {
+			Signal signal = batch[i];
+			batch[i] = null;
+			if (!shutDown)
+				deliver(signal);
+		}
+	}
+
+	private void awaitSignals() {
+		switch (waitStrategy) {
+			case ListenerSupport.WAIT_YIELD :
+				Thread.yield();
+				return;
+			case ListenerSupport.WAIT_SPIN_THEN_PARK :
+				for (int i = 0; i < SPIN_COUNT; i++) {
+					if (count > 0 || shutDown)
+						return;
+				}
+				// fall through
+			default :
+				synchronized (queueLock) {
+					if (count > 0 || shutDown)
+						return;
+					consumerWaiting = true;
 					try {
-						queue.wait();
+						queueLock.wait();
 					} catch (InterruptedException e) {
 						if (!shutDown)
 							e.printStackTrace(System.err);
-						interrupted(); // Reset interruption status
+						Thread.interrupted(); // Reset interruption status
+					} finally {
+						consumerWaiting = false;
 					}
 				}
-			} else {
-				Signal signal = null;
-				synchronized (queue) {
-					try {
-						signal = (Signal) queue.get();
-					} catch (QueueEmptyException _ex) {
-						continue;
-					}
-				}
-                
-                if (!ignoreSignals) {
-    				if ((signal instanceof ExceptionSignal)
-    					&& (listener instanceof ExceptionListener))
-    					((ExceptionListener) listener).receiveException(
-    						(ExceptionSignal) signal);
-    				else
-    					listener.receive(signal);
-                }
-			}
+		}
+	}
+
+	/*
+	 * Must be invoked holding the queue lock
+	 */
+	private void grow() {
+		Signal[] newRing = new Signal[ring.length * 2];
+		for (int i = 0; i < count; i++)
+			newRing[i] = ring[(head + i) % ring.length];
+		ring = newRing;
+		head = 0;
+	}
+
+	private void deliver(Signal signal) {
+		if (ignoreSignals)
+			return;
+		long start = System.currentTimeMillis();
+		boolean ok = false;
+		try {
+			deliver(listener, signal);
+			ok = true;
+		} finally {
+			stats.delivered(System.currentTimeMillis() - start, ok);
 		}
 	}
 
+	/**
+	 * Deliver a signal to a listener, using {@link ExceptionListener#receiveException(ExceptionSignal)
+	 * receiveException()} for exception signals if the listener supports it.
+	 */
+	static void deliver(Listener listener, Signal signal) {
+		if ((signal instanceof ExceptionSignal)
+			&& (listener instanceof ExceptionListener))
+			((ExceptionListener) listener).receiveException(
+				(ExceptionSignal) signal);
+		else
+			listener.receive(signal);
+	}
+
 	/**
 	 * @return Returns the listener.
 	 */
@@ -91,6 +308,90 @@ class SignalQueue extends Thread implements Listener {
 		return listener;
 	}
 
+	/**
+	 * Return the number of pending signals.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Discard the pending signals.
+	 *
+	 * @return the number of discarded signals
+	 */
+	public int shed() {
+		int n;
+		synchronized (queueLock) {
+			n = count;
+			for (int i = 0; i < n; i++) {
+				if (conflater != null)
+					conflater.removed(ring[head], taken + i);
+				ring[head] = null;
+				head = (head + 1) % ring.length;
+			}
+			count = 0;
+			taken += n;
+		}
+		stats.shed(n);
+		return n;
+	}
+
+	/**
+	 * Record that the listener has been isolated.
+	 */
+	void isolated() {
+		stats.isolated();
+	}
+
+	/**
+	 * Return a snapshot of the queue's statistics.
+	 *
+	 * @param enabled whether the listener is enabled
+	 */
+	ListenerStatistics getStatistics(boolean enabled) {
+		int depth, max;
+		long conflated;
+		synchronized (queueLock) {
+			depth = count;
+			max = maxCount;
+			conflated = conflater == null ? 0 : conflater.getConflatedCount();
+		}
+		return stats.snapshot(depth, max, 0, conflated, enabled);
+	}
+
+	/**
+	 * Set the conflation policy applied to the signals received from now on.
+	 *
+	 * @param policy the policy, or <b>null</b> to queue all the signals
+	 */
+	public void setConflationPolicy(ConflationPolicy policy) {
+		synchronized (queueLock) {
+			conflater = policy == null ? null : new Conflater(policy);
+		}
+	}
+
+	/**
+	 * Return the conflation policy applied to the received signals.
+	 *
+	 * @return the policy, or <b>null</b> if all the signals are queued
+	 */
+	public ConflationPolicy getConflationPolicy() {
+		synchronized (queueLock) {
+			return conflater == null ? null : conflater.getPolicy();
+		}
+	}
+
+	/**
+	 * Return the number of signals discarded or replaced by the current
+	 * conflation policy.
+	 */
+	public long getConflatedCount() {
+		synchronized (queueLock) {
+			return conflater == null ? 0 : conflater.getConflatedCount();
+		}
+	}
+
     /**
      * Disables the queue, so that events are consumed but not passed on
      * to the listener object. This method should be used carefully, as
@@ -103,4 +404,4 @@ class SignalQueue extends Thread implements Listener {
         ignoreSignals=value;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,349 @@
+package org.sadun.util;
+
+import org.sadun.util.SequentialUniqueIdGenerator.BlockIdStorage;
+import org.sadun.util.SequentialUniqueIdGenerator.IdStorage.IdStorageException;
+import org.sadun.util.tp.ThreadPool;
+
+/**
+ * A generator of numeric ids unique across different JVMs and sequential, for
+ * high throughput.
+ * <p>
+ * Like a {@link SequentialUniqueIdGenerator}, the generator hands out the ids of
+ * a block reserved in a shared {@link BlockIdStorage storage}; but
+ * <ul>
+ * <li>the ids are primitive <tt>long</tt>s, and handing out one only increments a
+ * counter, without allocating objects or accessing the storage;
+ * <li>the next block is reserved in the background when half of the current one
+ * has been used, so that at the end of a block the generator usually switches to
+ * the next one without waiting for the storage;
+ * <li>the size of each block is chosen from the rate at which ids have been used,
+ * so that a block lasts about the {@link #setTargetBlockTime(long) target block time},
+ * between a {@link #setMinBlockSize(int) minimum} and a {@link #setMaxBlockSize(int)
+ * maximum} size.
+ * </ul>
+ * The ids are increasing within a generator, but generators sharing a storage
+ * interleave their blocks; ids which are reserved but not used when the
+ * generator is discarded are lost.
+ *
+ * @version 1.0
+ * @author Cristiano Sadun
+ */
+public class BlockSequentialIdGenerator {
+
+    /**
+     * The default minimum block size.
+     */
+    public static final int DEFAULT_MIN_BLOCK_SIZE = 16;
+
+    /**
+     * The default maximum block size.
+     */
+    public static final int DEFAULT_MAX_BLOCK_SIZE = 65536;
+
+    /**
+     * The default time a block should last, in milliseconds.
+     */
+    public static final long DEFAULT_TARGET_BLOCK_TIME = 5000;
+
+    private static ThreadPool prefetchPool;
+
+    private class Prefetch implements Runnable {
+
+        private int size;
+
+        Prefetch(int size) {
+            this.size = size;
+        }
+
+        public void run() {
+            long first = 0;
+            IdStorageException failure = null;
+            try {
+                first = storage.reserveBlock(size);
+            } catch (IdStorageException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = new IdStorageException(e);
+            }
+            synchronized (lock) {
+                prefetching = false;
+                if (failure == null) {
+                    nextFirst = first;
+                    nextEnd = first + size;
+                    reservedBlocks++;
+                } else
+                    prefetchFailure = failure;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private BlockIdStorage storage;
+    private Object lock = new Object();
+
+    // The current block
+    private long next;
+    private long end;
+    private long blockFirst;
+    private long blockStartTime;
+
+    // The prefetched block, if nextEnd > nextFirst
+    private long nextFirst;
+    private long nextEnd;
+    private boolean prefetching;
+    private IdStorageException prefetchFailure;
+
+    private int minBlockSize;
+    private int maxBlockSize;
+    private long targetBlockTime = DEFAULT_TARGET_BLOCK_TIME;
+    private int blockSize;
+    private long reservedBlocks;
+    private long stalls;
+
+    /**
+     * Create a generator using the given storage, with block sizes between
+     * the given minimum and maximum.
+     *
+     * @param storage
+     *            the storage to reserve the blocks in
+     * @param minBlockSize
+     *            the minimum block size
+     * @param maxBlockSize
+     *            the maximum block size
+     */
+    public BlockSequentialIdGenerator(BlockIdStorage storage, int minBlockSize,
+            int maxBlockSize) {
+        if (storage == null)
+            throw new IllegalArgumentException("storage cannot be null");
+        checkSizes(minBlockSize, maxBlockSize);
+        this.storage = storage;
+        this.minBlockSize = minBlockSize;
+        this.maxBlockSize = maxBlockSize;
+        this.blockSize = minBlockSize;
+    }
+
+    /**
+     * Create a generator using the given storage, with the default block
+     * sizes.
+     *
+     * @param storage
+     *            the storage to reserve the blocks in
+     */
+    public BlockSequentialIdGenerator(BlockIdStorage storage) {
+        this(storage, DEFAULT_MIN_BLOCK_SIZE, DEFAULT_MAX_BLOCK_SIZE);
+    }
+
+    /**
+     * Return the next id. This operation blocks only if the next block has not
+     * been reserved yet when the current one runs out.
+     *
+     * @return the next id
+     * @throws IdStorageException
+     *             if a block cannot be reserved
+     */
+    public long getNextLongId() throws IdStorageException {
+        synchronized (lock) {
+            if (next >= end)
+                nextBlock();
+            long id = next++;
+            if (!prefetching && nextEnd == nextFirst
+                    && end - next <= (end - blockFirst) / 2)
+                prefetch();
+            return id;
+        }
+    }
+
+    /**
+     * Return the next id, as a string.
+     *
+     * @return the next id
+     * @throws IdStorageException
+     *             if a block cannot be reserved
+     */
+    public String getNextId() throws IdStorageException {
+        return Long.toString(getNextLongId());
+    }
+
+    /*
+     * Must be invoked holding the lock
+     */
+    private void nextBlock() throws IdStorageException {
+        while (prefetching) {
+            stalls++;
+            try {
+                lock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IdStorageException(e);
+            }
+        }
+        if (nextEnd == nextFirst) {
+            if (prefetchFailure != null) {
+                IdStorageException e = prefetchFailure;
+                prefetchFailure = null;
+                throw e;
+            }
+            // First block, or a block used up before it's prefetched
+            int size = computeBlockSize();
+            nextFirst = storage.reserveBlock(size);
+            nextEnd = nextFirst + size;
+            reservedBlocks++;
+        }
+        next = blockFirst = nextFirst;
+        end = nextEnd;
+        nextFirst = nextEnd = 0;
+        blockStartTime = System.currentTimeMillis();
+    }
+
+    /*
+     * Must be invoked holding the lock
+     */
+    private void prefetch() {
+        prefetching = true;
+        try {
+            getPrefetchPool().submit(new Prefetch(computeBlockSize()));
+        } catch (RuntimeException e) {
+            prefetching = false;
+            throw e;
+        }
+    }
+
+    /*
+     * Must be invoked holding the lock. Sizes the next block so that, at the
+     * rate the current block is being used, it lasts the target block time
+     */
+    private int computeBlockSize() {
+        long used = next - blockFirst;
+        long elapsed = System.currentTimeMillis() - blockStartTime;
+        if (blockStartTime > 0 && used > 0) {
+            double size = (double) used * targetBlockTime / Math.max(elapsed, 1);
+            blockSize = (int) Math.max(minBlockSize, Math.min(size, maxBlockSize));
+        }
+        return blockSize;
+    }
+
+    private static synchronized ThreadPool getPrefetchPool() {
+        if (prefetchPool == null)
+            prefetchPool = new ThreadPool(0, 4, true);
+        return prefetchPool;
+    }
+
+    private static void checkSizes(int minBlockSize, int maxBlockSize) {
+        if (minBlockSize < 1 || minBlockSize > maxBlockSize)
+            throw new IllegalArgumentException(
+                    "The minimum block size must be positive, and not greater than the maximum block size");
+    }
+
+    /**
+     * Return the size of the last block reserved.
+     *
+     * @return the size of the last block reserved
+     */
+    public int getBlockSize() {
+        synchronized (lock) {
+            return blockSize;
+        }
+    }
+
+    /**
+     * Return the minimum block size.
+     *
+     * @return the minimum block size
+     */
+    public int getMinBlockSize() {
+        synchronized (lock) {
+            return minBlockSize;
+        }
+    }
+
+    /**
+     * Set the minimum block size.
+     *
+     * @param minBlockSize
+     *            the minimum block size
+     */
+    public void setMinBlockSize(int minBlockSize) {
+        synchronized (lock) {
+            checkSizes(minBlockSize, maxBlockSize);
+            this.minBlockSize = minBlockSize;
+            blockSize = Math.max(blockSize, minBlockSize);
+        }
+    }
+
+    /**
+     * Return the maximum block size.
+     *
+     * @return the maximum block size
+     */
+    public int getMaxBlockSize() {
+        synchronized (lock) {
+            return maxBlockSize;
+        }
+    }
+
+    /**
+     * Set the maximum block size.
+     *
+     * @param maxBlockSize
+     *            the maximum block size
+     */
+    public void setMaxBlockSize(int maxBlockSize) {
+        synchronized (lock) {
+            checkSizes(minBlockSize, maxBlockSize);
+            this.maxBlockSize = maxBlockSize;
+            blockSize = Math.min(blockSize, maxBlockSize);
+        }
+    }
+
+    /**
+     * Return the time a block should last.
+     *
+     * @return the time a block should last, in milliseconds
+     */
+    public long getTargetBlockTime() {
+        synchronized (lock) {
+            return targetBlockTime;
+        }
+    }
+
+    /**
+     * Set the time a block should last. Longer times mean fewer accesses to the
+     * storage, but more ids lost when the generator is discarded.
+     *
+     * @param targetBlockTime
+     *            the time a block should last, in milliseconds
+     */
+    public void setTargetBlockTime(long targetBlockTime) {
+        if (targetBlockTime < 1)
+            throw new IllegalArgumentException(
+                    "The target block time must be positive");
+        synchronized (lock) {
+            this.targetBlockTime = targetBlockTime;
+        }
+    }
+
+    /**
+     * Return the number of blocks reserved so far.
+     *
+     * @return the number of blocks reserved so far
+     */
+    public long getReservedBlockCount() {
+        synchronized (lock) {
+            return reservedBlocks;
+        }
+    }
+
+    /**
+     * Return the number of times a thread has waited for a block being
+     * reserved in the background. A growing number means that the
+     * {@link #setTargetBlockTime(long) target block time} or the
+     * {@link #setMaxBlockSize(int) maximum block size} are too small.
+     *
+     * @return the number of times a thread has waited for a block
+     */
+    public long getStallCount() {
+        synchronized (lock) {
+            return stalls;
+        }
+    }
+}
@@ -7,9 +7,9 @@
 package org.sadun.util;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -19,14 +19,19 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.MissingResourceException;
+import java.util.NoSuchElementException;
 import java.util.ResourceBundle;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.sql.DataSource;
 
+import org.sadun.util.pool.ObjectPool;
 import org.sadun.util.pool.connection.ConfigurableDataSource;
+import org.sadun.util.pool.connection.ConnectionPool;
 
 /**
  * A resource bundle which reads resources from a database.
@@ -51,6 +56,19 @@ import org.sadun.util.pool.connection.ConfigurableDataSource;
  * The bundle typically pre-loads and caches the keys (via its {@link #setAutoAdjustCache(boolean) 
  * autoAdjustCache}, {@link #setPreLoad(boolean) preLoad} and {@link #setCacheSize(int) cacheSize}
  * propreties) to avoid accessing the database for each key lookup.
+ * <p>
+ * If the keys are not pre-loaded, the keys missing from the cache are looked up
+ * with prepared statements: the misses of concurrent threads are batched in a
+ * single query (see {@link #setMaxBatchSize(int) setMaxBatchSize()}). If a
+ * {@link #setConnectionPool(ConnectionPool) connection pool} is set, the
+ * connections are taken from the pool.
+ * <p>
+ * In {@link #setSnapshotMode(boolean) snapshot mode}, all the keys of the locale are
+ * loaded at once in a read-only snapshot, which serves the lookups without locking
+ * and without evictions. The snapshot can be reloaded in the background
+ * {@link #setSnapshotRefreshInterval(long) periodically}, or when a
+ * {@link #setSnapshotVersionColumn(String) version column} changes; a new snapshot
+ * replaces the current one atomically.
  * 
  * @author Cristiano Sadun
  * @version 2.0
@@ -68,14 +86,342 @@ public class DatabaseResourceBundle extends ResourceBundle {
 	 */
 	public static final int DEFAULT_CACHE_SIZE = 100;
 
+	/**
+	 * Define the default maximum number of keys looked up by a single query to 64.
+	 */
+	public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+	/**
+	 * Define the default number of keys fetched at a time by {@link #getKeys(Locale)} to 500.
+	 */
+	public static final int DEFAULT_KEYS_FETCH_SIZE = 500;
+
+	/*
+	 * Cached for keys which don't exist
+	 */
+	private static final Object MISSING = new Object();
+
+	/**
+	 * An immutable, open-addressing hash map of the keys of a locale.
+	 */
+	private static class Snapshot {
+
+		private String[] keys;
+		private String[] values;
+		private int mask;
+		private String version;
+
+		Snapshot(Map map, String version) {
+			int capacity = 2;
+			while (capacity < map.size() * 2)
+				capacity *= 2;
+			this.keys = new String[capacity];
+			this.values = new String[capacity];
+			this.mask = capacity - 1;
+			this.version = version;
+			for (Iterator i = map.entrySet().iterator(); i.hasNext();) {
+				Map.Entry entry = (Map.Entry) i.next();
+				int h = hash((String) entry.getKey());
+				while (keys[h] != null)
+					h = (h + 1) & mask;
+				keys[h] = (String) entry.getKey();
+				values[h] = (String) entry.getValue();
+			}
+		}
+
+		String get(String key) {
+			for (int h = hash(key); keys[h] != null; h = (h + 1) & mask)
+				if (keys[h].equals(key))
+					return values[h];
+			return null;
+		}
+
+		private int hash(String key) {
+			int h = key.hashCode();
+			return (h ^ (h >>> 16)) & mask;
+		}
+	}
+
+	private class RefreshTask extends TimerTask {
+		public void run() {
+			// Nothing must escape, or the timer dies
+			try {
+				reloadSnapshot(true);
+			} catch (SQLException e) {
+				System.err.println(
+					"Warning: could not refresh the snapshot of the resources for locale "
+						+ localeToUse
+						+ ", keeping the current one: "
+						+ e.getMessage());
+			} catch (Throwable e) {
+				System.err.println(
+					"Warning: could not refresh the snapshot of the resources for locale "
+						+ localeToUse
+						+ ", keeping the current one: "
+						+ e);
+			}
+		}
+	}
+
+	/**
+	 * Looks up the keys of a table, batching in one query the keys requested
+	 * by concurrent threads: a thread which misses a key while no query is running
+	 * queries the keys requested so far; the others wait for its result.
+	 */
+	private class BatchedLookup {
+
+		private class Request {
+			private String key;
+			private Object value;
+			private boolean done;
+			private SQLException failure;
+
+			Request(String key) {
+				this.key = key;
+			}
+		}
+
+		private String table;
+		private List pending = new LinkedList();
+		private boolean querying;
+
+		BatchedLookup(String table) {
+			this.table = table;
+		}
+
+		Object lookup(String key) throws SQLException {
+			Request request = new Request(key);
+			List batch = null;
+			synchronized (this) {
+				pending.add(request);
+				while (!request.done) {
+					if (!querying) {
+						querying = true;
+						batch = takeBatch(request);
+						break;
+					}
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						pending.remove(request);
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted while waiting for key '" + key + "'");
+					}
+				}
+			}
+			if (batch != null)
+				query(batch);
+			if (request.failure != null)
+				throw request.failure;
+			return request.value;
+		}
+
+		/*
+		 * Must be invoked holding the lock. Take up to maxBatchSize distinct keys
+		 * from the pending requests, starting with the given one
+		 */
+		private List takeBatch(Request first) {
+			List batch = new LinkedList();
+			Set keys = new HashSet();
+			pending.remove(first);
+			batch.add(first);
+			keys.add(first.key);
+			for (Iterator i = pending.iterator(); i.hasNext();) {
+				Request r = (Request) i.next();
+				if (!keys.contains(r.key)) {
+					if (keys.size() == maxBatchSize)
+						continue;
+					keys.add(r.key);
+				}
+				batch.add(r);
+				i.remove();
+			}
+			return batch;
+		}
+
+		private void query(List batch) {
+			Map values = new HashMap();
+			// Unless the query completes, an Error escapes and the batch fails with this
+			SQLException failure = new SQLException("The lookup of the keys has been aborted");
+			try {
+				Set keys = new HashSet();
+				for (Iterator i = batch.iterator(); i.hasNext();)
+					keys.add(((Request) i.next()).key);
+				queryKeys(keys, values);
+				failure = null;
+			} catch (SQLException e) {
+				failure = e;
+			} catch (RuntimeException e) {
+				failure = new SQLException(e.toString());
+			} finally {
+				complete(batch, values, failure);
+			}
+		}
+
+		/*
+		 * Give the requests of the batch their result, and let another thread query
+		 */
+		private synchronized void complete(List batch, Map values, SQLException failure) {
+			Cache cache = keysCache;
+			try {
+				for (Iterator i = batch.iterator(); i.hasNext();) {
+					Request r = (Request) i.next();
+					if (failure == null) {
+						r.value = values.get(r.key);
+						cache.put(r.key, r.value == null ? MISSING : r.value);
+					} else
+						r.failure = failure;
+					r.done = true;
+				}
+			} finally {
+				// A request not done yet is queried again by its own thread
+				querying = false;
+				notifyAll();
+			}
+		}
+
+		/*
+		 * The number of parameters is rounded up to a power of two (repeating
+		 * the last key), so that few distinct statements are prepared
+		 */
+		private void queryKeys(Set keys, Map values) throws SQLException {
+			int n = 1;
+			while (n < keys.size())
+				n *= 2;
+			StringBuffer sql = new StringBuffer("select key_name, value from ");
+			sql.append(table);
+			sql.append(" where locale = ? and key_name in (?");
+			for (int i = 1; i < n; i++)
+				sql.append(", ?");
+			sql.append(")");
+
+			ConnectionPool pool = connectionPool;
+			Connection conn = getConnection(pool);
+			PreparedStatement stmt = null;
+			ResultSet rs = null;
+			try {
+				adjustCache(conn, table);
+				stmt = conn.prepareStatement(sql.toString());
+				stmt.setString(1, localeToUse.toString());
+				int p = 2;
+				String key = null;
+				for (Iterator i = keys.iterator(); i.hasNext();)
+					stmt.setString(p++, key = (String) i.next());
+				while (p <= n + 1)
+					stmt.setString(p++, key);
+				rs = stmt.executeQuery();
+				while (rs.next())
+					values.put(rs.getString(1), rs.getString(2));
+			} finally {
+				release(pool, conn, stmt, rs);
+			}
+		}
+	}
+
+	/**
+	 * An enumeration over the keys of the resource tables, which reads the keys
+	 * lazily (see {@link DatabaseResourceBundle#getKeys(Locale) getKeys()}).
+	 */
+	public class KeyEnumeration implements Enumeration {
+
+		private ConnectionPool pool;
+		private Connection conn;
+		private PreparedStatement stmt;
+		private ResultSet rs;
+		private String next;
+
+		KeyEnumeration(List tables, Locale locale, int fetchSize) {
+			StringBuffer sql = new StringBuffer();
+			for (Iterator i = tables.iterator(); i.hasNext();) {
+				sql.append(sql.length() == 0 ? "select " : " union select ");
+				// A single table must be deduplicated explicitly
+				if (tables.size() == 1)
+					sql.append("distinct ");
+				sql.append("key_name from ");
+				sql.append(i.next());
+				sql.append(" where locale = ?");
+			}
+			try {
+				pool = connectionPool;
+				conn = getConnection(pool);
+				stmt = conn.prepareStatement(sql.toString());
+				for (int i = 1; i <= tables.size(); i++)
+					stmt.setString(i, locale.toString());
+				stmt.setFetchSize(fetchSize);
+				rs = stmt.executeQuery();
+				next = findNext();
+			} catch (SQLException e) {
+				close();
+				throw new RuntimeException("Could not read keys from resource tables " + tables, e);
+			}
+		}
+
+		public boolean hasMoreElements() {
+			return next != null;
+		}
+
+		public Object nextElement() {
+			if (next == null)
+				throw new NoSuchElementException();
+			String key = next;
+			try {
+				next = findNext();
+			} catch (SQLException e) {
+				close();
+				throw new RuntimeException("Could not read keys from resource tables", e);
+			}
+			return key;
+		}
+
+		/**
+		 * Release the connection used to read the keys. The enumeration has no more
+		 * elements.
+		 */
+		public void close() {
+			if (conn != null) {
+				release(pool, conn, stmt, rs);
+				conn = null;
+				stmt = null;
+				rs = null;
+			}
+			next = null;
+		}
+
+		/*
+		 * Return the next key, or null, closing the enumeration at the end
+		 */
+		private String findNext() throws SQLException {
+			while (rs.next()) {
+				String key = rs.getString(1);
+				if (key != null)
+					return key;
+			}
+			close();
+			return null;
+		}
+	}
+
 	private DataSource ds;
 	private String defaultResourceTable;
 	private Map tablesByPattern = new HashMap();
 	private boolean preLoad = true;
 	private boolean autoAdjustCache = false;
 	private int cacheSize;
-	private Cache keysCache;
+	private volatile Cache keysCache;
 	private Locale localeToUse; 
+	private volatile ConnectionPool connectionPool;
+	private Map lookupsByTable = new HashMap();
+	private Set adjustedTables = new HashSet();
+	private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+	private volatile boolean snapshotMode;
+	private volatile Snapshot snapshot;
+	private Object snapshotLock = new Object();
+	private long snapshotRefreshInterval;
+	private volatile String snapshotVersionColumn;
+	private Timer refreshTimer;
+	private long snapshotLoads;
+	private long installedSnapshot;
+	private int keysFetchSize = DEFAULT_KEYS_FETCH_SIZE;
 
 	/**
 	 * Create a database resource bundle for a given locale which will look for resourcess using the
@@ -389,6 +735,9 @@ public class DatabaseResourceBundle extends ResourceBundle {
 		synchronized (this) {
 			this.keysCache = new Cache(cacheSize);
 		}
+		synchronized (adjustedTables) {
+			adjustedTables.clear();
+		}
 	}
 
 	private void createCache(int cacheSize) {
@@ -436,109 +785,292 @@ public class DatabaseResourceBundle extends ResourceBundle {
 	 */
 	protected Object handleGetObject(String key) {
 
+		if (snapshotMode) {
+			Snapshot s = snapshot;
+			if (s == null)
+				s = getSnapshot(key);
+			return s.get(key);
+		}
+
 		Object result;
 		if ((result = keysCache.get(key)) != null)
-			return result;
+			return result == MISSING ? null : result;
 
-		String tableToQuery = defaultResourceTable;
+		String tableToQuery = getTable(key);
+		try {
+			if (preLoad) // Go loading the entire locale
+				return loadTable(tableToQuery, key);
+			return getLookup(tableToQuery).lookup(key);
+		} catch (SQLException e) {
+			throw new MissingResourceException(
+				"Could not get value for key '"
+					+ key
+					+ "' due to an SQL exception: "
+					+ e.getMessage(),
+				getClass().getName(),
+				key);
+		}
+	}
+
+	/*
+	 * Return the table holding the given key
+	 */
+	private String getTable(String key) {
 		for (Iterator i = tablesByPattern.keySet().iterator(); i.hasNext();) {
 			Pattern pattern = (Pattern) i.next();
 			Matcher matcher = pattern.matcher(key);
-			if (matcher.matches()) {
-				tableToQuery = (String) tablesByPattern.get(pattern);
-				break;
-			}
+			if (matcher.matches())
+				return (String) tablesByPattern.get(pattern);
 		}
+		return defaultResourceTable;
+	}
 
-		Connection conn = null;
-		Statement stmt = null;
-		ResultSet rs = null;
-		try {
-			conn = ds.getConnection();
-			stmt = conn.createStatement();
+	/*
+	 * Return the names of all the resource tables
+	 */
+	private List getTables() {
+		List tables = new LinkedList();
+		tables.add(defaultResourceTable);
+		for (Iterator i = tablesByPattern.values().iterator(); i.hasNext();) {
+			String table = (String) i.next();
+			if (!tables.contains(table))
+				tables.add(table);
+		}
+		return tables;
+	}
 
-			if (autoAdjustCache) {
-				rs =
-					stmt.executeQuery(
-						"select count(*) from "
-							+ tableToQuery
-							+ " where locale = '"
-							+ localeToUse.toString()
-							+ "'");
-				rs.next();
-				int requiredCacheSize = Math.max(2, rs.getInt(1));
-				rs.close();
-				if (this.cacheSize != requiredCacheSize) {
-					createCache(requiredCacheSize);
+	/*
+	 * Return the current snapshot, loading it if necessary
+	 */
+	private Snapshot getSnapshot(String key) {
+		synchronized (snapshotLock) {
+			if (snapshot == null)
+				try {
+					long load = ++snapshotLoads;
+					String version = null;
+					if (snapshotVersionColumn != null)
+						version = readSnapshotVersion();
+					snapshot = loadSnapshot(version);
+					installedSnapshot = load;
+				} catch (SQLException e) {
+					throw new MissingResourceException(
+						"Could not get value for key '"
+							+ key
+							+ "' due to an SQL exception: "
+							+ e.getMessage(),
+						getClass().getName(),
+						key);
 				}
+			return snapshot;
+		}
+	}
+
+	/*
+	 * Load a new snapshot, and replace the current one with it, unless a snapshot
+	 * whose load has started later has been installed meanwhile. If onlyIfChanged
+	 * is true and a version column is set, the keys are loaded only if the version
+	 * has changed
+	 */
+	private void reloadSnapshot(boolean onlyIfChanged) throws SQLException {
+		long load;
+		synchronized (snapshotLock) {
+			load = ++snapshotLoads;
+		}
+		String version = null;
+		if (snapshotVersionColumn != null) {
+			version = readSnapshotVersion();
+			Snapshot current = snapshot;
+			if (onlyIfChanged && current != null && version.equals(current.version))
+				return;
+		}
+		Snapshot s = loadSnapshot(version);
+		synchronized (snapshotLock) {
+			if (snapshotMode && load > installedSnapshot) {
+				snapshot = s;
+				installedSnapshot = load;
 			}
+		}
+	}
 
-			if (preLoad) { // Go loading the entire locale
-				rs =
-					stmt.executeQuery(
-						"select key_name, value from "
-							+ tableToQuery
-							+ " where locale= '"
-							+ localeToUse.toString()
-							+ "'");
+	/*
+	 * Load all the keys of the locale. A key is taken only from the table
+	 * it would be looked up in
+	 */
+	private Snapshot loadSnapshot(String version) throws SQLException {
+		Map values = new HashMap();
+		for (Iterator i = getTables().iterator(); i.hasNext();) {
+			String table = (String) i.next();
+			ConnectionPool pool = connectionPool;
+			Connection conn = getConnection(pool);
+			PreparedStatement stmt = null;
+			ResultSet rs = null;
+			try {
+				stmt =
+					conn.prepareStatement(
+						"select key_name, value from " + table + " where locale = ?");
+				stmt.setString(1, localeToUse.toString());
+				rs = stmt.executeQuery();
 				while (rs.next()) {
-					String readKey = rs.getString(1);
-					String readValue = rs.getString(2);
-					keysCache.put(readKey, readValue);
-					if (readKey.equals(key))
-						result = readValue;
+					String key = rs.getString(1);
+					if (getTable(key).equals(table))
+						values.put(key, rs.getString(2));
 				}
+			} finally {
+				release(pool, conn, stmt, rs);
+			}
+		}
+		return new Snapshot(values, version);
+	}
 
-			} else {
-				rs =
-					stmt.executeQuery(
-						"select value from "
-							+ tableToQuery
-							+ " where key_name='"
-							+ toSqlString(key)
-							+ "' and locale= '"
-							+ localeToUse.toString()
-							+ "'");
-				String readValue = rs.getString(1);
-				keysCache.put(key, readValue);
-				result = readValue;
+	/*
+	 * Return the maximum values of the version column in all the tables
+	 */
+	private String readSnapshotVersion() throws SQLException {
+		String column = snapshotVersionColumn;
+		StringBuffer version = new StringBuffer();
+		for (Iterator i = getTables().iterator(); i.hasNext();) {
+			String table = (String) i.next();
+			ConnectionPool pool = connectionPool;
+			Connection conn = getConnection(pool);
+			PreparedStatement stmt = null;
+			ResultSet rs = null;
+			try {
+				stmt =
+					conn.prepareStatement(
+						"select max(" + column + ") from " + table + " where locale = ?");
+				stmt.setString(1, localeToUse.toString());
+				rs = stmt.executeQuery();
+				rs.next();
+				version.append(rs.getString(1));
+				version.append(',');
+			} finally {
+				release(pool, conn, stmt, rs);
 			}
-		} catch (SQLException e) {
-			throw new MissingResourceException(
-				"Could not get value for key '"
-					+ key
-					+ "' due to an SQL exception: "
-					+ e.getMessage(),
-				getClass().getName(),
-				key);
+		}
+		return version.toString();
+	}
+
+	/*
+	 * Load all the keys of the given table in the cache, and return the value
+	 * of the given key
+	 */
+	private Object loadTable(String table, String key) throws SQLException {
+		ConnectionPool pool = connectionPool;
+		Connection conn = getConnection(pool);
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt =
+				conn.prepareStatement(
+					"select key_name, value from " + table + " where locale = ?");
+			stmt.setString(1, localeToUse.toString());
+			rs = stmt.executeQuery();
+			Map values = new HashMap();
+			while (rs.next())
+				values.put(rs.getString(1), rs.getString(2));
+
+			if (autoAdjustCache) {
+				int requiredCacheSize = Math.max(2, values.size() + 1);
+				if (this.cacheSize != requiredCacheSize)
+					createCache(requiredCacheSize);
+			}
+			Cache cache = keysCache;
+			for (Iterator i = values.entrySet().iterator(); i.hasNext();) {
+				Map.Entry entry = (Map.Entry) i.next();
+				cache.put(entry.getKey(), entry.getValue());
+			}
+			Object result = values.get(key);
+			if (result == null)
+				cache.put(key, MISSING);
+			return result;
 		} finally {
-			try {
-				if (rs != null)
-					rs.close();
-				if (stmt != null)
-					stmt.close();
-				if (conn != null)
-					conn.close();
-			} catch (SQLException e1) {
-				e1.printStackTrace();
+			release(pool, conn, stmt, rs);
+		}
+	}
+
+	/*
+	 * Return the object which looks up keys in the given table
+	 */
+	private BatchedLookup getLookup(String table) {
+		synchronized (lookupsByTable) {
+			BatchedLookup lookup = (BatchedLookup) lookupsByTable.get(table);
+			if (lookup == null) {
+				lookup = new BatchedLookup(table);
+				lookupsByTable.put(table, lookup);
 			}
+			return lookup;
 		}
+	}
 
-		return result;
+	/*
+	 * With autoAdjustCache, size the cache to hold all the keys of the given
+	 * table. This is done once per table, rather than at each miss
+	 */
+	private void adjustCache(Connection conn, String table) throws SQLException {
+		synchronized (adjustedTables) {
+			if (!autoAdjustCache || adjustedTables.contains(table))
+				return;
+			adjustedTables.add(table);
+		}
+		PreparedStatement stmt =
+			conn.prepareStatement("select count(*) from " + table + " where locale = ?");
+		ResultSet rs = null;
+		try {
+			stmt.setString(1, localeToUse.toString());
+			rs = stmt.executeQuery();
+			rs.next();
+			int requiredCacheSize = Math.max(2, rs.getInt(1) + 1);
+			if (this.cacheSize != requiredCacheSize)
+				createCache(requiredCacheSize);
+		} finally {
+			if (rs != null)
+				rs.close();
+			stmt.close();
+		}
 	}
 
-	/**
-	 * @param key
-	 * @return
+	/*
+	 * Get a connection from the given pool or, if null, from the data source
 	 */
-	private String toSqlString(String key) {
-		return key.replaceAll("'", "''");
+	private Connection getConnection(ConnectionPool pool) throws SQLException {
+		if (pool == null)
+			return ds.getConnection();
+		Connection conn;
+		try {
+			conn = pool.getConnection();
+		} catch (ObjectPool.ObjectPoolException e) {
+			throw new SQLException(e.getMessage());
+		}
+		if (conn == null)
+			throw new SQLException("Could not obtain a working connection from " + pool);
+		return conn;
+	}
+
+	/*
+	 * Close the result set and the statement, and close the connection or return
+	 * it to the pool it has been taken from. The statements are not cached, since
+	 * the pool may renew its connections at any time
+	 */
+	private void release(ConnectionPool pool, Connection conn, PreparedStatement stmt, ResultSet rs) {
+		try {
+			if (rs != null)
+				rs.close();
+			if (stmt != null)
+				stmt.close();
+			if (pool == null)
+				conn.close();
+		} catch (SQLException e1) {
+			e1.printStackTrace();
+		} finally {
+			if (pool != null)
+				pool.releaseConnection(conn);
+		}
 	}
 
 	/** 
 	 * Connect to all the resource tables and finds out the available keys.
 	 * <p>
-	 * This method can be time-consuming.
+	 * The keys are read lazily (see {@link #getKeys(Locale)}).
 	 * @see java.util.ResourceBundle#getKeys()
 	 */
 	public Enumeration getKeys() {
@@ -547,65 +1079,20 @@ public class DatabaseResourceBundle extends ResourceBundle {
 	
 	/** 
 	 * Connect to all the resource tables and finds out the available keys for
-	 * the given locale
+	 * the given locale.
+	 * <p>
+	 * The keys are read lazily, {@link #setKeysFetchSize(int) some} rows at a time,
+	 * by a single query on all the tables, which returns once a key found in more
+	 * than one table, without holding all the keys in memory. Keys are compared
+	 * by the database, so with a case-insensitive collation, keys differing only by
+	 * case are returned once. The keys are not returned in any specific order.
 	 * <p>
-	 * This method can be time-consuming.
+	 * The returned {@link KeyEnumeration KeyEnumeration} holds a connection until
+	 * all the keys have been read, or it is {@link KeyEnumeration#close() closed}.
 	 * @see java.util.ResourceBundle#getKeys()
 	 */
 	public Enumeration getKeys(Locale locale) {
-	    List l = new LinkedList();
-		Set readTables = new HashSet();
-		addKeys(l, defaultResourceTable, locale);
-		readTables.add(defaultResourceTable.toLowerCase());
-		for (Iterator i = tablesByPattern.keySet().iterator(); i.hasNext();) {
-			String table = (String) i.next();
-			if (readTables.contains(table.toLowerCase()))
-				continue;
-			addKeys(l, table, locale);
-		}
-		return new ListEnumeration(l);
-	}
-
-	/**
-	 * @param l
-	 * @param locale
-	 * @param defaultResourceTable2
-	 */
-	private void addKeys(List l, String table, Locale locale) {
-		Connection conn = null;
-		Statement stmt = null;
-		ResultSet rs = null;
-		try {
-			conn = ds.getConnection();
-			stmt = conn.createStatement();
-
-			String sql =
-				"select key_name from "
-					+ table
-					+ " where locale = '"
-					+ locale.toString()
-					+ "'";
-
-			rs = stmt.executeQuery(sql);
-			while (rs.next()) {
-				l.add(rs.getString(1));
-			}
-		} catch (SQLException e) {
-			throw new RuntimeException(
-				"Could not read keys from resource table " + table,
-				e);
-		} finally {
-			try {
-				if (rs != null)
-					rs.close();
-				if (stmt != null)
-					stmt.close();
-				if (conn != null)
-					conn.close();
-			} catch (SQLException e1) {
-				e1.printStackTrace();
-			}
-		}
+		return new KeyEnumeration(getTables(), locale, getKeysFetchSize());
 	}
 
 	/**
@@ -693,6 +1180,186 @@ public class DatabaseResourceBundle extends ResourceBundle {
 		this.preLoad = preLoad;
 	}
 
+	/**
+	 * Return the connection pool used to access the database, if any.
+	 * 
+	 * @return the connection pool, or <b>null</b> if connections are obtained
+	 *          directly from the data source
+	 */
+	public ConnectionPool getConnectionPool() {
+		return connectionPool;
+	}
+
+	/**
+	 * Set the connection pool used to access the database. The pool must connect to
+	 * the same database as the bundle's data source.
+	 * 
+	 * @param connectionPool the connection pool, or <b>null</b> to obtain (and close)
+	 *         a connection from the data source at each lookup
+	 */
+	public void setConnectionPool(ConnectionPool connectionPool) {
+		this.connectionPool = connectionPool;
+	}
+
+	/**
+	 * Return the maximum number of keys looked up by a single query.
+	 * 
+	 * @return the maximum number of keys looked up by a single query
+	 */
+	public synchronized int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	/**
+	 * Set the maximum number of keys looked up by a single query, when the keys
+	 * are not {@link #setPreLoad(boolean) pre-loaded}.
+	 * 
+	 * @param maxBatchSize the maximum number of keys looked up by a single query
+	 */
+	public synchronized void setMaxBatchSize(int maxBatchSize) {
+		if (maxBatchSize < 1)
+			throw new IllegalArgumentException("The batch size must be positive");
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * Return <b>true</b> if the bundle is in snapshot mode (see {@link #setSnapshotMode(boolean)
+	 * setSnapshotMode()}).
+	 * 
+	 * @return <b>true</b> if the bundle is in snapshot mode
+	 */
+	public boolean isSnapshotMode() {
+		return snapshotMode;
+	}
+
+	/**
+	 * Set the snapshot mode. In snapshot mode, all the keys of the bundle's locale,
+	 * in all the resource tables, are loaded at the first lookup in a read-only
+	 * snapshot, which serves all the following lookups without accessing the
+	 * database, without locking, and without evicting keys. The cache, pre-load and
+	 * batch properties do not apply.
+	 * <p>
+	 * The snapshot is loaded again only by {@link #refreshSnapshot() refreshSnapshot()}
+	 * or, in the background, if a {@link #setSnapshotRefreshInterval(long) refresh
+	 * interval} is set.
+	 * 
+	 * @param snapshotMode if <b>true</b>, the bundle works on snapshots
+	 */
+	public void setSnapshotMode(boolean snapshotMode) {
+		synchronized (snapshotLock) {
+			if (!snapshotMode)
+				snapshot = null;
+			// Discard the snapshots being loaded
+			installedSnapshot = snapshotLoads;
+			this.snapshotMode = snapshotMode;
+			scheduleRefresh();
+		}
+	}
+
+	/**
+	 * Load a new snapshot of the keys, and replace the current one with it, unless
+	 * a refresh started later has completed meanwhile.
+	 * 
+	 * @throws SQLException if the keys cannot be read; the current snapshot is kept
+	 */
+	public void refreshSnapshot() throws SQLException {
+		reloadSnapshot(false);
+	}
+
+	/**
+	 * Return the interval at which the snapshot is refreshed in the background.
+	 * 
+	 * @return the refresh interval, in milliseconds, or 0 if the snapshot is not
+	 *          refreshed in the background
+	 */
+	public long getSnapshotRefreshInterval() {
+		synchronized (snapshotLock) {
+			return snapshotRefreshInterval;
+		}
+	}
+
+	/**
+	 * Set the interval at which the snapshot is refreshed in the background. If a
+	 * {@link #setSnapshotVersionColumn(String) version column} is set, the keys are
+	 * loaded only if the version has changed.
+	 * <p>
+	 * Each bundle refreshes its snapshot in a daemon thread of its own. A bundle whose
+	 * snapshot is refreshed is referenced by the refreshing thread, so the refresh
+	 * must be stopped (by setting the interval to 0) for the bundle to be garbage
+	 * collected.
+	 * 
+	 * @param snapshotRefreshInterval the refresh interval, in milliseconds, or 0 to
+	 *         stop refreshing the snapshot in the background
+	 */
+	public void setSnapshotRefreshInterval(long snapshotRefreshInterval) {
+		if (snapshotRefreshInterval < 0)
+			throw new IllegalArgumentException("The refresh interval cannot be negative");
+		synchronized (snapshotLock) {
+			this.snapshotRefreshInterval = snapshotRefreshInterval;
+			scheduleRefresh();
+		}
+	}
+
+	/**
+	 * Return the column whose changes trigger the refresh of the snapshot.
+	 * 
+	 * @return the version column, or <b>null</b>
+	 */
+	public String getSnapshotVersionColumn() {
+		return snapshotVersionColumn;
+	}
+
+	/**
+	 * Set the column whose changes trigger the refresh of the snapshot. The column
+	 * must exist in all the resource tables, and must be increased when a row is
+	 * inserted or changed (for example, a timestamp or a counter): at each
+	 * {@link #setSnapshotRefreshInterval(long) refresh interval}, its maximum value is
+	 * read, and the keys are loaded only if it has changed.
+	 * 
+	 * @param snapshotVersionColumn the version column, or <b>null</b> to load the keys at
+	 *         each refresh interval
+	 */
+	public void setSnapshotVersionColumn(String snapshotVersionColumn) {
+		this.snapshotVersionColumn = snapshotVersionColumn;
+	}
+
+	/*
+	 * Must be invoked holding the snapshot lock
+	 */
+	private void scheduleRefresh() {
+		if (refreshTimer != null) {
+			refreshTimer.cancel();
+			refreshTimer = null;
+		}
+		if (snapshotMode && snapshotRefreshInterval > 0) {
+			// Each bundle has its own timer, so a slow refresh doesn't delay the others
+			refreshTimer = new Timer(true);
+			refreshTimer.schedule(new RefreshTask(), snapshotRefreshInterval, snapshotRefreshInterval);
+		}
+	}
+
+	/**
+	 * Return the number of keys fetched at a time by {@link #getKeys(Locale)}.
+	 * 
+	 * @return the number of keys fetched at a time
+	 */
+	public synchronized int getKeysFetchSize() {
+		return keysFetchSize;
+	}
+
+	/**
+	 * Set the number of keys fetched at a time by {@link #getKeys(Locale)} (see
+	 * <tt>java.sql.Statement.setFetchSize()</tt>).
+	 * 
+	 * @param keysFetchSize the number of keys fetched at a time, or 0 to use the
+	 *         driver's default
+	 */
+	public synchronized void setKeysFetchSize(int keysFetchSize) {
+		if (keysFetchSize < 0)
+			throw new IllegalArgumentException("The fetch size cannot be negative");
+		this.keysFetchSize = keysFetchSize;
+	}
+
 	public static void main(String[] args) {
 		String jdbcURL =
 			"jdbc:microsoft:sqlserver://localhost:1433;User=sa;Password=;DatabaseName=ipm";
@@ -0,0 +1,422 @@
+package org.sadun.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.sadun.util.SequentialUniqueIdGenerator.BlockIdStorage;
+import org.sadun.util.SequentialUniqueIdGenerator.IdStorage;
+import org.sadun.util.pool.ObjectPool;
+import org.sadun.util.pool.connection.ConnectionPool;
+
+/**
+ * An id storage based on a database table, accessed via a
+ * {@link ConnectionPool ConnectionPool}, usable both as an
+ * {@link SequentialUniqueIdGenerator.IdStorage IdStorage} and as a
+ * {@link SequentialUniqueIdGenerator.BlockIdStorage BlockIdStorage}.
+ * <p>
+ * The table holds one row per sequence, with the name of the sequence and the
+ * next id to reserve, so that many sequences can share it:
+ * <pre>
+ *  create table ID_BLOCKS (NAME varchar(64) primary key, NEXT_ID bigint not null)
+ * </pre>
+ * (see {@link #createTable() createTable()}). A row is inserted the first time a
+ * sequence is used.
+ * <p>
+ * Each block is reserved with one transaction, which increases the next id by
+ * the block size. How the new value is read depends on the
+ * {@link #setReserveMode(int) reserve mode}:
+ * <ul>
+ * <li>{@link #RESERVE_UPDATE_SELECT} (the default, and portable) updates the row
+ * and then reads it back in the same transaction; the update locks the row, so no
+ * other process can change it in between;
+ * <li>{@link #RESERVE_UPDATE_RETURNING} updates the row and reads the new value
+ * with a single <tt>update ... returning</tt> statement, for databases which
+ * support it;
+ * <li>{@link #RESERVE_SELECT_FOR_UPDATE} reads the row with
+ * <tt>select ... for update</tt> and then updates it.
+ * </ul>
+ * Since each reservation is atomic, {@link #lock() lock()} and
+ * {@link #unlock() unlock()} do nothing.
+ *
+ * @author Cristiano Sadun
+ * @version 1.0
+ */
+public class JdbcIdStorage implements IdStorage, BlockIdStorage {
+
+	/**
+	 * The reserve mode which updates the row and then selects it.
+	 */
+	public static final int RESERVE_UPDATE_SELECT = 0;
+
+	/**
+	 * The reserve mode which uses a single <tt>update ... returning</tt> statement.
+	 */
+	public static final int RESERVE_UPDATE_RETURNING = 1;
+
+	/**
+	 * The reserve mode which selects the row <tt>for update</tt> and then updates it.
+	 */
+	public static final int RESERVE_SELECT_FOR_UPDATE = 2;
+
+	/**
+	 * The default table name.
+	 */
+	public static final String DEFAULT_TABLE_NAME = "ID_BLOCKS";
+
+	/**
+	 * The default size of the blocks returned by {@link #getNextIdBlock()}.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 100;
+
+	private static class BlockIterator implements Iterator {
+
+		private long next;
+		private long end;
+
+		BlockIterator(long first, long end) {
+			this.next = first;
+			this.end = end;
+		}
+
+		public boolean hasNext() {
+			return next < end;
+		}
+
+		public Object next() {
+			if (next >= end)
+				throw new NoSuchElementException();
+			return new Long(next++);
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private ConnectionPool connectionPool;
+	private String tableName;
+	private String nameColumn;
+	private String valueColumn;
+	private String sequenceName;
+	private int reserveMode = RESERVE_UPDATE_SELECT;
+	private int blockSize = DEFAULT_BLOCK_SIZE;
+	private long initialValue = 1;
+
+	/**
+	 * Create a storage for the given sequence, in the given table, with the given
+	 * column names.
+	 *
+	 * @param connectionPool the pool of connections to the database
+	 * @param tableName the name of the table
+	 * @param nameColumn the name of the column holding the sequence name
+	 * @param valueColumn the name of the column holding the next id
+	 * @param sequenceName the name of the sequence
+	 */
+	public JdbcIdStorage(
+		ConnectionPool connectionPool,
+		String tableName,
+		String nameColumn,
+		String valueColumn,
+		String sequenceName) {
+		if (connectionPool == null)
+			throw new IllegalArgumentException("connectionPool cannot be null");
+		this.connectionPool = connectionPool;
+		this.tableName = tableName;
+		this.nameColumn = nameColumn;
+		this.valueColumn = valueColumn;
+		this.sequenceName = sequenceName;
+	}
+
+	/**
+	 * Create a storage for the given sequence, in the {@link #DEFAULT_TABLE_NAME default}
+	 * table, with columns <tt>NAME</tt> and <tt>NEXT_ID</tt>.
+	 *
+	 * @param connectionPool the pool of connections to the database
+	 * @param sequenceName the name of the sequence
+	 */
+	public JdbcIdStorage(ConnectionPool connectionPool, String sequenceName) {
+		this(connectionPool, DEFAULT_TABLE_NAME, "NAME", "NEXT_ID", sequenceName);
+	}
+
+	/**
+	 * Create the table, which must not exist.
+	 *
+	 * @throws SQLException if the table cannot be created
+	 */
+	public void createTable() throws SQLException {
+		Connection conn = getConnection();
+		Statement stmt = null;
+		try {
+			stmt = conn.createStatement();
+			stmt.executeUpdate(
+				"create table "
+					+ tableName
+					+ " ("
+					+ nameColumn
+					+ " varchar(64) primary key, "
+					+ valueColumn
+					+ " bigint not null)");
+			if (!conn.getAutoCommit())
+				conn.commit();
+		} finally {
+			if (stmt != null)
+				stmt.close();
+			connectionPool.releaseConnection(conn);
+		}
+	}
+
+	/**
+	 * Does nothing, since each reservation is atomic.
+	 */
+	public void lock() {
+	}
+
+	/**
+	 * Does nothing, since each reservation is atomic.
+	 */
+	public void unlock() {
+	}
+
+	/**
+	 * Reserve a block of {@link #setBlockSize(int) block size} ids, and return an
+	 * iterator over them (as <tt>Long</tt> objects).
+	 *
+	 * @return an iterator over the next block of ids
+	 * @throws IdStorageException if the block cannot be reserved
+	 */
+	public Iterator getNextIdBlock() throws IdStorageException {
+		int size = getBlockSize();
+		long first = reserveBlock(size);
+		return new BlockIterator(first, first + size);
+	}
+
+	/**
+	 * Reserve the given number of consecutive ids.
+	 *
+	 * @param size the number of ids to reserve
+	 * @return the first of the reserved ids
+	 * @throws IdStorageException if the ids cannot be reserved
+	 */
+	public long reserveBlock(int size) throws IdStorageException {
+		if (size < 1)
+			throw new IllegalArgumentException("The block size must be positive");
+		int mode = getReserveMode();
+		long initialValue = getInitialValue();
+		Connection conn;
+		try {
+			conn = getConnection();
+		} catch (SQLException e) {
+			throw new IdStorageException(e);
+		} catch (ObjectPool.ObjectPoolException e) {
+			throw new IdStorageException(e);
+		}
+		try {
+			boolean autoCommit = conn.getAutoCommit();
+			conn.setAutoCommit(false);
+			try {
+				long next = reserve(conn, size, mode);
+				if (next == -1) {
+					// The sequence doesn't exist yet
+					try {
+						next = insert(conn, size, initialValue);
+					} catch (SQLException e) {
+						// Most likely inserted concurrently by another process
+						conn.rollback();
+						next = reserve(conn, size, mode);
+						if (next == -1) {
+							SQLException e1 =
+								new SQLException(
+									"Cannot find or create the sequence "
+										+ sequenceName
+										+ " in "
+										+ tableName
+										+ ": "
+										+ e.getMessage());
+							e1.initCause(e);
+							throw e1;
+						}
+					}
+				}
+				conn.commit();
+				return next - size;
+			} catch (SQLException e) {
+				conn.rollback();
+				throw e;
+			} finally {
+				conn.setAutoCommit(autoCommit);
+			}
+		} catch (SQLException e) {
+			throw new IdStorageException(e);
+		} finally {
+			connectionPool.releaseConnection(conn);
+		}
+	}
+
+	/*
+	 * Increase the next id by size, and return its new value, or -1 if the
+	 * sequence doesn't exist
+	 */
+	private long reserve(Connection conn, int size, int mode) throws SQLException {
+		switch (mode) {
+			case RESERVE_UPDATE_RETURNING :
+				return queryLong(conn, getUpdateSql() + " returning " + valueColumn, size);
+			case RESERVE_SELECT_FOR_UPDATE :
+				long current = queryLong(conn, getSelectSql() + " for update", -1);
+				if (current == -1)
+					return -1;
+				update(conn, size);
+				return current + size;
+			default :
+				if (update(conn, size) == 0)
+					return -1;
+				return queryLong(conn, getSelectSql(), -1);
+		}
+	}
+
+	private int update(Connection conn, int size) throws SQLException {
+		PreparedStatement stmt = conn.prepareStatement(getUpdateSql());
+		try {
+			stmt.setInt(1, size);
+			stmt.setString(2, sequenceName);
+			return stmt.executeUpdate();
+		} finally {
+			stmt.close();
+		}
+	}
+
+	private String getUpdateSql() {
+		return "update " + tableName + " set " + valueColumn + " = " + valueColumn
+			+ " + ? where " + nameColumn + " = ?";
+	}
+
+	private String getSelectSql() {
+		return "select " + valueColumn + " from " + tableName + " where " + nameColumn + " = ?";
+	}
+
+	/*
+	 * Run a query whose first parameter is the given size (unless -1) and the
+	 * second the sequence name, and return the long value it returns, or -1
+	 */
+	private long queryLong(Connection conn, String sql, int size) throws SQLException {
+		PreparedStatement stmt = conn.prepareStatement(sql);
+		ResultSet rs = null;
+		try {
+			int p = 1;
+			if (size != -1)
+				stmt.setInt(p++, size);
+			stmt.setString(p, sequenceName);
+			rs = stmt.executeQuery();
+			return rs.next() ? rs.getLong(1) : -1;
+		} finally {
+			if (rs != null)
+				rs.close();
+			stmt.close();
+		}
+	}
+
+	/*
+	 * Insert the sequence, reserving its first block, and return the next id
+	 */
+	private long insert(Connection conn, int size, long initialValue) throws SQLException {
+		long next = initialValue + size;
+		PreparedStatement stmt =
+			conn.prepareStatement(
+				"insert into " + tableName + " (" + nameColumn + ", " + valueColumn + ") values (?, ?)");
+		try {
+			stmt.setString(1, sequenceName);
+			stmt.setLong(2, next);
+			stmt.executeUpdate();
+			return next;
+		} finally {
+			stmt.close();
+		}
+	}
+
+	private Connection getConnection() throws SQLException {
+		Connection conn = connectionPool.getConnection();
+		if (conn == null)
+			throw new SQLException("Cannot obtain a working connection from " + connectionPool);
+		return conn;
+	}
+
+	/**
+	 * Return the size of the blocks returned by {@link #getNextIdBlock()}.
+	 *
+	 * @return the block size
+	 */
+	public synchronized int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Set the size of the blocks returned by {@link #getNextIdBlock()}. Larger
+	 * blocks mean fewer transactions, but more ids lost when a generator is discarded.
+	 *
+	 * @param blockSize the block size
+	 */
+	public synchronized void setBlockSize(int blockSize) {
+		if (blockSize < 1)
+			throw new IllegalArgumentException("The block size must be positive");
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Return the way blocks are reserved.
+	 *
+	 * @return {@link #RESERVE_UPDATE_SELECT}, {@link #RESERVE_UPDATE_RETURNING} or
+	 *         {@link #RESERVE_SELECT_FOR_UPDATE}
+	 */
+	public synchronized int getReserveMode() {
+		return reserveMode;
+	}
+
+	/**
+	 * Set the way blocks are reserved (see class comment).
+	 *
+	 * @param reserveMode {@link #RESERVE_UPDATE_SELECT}, {@link #RESERVE_UPDATE_RETURNING}
+	 *         or {@link #RESERVE_SELECT_FOR_UPDATE}
+	 */
+	public synchronized void setReserveMode(int reserveMode) {
+		if (reserveMode < RESERVE_UPDATE_SELECT || reserveMode > RESERVE_SELECT_FOR_UPDATE)
+			throw new IllegalArgumentException("Unknown reserve mode " + reserveMode);
+		this.reserveMode = reserveMode;
+	}
+
+	/**
+	 * Return the first id of a sequence which doesn't exist yet.
+	 *
+	 * @return the first id of a new sequence
+	 */
+	public synchronized long getInitialValue() {
+		return initialValue;
+	}
+
+	/**
+	 * Set the first id of a sequence which doesn't exist yet. The default is 1.
+	 *
+	 * @param initialValue the first id of a new sequence, not negative
+	 */
+	public synchronized void setInitialValue(long initialValue) {
+		if (initialValue < 0)
+			throw new IllegalArgumentException("The initial value cannot be negative");
+		this.initialValue = initialValue;
+	}
+
+	/**
+	 * Return the name of the sequence.
+	 *
+	 * @return the name of the sequence
+	 */
+	public String getSequenceName() {
+		return sequenceName;
+	}
+
+	public String toString() {
+		return "sequence " + sequenceName + " in " + tableName;
+	}
+}
@@ -10,6 +10,8 @@ import org.sadun.util.SequentialUniqueIdGenerator.IdStorage.IdStorageException;
 /**
  * An unique id generator which creates ids unique across different JVMs and
  * sequential.
+ * <p>
+ * For high throughput, see {@link BlockSequentialIdGenerator}.
  * 
  * @version 1.0
  * @author Cristiano Sadun
@@ -90,6 +92,33 @@ public class SequentialUniqueIdGenerator {
         public void unlock() throws IdStorageException;
     }
 
+    /**
+     * Classes implementing this interface allow to reserve blocks of
+     * consecutive numeric ids of any size in a shared storage, to use with a
+     * {@link BlockSequentialIdGenerator}.
+     * <p>
+     * Unlike {@link IdStorage}, the storage is responsible for its own
+     * locking: reserving a block must be atomic with respect to the other
+     * processes using the same storage.
+     *
+     * @version 1.0
+     * @author Cristiano Sadun
+     */
+    public interface BlockIdStorage {
+
+        /**
+         * Reserve the given number of consecutive ids, so that no other
+         * process will reserve any of them.
+         *
+         * @param size
+         *            the number of ids to reserve
+         * @return the first of the reserved ids
+         * @exception IdStorage.IdStorageException
+         *                if the ids cannot be reserved
+         */
+        public long reserveBlock(int size) throws IdStorage.IdStorageException;
+    }
+
     private static Map instances = new HashMap();
 
     private IdStorage idStorage;
@@ -2,6 +2,9 @@ package org.sadun.util;
 
 import java.util.Random;
 
+import org.sadun.util.tp.BatchExecutor;
+import org.sadun.util.tp.ThreadPool;
+
 /**
  * Contains a thread to run, plus related information.
  */
@@ -79,6 +82,11 @@ class ThreadDescriptor implements Cloneable {
  *  ThreadBlockRunner tbr = new ThreadBlocRunner( threads ); <font color="green">// threads is an array of thread objects</font>
  *  tbr.runAll();
  * </pre> 
+ * <p>
+ * Since each thread costs an operating system thread, large blocks are better run as
+ * a {@link BatchExecutor BatchExecutor} on a {@link ThreadPool ThreadPool}; 
+ * {@link #createBatchExecutor(int, int, ThreadPool) createBatchExecutor()} creates one
+ * with the same semantics of {@link #runBlock(int, int) runBlock()}.
  * 
  * @author cris sadun
  * @version 2.1
@@ -270,6 +278,52 @@ public class ThreadBlockRunner {
 		waitForAllFinished(blockStart, blockEnd);
 	}
 	
+	/**
+	 * Create a {@link BatchExecutor BatchExecutor} which runs all the threads from the array
+	 * passed at construction on the given pool (see {@link #createBatchExecutor(int, int, ThreadPool)}).
+	 * 
+	 * @param pool the pool to run the threads' code on
+	 * @return a batch executor ready to be {@link BatchExecutor#run() run}
+	 */
+	public BatchExecutor createBatchExecutor(ThreadPool pool) {
+		return createBatchExecutor(0, threadDescriptors.length, pool);
+	}
+
+	/**
+	 * Create a {@link BatchExecutor BatchExecutor} which runs a block of consecutive threads
+	 * from the array passed at construction on the given pool, instead of starting each of them.
+	 * <p>
+	 * Each thread becomes a unit of work, which executes the thread's <tt>run()</tt> method.
+	 * A thread synchronized with the previous one (but the first in the block) depends on it, and 
+	 * no more than the maximum number of threads set at construction run concurrently. 
+	 * <p>
+	 * Note that the thread objects are never started, and therefore never {@link Thread#isAlive() alive}.
+	 * 
+	 * @param blockStart the index of the first thread to run, inclusive
+	 * @param blockEnd the index of the last thread to run, exclusive
+	 * @param pool the pool to run the threads' code on
+	 * @return a batch executor ready to be {@link BatchExecutor#run() run}
+	 */
+	public BatchExecutor createBatchExecutor(int blockStart, int blockEnd, ThreadPool pool) {
+		if(blockStart<0 || blockEnd>threadDescriptors.length || blockStart>blockEnd) 
+			throw new IllegalArgumentException(threadDescriptors.length+" threads in the array. ("+blockStart+","+
+			                                    blockEnd+") is an invalid range");
+		BatchExecutor batch = new BatchExecutor(pool, maxThreads);
+		BatchExecutor.Unit previous = null;
+		for(int i=blockStart;i<blockEnd;i++) {
+			Thread t = threadDescriptors[i].getThread();
+			if (t == null) {
+				previous=null;
+				continue;
+			}
+			BatchExecutor.Unit unit = batch.add(t);
+			if (i>blockStart && previous != null && threadDescriptors[i].isSynchronizeWithPrevious())
+				unit.dependsOn(previous);
+			previous=unit;
+		}
+		return batch;
+	}
+	
 	/**
 	 * Wait for at least one thread in the given range to finish
 	 * @return the number of alive threads in the given range
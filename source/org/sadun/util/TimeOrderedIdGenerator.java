@@ -0,0 +1,214 @@
+package org.sadun.util;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.security.SecureRandom;
+
+/**
+ * A generator of 64-bit ids unique even across different machines, which sort
+ * by the time they have been generated.
+ * <p>
+ * Each id is a positive <tt>long</tt> made of
+ * <ul>
+ * <li>41 bits with the milliseconds elapsed since the {@link #EPOCH epoch}
+ * (enough until 2072);
+ * <li>10 bits with the node id, which must be different for each generator
+ * running at the same time;
+ * <li>12 bits with a sequence number, so that each generator can produce 4096
+ * ids per millisecond.
+ * </ul>
+ * If more ids are requested within a millisecond, or the system clock goes back,
+ * the generator goes on with the following milliseconds, so that its ids are
+ * always increasing.
+ * <p>
+ * Within a JVM, the generator should be obtained by {@link #getInstance()}. Its
+ * node id is taken from the <tt>org.sadun.util.id.node</tt> system property or,
+ * if this is not set, computed from the host address and a random value chosen
+ * when the JVM starts, so that different JVMs, on the same host or not, are
+ * likely to use different nodes. Since there are only 1024 node ids, this is
+ * not a guarantee: when many JVMs generate ids at the same time, each should be
+ * given its own node id explicitly.
+ * <p>
+ * Unlike {@link UniqueIdGenerator}, {@link #getNextLongId()} does not allocate any
+ * object; the ids can be {@link #encode(long) encoded} in 13 characters which sort
+ * in the same order as the ids.
+ *
+ * @author Cristiano Sadun
+ * @version 1.0
+ */
+public class TimeOrderedIdGenerator {
+
+	/**
+	 * The time from which the timestamps of the ids are counted: January 1st,
+	 * 2003, 00:00 UTC.
+	 */
+	public static final long EPOCH = 1041379200000L;
+
+	/**
+	 * The largest node id.
+	 */
+	public static final int MAX_NODE = (1 << 10) - 1;
+
+	private static final int SEQUENCE_BITS = 12;
+	private static final int NODE_BITS = 10;
+	private static final long MAX_SEQUENCE = (1L << SEQUENCE_BITS) - 1;
+
+	private static final char[] DIGITS = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+	private static final int ENCODED_LENGTH = 13;
+
+	private static TimeOrderedIdGenerator instance;
+
+	private Object lock = new Object();
+	private long nodeBits;
+	private long lastTime;
+	private long sequence;
+
+	/**
+	 * Create a generator with the given node id. No other generator, in this or
+	 * another JVM, must be using the same node id at the same time.
+	 *
+	 * @param node the node id, between 0 and {@link #MAX_NODE}
+	 */
+	public TimeOrderedIdGenerator(int node) {
+		if (node < 0 || node > MAX_NODE)
+			throw new IllegalArgumentException("The node id must be between 0 and " + MAX_NODE);
+		this.nodeBits = (long) node << SEQUENCE_BITS;
+	}
+
+	/**
+	 * Return the JVM-unique instance of the generator, whose node id is taken from
+	 * the system property <tt>org.sadun.util.id.node</tt> or, if this is not set,
+	 * computed from the address of the local host and a random value.
+	 *
+	 * @return the JVM-unique instance of the generator
+	 */
+	public static synchronized TimeOrderedIdGenerator getInstance() {
+		if (instance == null) {
+			String s = System.getProperty("org.sadun.util.id.node");
+			if (s == null)
+				instance = new TimeOrderedIdGenerator(getDefaultNode());
+			else
+				instance = new TimeOrderedIdGenerator(Integer.parseInt(s));
+		}
+		return instance;
+	}
+
+	/**
+	 * Return the next id.
+	 *
+	 * @return the next id
+	 */
+	public long getNextLongId() {
+		long now = System.currentTimeMillis() - EPOCH;
+		synchronized (lock) {
+			if (now > lastTime) {
+				lastTime = now;
+				sequence = 0;
+			} else if (sequence < MAX_SEQUENCE)
+				sequence++;
+			else {
+				// Borrow the next millisecond
+				lastTime++;
+				sequence = 0;
+			}
+			return (lastTime << (NODE_BITS + SEQUENCE_BITS)) | nodeBits | sequence;
+		}
+	}
+
+	/**
+	 * Return the next id, {@link #encode(long) encoded}.
+	 *
+	 * @return the next id, encoded
+	 */
+	public String getNextId() {
+		return encode(getNextLongId());
+	}
+
+	/**
+	 * Return the node id of the generator.
+	 *
+	 * @return the node id of the generator
+	 */
+	public int getNode() {
+		return (int) (nodeBits >> SEQUENCE_BITS);
+	}
+
+	/**
+	 * Return the time at which the given id has been generated.
+	 *
+	 * @param id an id
+	 * @return the time, in milliseconds since January 1st, 1970 UTC
+	 */
+	public static long getTime(long id) {
+		return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH;
+	}
+
+	/**
+	 * Return the node id of the generator which has generated the given id.
+	 *
+	 * @param id an id
+	 * @return the node id
+	 */
+	public static int getNode(long id) {
+		return (int) ((id >>> SEQUENCE_BITS) & MAX_NODE);
+	}
+
+	/**
+	 * Encode an id in 13 characters (Crockford's base 32), which sort in the same
+	 * order as the ids.
+	 *
+	 * @param id the id
+	 * @return the encoded id
+	 */
+	public static String encode(long id) {
+		char[] c = new char[ENCODED_LENGTH];
+		for (int i = ENCODED_LENGTH - 1; i >= 0; i--) {
+			c[i] = DIGITS[(int) (id & 31)];
+			id >>>= 5;
+		}
+		return new String(c);
+	}
+
+	/**
+	 * Decode an id {@link #encode(long) encoded}.
+	 *
+	 * @param s the encoded id
+	 * @return the id
+	 * @throws IllegalArgumentException if the string is not an encoded id
+	 */
+	public static long decode(String s) {
+		if (s.length() != ENCODED_LENGTH)
+			throw new IllegalArgumentException("\"" + s + "\" is not an encoded id");
+		long id = 0;
+		for (int i = 0; i < ENCODED_LENGTH; i++) {
+			int d = digit(Character.toUpperCase(s.charAt(i)));
+			if (d == -1 || (i == 0 && d > 15))
+				throw new IllegalArgumentException("\"" + s + "\" is not an encoded id");
+			id = (id << 5) | d;
+		}
+		return id;
+	}
+
+	private static int digit(char c) {
+		for (int i = 0; i < DIGITS.length; i++)
+			if (DIGITS[i] == c)
+				return i;
+		return -1;
+	}
+
+	/*
+	 * Mix the host address with a random value, so that JVMs on the same host
+	 * (or on hosts whose addresses hash alike) are unlikely to share a node id
+	 */
+	private static int getDefaultNode() {
+		int hash = new SecureRandom().nextInt();
+		try {
+			byte[] address = InetAddress.getLocalHost().getAddress();
+			for (int i = 0; i < address.length; i++)
+				hash = hash * 31 + (address[i] & 0xff);
+		} catch (UnknownHostException e) {
+			// Use the random value only
+		}
+		return (hash ^ (hash >>> 10) ^ (hash >>> 20)) & MAX_NODE;
+	}
+}
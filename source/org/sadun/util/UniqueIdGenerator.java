@@ -13,6 +13,8 @@ import java.util.Random;
 
 /**
  * A generator of IDs unique even across different machines.
+ * <p>
+ * For numeric ids which sort by time, see {@link TimeOrderedIdGenerator}.
  * 
  * @author Cristiano Sadun
  */
@@ -25,6 +25,7 @@ import org.sadun.util.pool.ObjectPool;
 import org.sadun.util.pool.ObjectPool.Factory;
 import org.sadun.util.pool.ObjectPool.ObjectPoolException;
 import org.sadun.util.watchdog.WatchDog;
+import org.sadun.util.watchdog.listeners.CircuitBreaker;
 
 /**
  * A pool of SQL connections. The connections must not be closed before being returned
@@ -39,6 +40,10 @@ import org.sadun.util.watchdog.WatchDog;
  * setWatchDogEnabled(()} and {@link #setWatchDogCheckPeriodTime(long) setWatchDogCheckPeriodTime()}, 
  * which periodically checks the state of the pool by picking up a connection and testing it.
  * <p>
+ * If a {@link #setCircuitBreaker(CircuitBreaker) circuit breaker} is set, it listens to
+ * the watchdog, and {@link #getConnection() getConnection()} fails immediately while
+ * the breaker is open, rather than waiting for a database which is known to be down.
+ * <p>
  * On termination, the pool should be destroyed by invoking {@link #destroy(Object) destroy()}
  * which terminates the watchdog thread and closes the connections (see also 
  * {@link org.sadun.util.pool.ObjectPool#destroy(boolean) org.sadun.util.pool.ObjectPool.destroy()}).
@@ -101,6 +106,10 @@ public class ConnectionPool {
 	
 	private ConnectionPoolWatchDog watchDog=null;
 	private long watchDogCheckPeriodTime=300000L;
+	private long watchDogCheckTimeout=0;
+	private long watchDogMinCheckPeriodTime=0;
+	private long watchDogMaxCheckPeriodTime=0;
+	private volatile CircuitBreaker circuitBreaker;
 	private Set listeners = new HashSet();
 
 	/**
@@ -161,8 +170,21 @@ public class ConnectionPool {
 	 * 
 	 * @return a connection, or <b>null</b> if a working connection cannot be
 	 *          obtained.
+	 * @exception ObjectPool.ObjectPoolException if the thread is interrupted, or the
+	 *             {@link #setCircuitBreaker(CircuitBreaker) circuit breaker} is open
 	 */
 	public Connection getConnection() throws ObjectPool.ObjectPoolException {
+		CircuitBreaker breaker = circuitBreaker;
+		if (breaker != null && !breaker.allowRequest())
+			throw new ObjectPool.ObjectPoolException("The connection pool "
+				+ toString() + " is unavailable: " + breaker, breaker.getLastFailure());
+		return acquireConnection();
+	}
+
+	/*
+	 * Used by the watchdog, which must check the pool even if the breaker is open
+	 */
+	Connection acquireConnection() throws ObjectPool.ObjectPoolException {
 		int nTrials = 0;
 		Connection conn = (Connection) pool.acquire();
 		// It may be null if the thread has been interrupted
@@ -330,6 +352,8 @@ public class ConnectionPool {
 			// enable
 			if (watchDog!=null) return;
 			watchDog=new ConnectionPoolWatchDog(this, watchDogCheckPeriodTime);
+			watchDog.setCheckTimeout(watchDogCheckTimeout);
+			watchDog.setAdaptiveCheckPeriod(watchDogMinCheckPeriodTime, watchDogMaxCheckPeriodTime);
 			for(Iterator i=listeners.iterator();i.hasNext();) {
 				watchDog.addListener((WatchDog.Listener)i.next());
 			}
@@ -365,6 +389,71 @@ public class ConnectionPool {
 		if (watchDog!=null) watchDog.setCheckPeriodTime(watchDogCheckPeriodTime);
 	}
 
+	/**
+	 * Return the maximum time the watchdog waits for a check (if the watchdog is enabled).
+	 * 
+	 * @return the maximum time the watchdog waits for a check, or 0 if there is no timeout
+	 */
+	public long getWatchDogCheckTimeout() {
+		return watchDogCheckTimeout;
+	}
+
+	/**
+	 * Set the maximum time the watchdog waits for a check (if the watchdog is enabled),
+	 * for example when no connection is available. A check which does not complete in time
+	 * is reported as impossible (see {@link WatchDog#setCheckTimeout(long)}).
+	 * 
+	 * @param watchDogCheckTimeout the maximum time the watchdog waits for a check, or 0 for no timeout
+	 */
+	public void setWatchDogCheckTimeout(long watchDogCheckTimeout) {
+		this.watchDogCheckTimeout = watchDogCheckTimeout;
+		if (watchDog!=null) watchDog.setCheckTimeout(watchDogCheckTimeout);
+	}
+
+	/**
+	 * Make the watchdog's check period adaptive (see {@link WatchDog#setAdaptiveCheckPeriod(long, long)}):
+	 * the watchdog checks again after the minimum period when a check fails, and backs off
+	 * up to the maximum period while the checks succeed.
+	 * 
+	 * @param minCheckPeriodTime the period after a failure, in milliseconds
+	 * @param maxCheckPeriodTime the longest period, in milliseconds, or 0 to use the
+	 *         fixed {@link #getWatchDogCheckPeriodTime() check period time}
+	 */
+	public synchronized void setWatchDogAdaptiveCheckPeriod(long minCheckPeriodTime, long maxCheckPeriodTime) {
+		if (watchDog!=null) watchDog.setAdaptiveCheckPeriod(minCheckPeriodTime, maxCheckPeriodTime);
+		this.watchDogMinCheckPeriodTime = minCheckPeriodTime;
+		this.watchDogMaxCheckPeriodTime = maxCheckPeriodTime;
+	}
+
+	/**
+	 * Return the circuit breaker which makes {@link #getConnection() getConnection()} fail fast.
+	 * 
+	 * @return the circuit breaker, or <b>null</b>
+	 */
+	public CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	/**
+	 * Set a circuit breaker, which is registered as a listener of the watchdog: while
+	 * the breaker is open, {@link #getConnection() getConnection()} raises an
+	 * {@link ObjectPool.ObjectPoolException ObjectPoolException} immediately. The breaker
+	 * is updated only if the watchdog is {@link #setWatchDogEnabled(boolean) enabled}.
+	 * 
+	 * @param circuitBreaker the circuit breaker, or <b>null</b> to remove it
+	 */
+	public synchronized void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+		if (this.circuitBreaker != null) {
+			removeListener(this.circuitBreaker);
+			if (watchDog!=null) watchDog.removeListener(this.circuitBreaker);
+		}
+		this.circuitBreaker = circuitBreaker;
+		if (circuitBreaker != null) {
+			addListener(circuitBreaker);
+			if (watchDog!=null) watchDog.addListener(circuitBreaker);
+		}
+	}
+
 	/**
 	 * Return the JDBC url to which this pool connects.
 	 * 
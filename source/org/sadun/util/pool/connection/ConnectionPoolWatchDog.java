@@ -35,7 +35,7 @@ final class ConnectionPoolWatchDog extends WatchDog {
 		
 		//System.err.println("CHECKING CONNECTION ("+connectionPool.getFreeCount()+" free connections)");
 		
-		Connection conn = connectionPool.getConnection();
+		Connection conn = connectionPool.acquireConnection();
 		try {
 			ConnectionPool.doTest(conn);
 			return null;
@@ -72,4 +72,14 @@ final class ConnectionPoolWatchDog extends WatchDog {
 	protected Object getObjectToCheck() {
 		return connectionPool;
 	}
+
+	/**
+	 * The checked resource is the connection pool, so that different watchdogs
+	 * on the same pool share their checks.
+	 * 
+	 * @see org.sadun.util.watchdog.WatchDog#getCheckedResource()
+	 */
+	protected Object getCheckedResource() {
+		return connectionPool;
+	}
 }
@@ -75,19 +75,19 @@ public abstract class BasePassivationManager
 	 */
 	public synchronized void addPool(ObjectPool pool) {
 		monitoredPools.add(pool);
-		Object [] objs = pool.createObjectsArray();
+		int n = pool.getPooledObjectsCount();
 
-		if (objs.length>0)		
-			if ( !(canPassivate(((PooledObject)objs[0])._getOriginal().getClass()))) {
+		if (n>0)		
+			if ( !(canPassivate(pool.getObjectType()))) {
 				if (logStream != null) {
-					logStream.println("Warning: class \""+objs.getClass().getComponentType()+"\" is not passivable.");
+					logStream.println("Warning: class \""+pool.getObjectType().getName()+"\" is not passivable.");
 				}
 			}
 		
 		// Create the initial state map
-		for(int i=0;i<objs.length;i++) {
-			PooledObject obj = (PooledObject)objs[i];
-			createState(pool, obj);
+		for(int i=0;i<n;i++) {
+			PooledObject obj = pool.getPooledObject(i);
+			if (obj != null) createState(pool, obj);
 		}
 		if (logStream!=null)
 			logStream.println("Pool \""+pool.getName()+"\" managed by "+getName());
@@ -124,7 +124,7 @@ public abstract class BasePassivationManager
 	 * Remove an {@link ObjectPool ObjectPool} from monitoring.
 	 * @param pool the pool to remove
 	 */
-	public void removePool(ObjectPool pool) {
+	public synchronized void removePool(ObjectPool pool) {
 		monitoredPools.remove(pool);
 	}
 
@@ -132,10 +132,21 @@ public abstract class BasePassivationManager
 	 * Count the monitored pools
 	 * @param pool the pool to add
 	 */
-	public int countPools() {
+	public synchronized int countPools() {
 		return monitoredPools.size();
 	}
 
+	/**
+	 * Return a snapshot of the monitored pools, which can be safely
+	 * scanned while pools are added or removed.
+	 * @return an array of the currently monitored {@link ObjectPool ObjectPool}s
+	 */
+	protected synchronized ObjectPool[] getMonitoredPools() {
+		ObjectPool[] pools = new ObjectPool[monitoredPools.size()];
+		monitoredPools.toArray(pools);
+		return pools;
+	}
+
 	/**
 	 * The passivation thread main loop.
 	 * <p>
@@ -166,8 +177,12 @@ public abstract class BasePassivationManager
 	/**
 	 * Method doPassivationCheck. If pools are rotated, only a subset are actually
 	 * checked on any active cycle. Else, all pools are checked.
+	 * <p>
+	 * Subclasses may override this method to employ a different service
+	 * cycle strategy, using {@link #doPassivationCheck(ObjectPool) 
+	 * doPassivationCheck(ObjectPool)} to check each single pool.
 	 */
-	private void doPassivationCheck() {
+	protected void doPassivationCheck() {
 		if (rotatePools) {
 			for(int i=0;i<rotationRate;i++) {
 				if (currentPool==null) currentPool=monitoredPools.iterator();
@@ -187,22 +202,30 @@ public abstract class BasePassivationManager
 
 	/**
 	 * Method doPassivationCheck. Checks an entire pool.
+	 * <p>
+	 * The pool's objects are scanned by index, so that the check 
+	 * does not allocate memory regardless of the size of the pool.
 	 * @param pool
+	 * @return the number of objects which were passivable but have
+	 *          not been passivated by this check
 	 */
-	private void doPassivationCheck(ObjectPool pool) {
+	protected final int doPassivationCheck(ObjectPool pool) {
 		if (logStream!=null)
-			logStream.println(getName()+" checking \""+pool.getName()+"\"");
+			logStream.println(Thread.currentThread().getName()+" checking \""+pool.getName()+"\"");
+		int kept=0;
+		if (! canPassivate(pool.getObjectType())) return kept;
 		synchronized(pool) {
 			Object preparationResult = prepareForPassivationCheck(pool);
-			Object [] objs = pool.createObjectsArray();
-			for(int i=0;i<objs.length;i++) {
-				BasePooledObject obj = (BasePooledObject)objs[i];
-				if (! obj._isPassivableNow()) continue;
+			int n = pool.getPooledObjectsCount();
+			for(int i=0;i<n;i++) {
+				BasePooledObject obj = pool.getPooledObject(i);
+				if (obj == null || ! obj.isActiveAndReleased()) continue;
 				if (isToPassivate(pool, obj, preparationResult)) {
 					obj._passivate();
-				}
+				} else kept++;
 			}
 		}
+		return kept;
 	}
 
 	/**
@@ -27,11 +27,24 @@ import java.util.Random;
 public abstract class BasePooledObject implements PooledObject {
 
 	private static Random random = new Random();
+
+	/**
+	 * The bit of the {@link #_getState() state word} which is set when the
+	 * object is acquired from its pool.
+	 */
+	public static final long ACQUIRED_BIT = 0x8000000000000000L;
+
+	/**
+	 * The bits of the {@link #_getState() state word} holding the last use time.
+	 */
+	public static final long LAST_USE_MASK = ~ACQUIRED_BIT;
+
 	private Object original;
 	private boolean passivated;
 	private boolean originalAcquired;
 	private Object passivationLock = new Object();
 	private ObjectPool objectPool;
+	private volatile long state;
 
 	private File serializedFile;
 
@@ -40,6 +53,7 @@ public abstract class BasePooledObject implements PooledObject {
 		this.original = original;
 		this.passivated = false;
 		this.originalAcquired = false;
+		this.state = System.currentTimeMillis() & LAST_USE_MASK;
 	}
 
 	/**
@@ -50,7 +64,9 @@ public abstract class BasePooledObject implements PooledObject {
 			if (original == null)
 				_activate();
 			originalAcquired = true;
+			updateState(isAcquired(state));
 		}
+		touchPool();
 		return original;
 
 	}
@@ -59,7 +75,77 @@ public abstract class BasePooledObject implements PooledObject {
 	 * @see org.sadun.util.pool2.PooledObject#_releaseOriginal()
 	 */
 	public final void _releaseOriginal() {
-		originalAcquired = false;
+		synchronized (passivationLock) {
+			originalAcquired = false;
+			updateState(isAcquired(state));
+		}
+		touchPool();
+	}
+
+	private void touchPool() {
+		if (objectPool != null)
+			objectPool.touch();
+	}
+
+	/**
+	 * Return the state word of this object, which packs in a single value
+	 * whether or not the object is acquired from its pool 
+	 * ({@link #ACQUIRED_BIT ACQUIRED_BIT}) and the time of its last use
+	 * - that is, acquisition, release or access to the original object
+	 * ({@link #LAST_USE_MASK LAST_USE_MASK}).
+	 * <p>
+	 * Reading the state word does not require any lock or allocation, so
+	 * passivation managers can examine large pools cheaply. Use 
+	 * {@link #isAcquired(long) isAcquired()} and {@link #getLastUseTime(long)
+	 * getLastUseTime()} to decode it.
+	 * 
+	 * @return the state word
+	 */
+	public final long _getState() {
+		return state;
+	}
+
+	/**
+	 * Decode the acquisition state from a {@link #_getState() state word}.
+	 * @param state the state word
+	 * @return <b>true</b> if the object was acquired from its pool
+	 */
+	public static boolean isAcquired(long state) {
+		return (state & ACQUIRED_BIT) != 0;
+	}
+
+	/**
+	 * Decode the last use time from a {@link #_getState() state word}.
+	 * @param state the state word
+	 * @return the time of last use, in milliseconds
+	 */
+	public static long getLastUseTime(long state) {
+		return state & LAST_USE_MASK;
+	}
+
+	/**
+	 * Set the acquisition state and mark the object as used now.
+	 * Invoked by the pool on acquisition and release.
+	 * @param acquired the acquisition state
+	 */
+	final void _setAcquired(boolean acquired) {
+		synchronized (passivationLock) {
+			updateState(acquired);
+		}
+	}
+
+	private void updateState(boolean acquired) {
+		long time = System.currentTimeMillis() & LAST_USE_MASK;
+		state = acquired ? time | ACQUIRED_BIT : time;
+	}
+
+	/**
+	 * Return <b>true</b> if the original object is in core and not acquired,
+	 * regardless of the class passivability.
+	 * @return boolean
+	 */
+	final boolean isActiveAndReleased() {
+		return !passivated && !originalAcquired;
 	}
 
 	/**
@@ -1,8 +1,5 @@
 package org.sadun.util.pool2;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * The default passivation manager.
  * <p>
@@ -15,6 +12,9 @@ import java.util.Map;
  * <li> passivates instances when they have been inactive for over one minute.
  * </ul>
  * <p>
+ * The last use of each instance is read from its {@link BasePooledObject#_getState() 
+ * state word}, so no per-object state is kept by the manager itself.
+ * <p>
  * 
  * @author Cristiano Sadun
  */
@@ -23,22 +23,6 @@ public class DefaultPassivationManager extends BasePassivationManager {
 	private static DefaultPassivationManager instance;
 	private static long defaultPassivationThreshold=36000L;
 	
-	private class PooledObjectState {
-		private long inserted;
-		private long lastAccessed;
-		
-		public PooledObjectState(boolean acquired, long inserted) {
-			this.inserted=inserted;
-			this.lastAccessed=inserted;
-		}
-	}
-	
-	/**
-	 * A Map to Maps of PooledObjects to States.
-	 * There exists a map for each monitored pool, mapping PooledObjects to PooledObjectStates.
-	 */
-	private Map statesMap = new HashMap();
-
 	private long passivationThreshold;
 	
 		/**
@@ -90,22 +74,20 @@ public class DefaultPassivationManager extends BasePassivationManager {
 		this.passivationThreshold=getDefaultPassivationThreshold();
 	}
 	
+	/**
+	 * This implementation does nothing, since the state is held by
+	 * the pooled object itself.
+	 * @see org.sadun.util.pool2.BasePassivationManager#createState(ObjectPool, PooledObject)
+	 */
 	protected void createState(ObjectPool pool, PooledObject obj) {
-		Map poolStatesMap = (Map)statesMap.get(pool);
-		if (poolStatesMap == null) {
-			poolStatesMap =new HashMap();
-			statesMap.put(pool, poolStatesMap);
-		}
-		poolStatesMap.put(obj, new PooledObjectState(pool.isAcquired(obj), System.currentTimeMillis()));
 	}
 	
 	/**
+	 * This implementation does nothing, since the state is held by
+	 * the pooled object itself.
 	 * @see org.sadun.util.pool2.BasePassivationManager#removeState(ObjectPool, PooledObject)
 	 */
 	protected void removeState(ObjectPool pool, PooledObject obj) {
-		Map poolStatesMap = (Map)statesMap.get(pool);
-		if (poolStatesMap == null) return;
-		poolStatesMap.remove(obj);
 	}
 
 
@@ -113,20 +95,19 @@ public class DefaultPassivationManager extends BasePassivationManager {
 	 * @see org.sadun.util.pool2.BasePassivationManager#handleInvoked(org.sadun.util.pool2.ObjectPool, org.sadun.util.pool2.PooledObject)
 	 */
 	protected void handleInvoked(ObjectPool pool, PooledObject obj) {
-		// Reset the lastAccessed field object of the invoked object
-		PooledObjectState state = (PooledObjectState)((Map)statesMap.get(pool)).get(obj);
-		state.lastAccessed=System.currentTimeMillis();
+		// The last use time is updated by the pooled object itself
 	}
 
 	/**
 	 * @see org.sadun.util.pool2.BasePassivationManager#isToPassivate(org.sadun.util.pool2.ObjectPool, org.sadun.util.pool2.PooledObject, java.lang.Object) 
 	 */
 	protected boolean isToPassivate(ObjectPool pool, PooledObject obj, Object preparationResult) {
-		PooledObjectState state = (PooledObjectState)((Map)statesMap.get(pool)).get(obj);
+		long state = ((BasePooledObject)obj)._getState();
+		long lastAccessed = BasePooledObject.getLastUseTime(state);
 		long currentTime=System.currentTimeMillis();
-		if (currentTime - state.lastAccessed > passivationThreshold) return true;
+		if (currentTime - lastAccessed > passivationThreshold) return true;
 		if (pool.getLogStream()!=null)
-			pool.getLogStream().println(obj+" accessed "+(currentTime - state.lastAccessed)+"ms ago, not to passivate");
+			pool.getLogStream().println(obj+" accessed "+(currentTime - lastAccessed)+"ms ago, not to passivate");
 		return false;
 	}
 
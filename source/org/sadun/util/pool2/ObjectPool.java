@@ -68,6 +68,7 @@ public class ObjectPool extends org.sadun.util.pool.ObjectPool {
 	private static PrintStream defaultLogStream;
 	private Configuration configuration;
 	private BasePassivationManager passivationManager;
+	private volatile long lastChangeTime = System.currentTimeMillis();
 
 	/**
 	 * A base class for a factory of {@link BasePassivationManager BasePassivationManager}s.
@@ -86,6 +87,52 @@ public class ObjectPool extends org.sadun.util.pool.ObjectPool {
 		protected abstract BasePassivationManager createPassivationThread();
 	}
 
+	/**
+	 * An {@link ObjectPool.PassivationManagerFactory ObjectPool.PassivationManagerFactory} which
+	 * produces a {@link ParallelPassivationManager ParallelPassivationManager}.
+	 * <p>
+	 * All the pools configured with the same factory instance share the same
+	 * manager, so that a large number of pools is checked by a small, fixed 
+	 * set of threads.
+	 */
+	public final static class ParallelPassivationManagerFactory
+		extends PassivationManagerFactory {
+
+		private int parallelism;
+		private ParallelPassivationManager instance;
+
+		/**
+		 * Create a factory whose manager uses the given number of worker threads.
+		 * @param parallelism the number of worker threads
+		 */
+		public ParallelPassivationManagerFactory(int parallelism) {
+			this.parallelism = parallelism;
+		}
+
+		/**
+		 * Create a factory whose manager uses one worker thread per available processor.
+		 */
+		public ParallelPassivationManagerFactory() {
+			this(Runtime.getRuntime().availableProcessors());
+		}
+
+		/**
+		 * Return the {@link ParallelPassivationManager ParallelPassivationManager} 
+		 * associated to this factory.
+		 * @return the {@link ParallelPassivationManager ParallelPassivationManager} 
+		 *          associated to this factory.
+		 */
+		protected synchronized BasePassivationManager createPassivationThread() {
+			if (instance == null)
+				instance =
+					new ParallelPassivationManager(
+						"Parallel passivation thread",
+						3600,
+						parallelism);
+			return instance;
+		}
+	}
+
 	/**
 	 * An {@link ObjectPool.PassivationManagerFactory ObjectPool.PassivationManagerFactory} which
 	 * produces {@link DefaultPassivationManager DefaultPassivationManager}s
@@ -379,7 +426,7 @@ public class ObjectPool extends org.sadun.util.pool.ObjectPool {
 		super(
 			configuration.getPoolSize(),
 			new PooledObjectFactory(null, factory));
-		setPool(createObjectsArray(), this);
+		setPool(this);
 
 		this.configuration = configuration;
 		this.name = poolName;
@@ -402,7 +449,11 @@ public class ObjectPool extends org.sadun.util.pool.ObjectPool {
 					+ factory.getProducedClass()
 					+ " created.");
 
-		passivationManager.start();
+		// The manager may be shared among pools
+		synchronized (passivationManager) {
+			if (!passivationManager.isAlive())
+				passivationManager.start();
+		}
 	}
 
 	/**
@@ -446,17 +497,120 @@ public class ObjectPool extends org.sadun.util.pool.ObjectPool {
 		return configuration;
 	}
 
-	Object[] createObjectsArray() {
-		Object[] pool2 = new Object[pool.length];
-		for (int i = 0; i < pool.length; i++) {
-			pool2[i] = pool[i].getObject();
-		}
-		return pool2;
+	/**
+	 * Return the number of object slots in the pool. Together with 
+	 * {@link #getPooledObject(int) getPooledObject()}, this allows to
+	 * scan the pooled objects without any allocation:
+	 * <pre>
+	 *  for(int i=0;i&lt;pool.getPooledObjectsCount();i++) {
+	 *     BasePooledObject obj = pool.getPooledObject(i);
+	 *     if (obj==null) continue;
+	 *     long state = obj._getState();
+	 *     ...
+	 *  }
+	 * </pre>
+	 * 
+	 * @return the number of object slots in the pool
+	 */
+	public int getPooledObjectsCount() {
+		return pool.length;
+	}
+
+	/**
+	 * Return the pooled object in the i-th slot, or <b>null</b> if the
+	 * object has been destroyed.
+	 * 
+	 * @param i the slot index, between 0 and {@link #getPooledObjectsCount()
+	 *         getPooledObjectsCount()}-1
+	 * @return the pooled object in the i-th slot, or <b>null</b>
+	 */
+	public BasePooledObject getPooledObject(int i) {
+		PooledObjectWrapper wrapper = pool[i];
+		if (wrapper == null)
+			return null;
+		return (BasePooledObject) wrapper.getObject();
 	}
 
-	synchronized boolean isAcquired(PooledObject obj) {
+	boolean isAcquired(PooledObject obj) {
 		//assert(used.contains(obj) || free.contains(obj));
-		return used.contains(obj);
+		return BasePooledObject.isAcquired(((BasePooledObject) obj)._getState());
+	}
+
+	/**
+	 * Return the time of the last change in the state of the pool or
+	 * of any of its objects (acquisition, release, renewal or access to
+	 * the original object).
+	 * <p>
+	 * Passivation managers can use this value to avoid checking pools
+	 * which haven't changed since the last check.
+	 * 
+	 * @return the time of the last change, in milliseconds
+	 */
+	public long getLastChangeTime() {
+		return lastChangeTime;
+	}
+
+	/**
+	 * Record a change in the state of the pool or of one of its objects.
+	 */
+	void touch() {
+		lastChangeTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * @see org.sadun.util.pool.ObjectPool#acquire(boolean)
+	 */
+	public synchronized Object acquire(boolean waitIfUnavailable) {
+		Object obj = super.acquire(waitIfUnavailable);
+		if (obj != null) {
+			((BasePooledObject) obj)._setAcquired(true);
+			touch();
+		}
+		return obj;
+	}
+
+	/**
+	 * @see org.sadun.util.pool.ObjectPool#acquire(int)
+	 */
+	public synchronized Object acquire(int i) {
+		Object obj = super.acquire(i);
+		if (obj != null) {
+			((BasePooledObject) obj)._setAcquired(true);
+			touch();
+		}
+		return obj;
+	}
+
+	/**
+	 * @see org.sadun.util.pool.ObjectPool#release(int)
+	 */
+	public synchronized void release(int i) {
+		super.release(i);
+		getPooledObject(i)._setAcquired(false);
+		touch();
+	}
+
+	/**
+	 * @see org.sadun.util.pool.ObjectPool#release(java.lang.Object, boolean)
+	 */
+	public synchronized void release(Object obj, boolean releaseWaitingCalls) {
+		super.release(obj, releaseWaitingCalls);
+		((BasePooledObject) obj)._setAcquired(false);
+		touch();
+	}
+
+	/**
+	 * @see org.sadun.util.pool.ObjectPool#renew(java.lang.Object)
+	 */
+	public synchronized Object renew(Object obj) {
+		boolean acquired = used.contains(obj);
+		Object obj2 = super.renew(obj);
+		BasePooledObject pObj2 = (BasePooledObject) obj2;
+		if (pObj2.getObjectPool() == null)
+			pObj2.setObjectPool(this);
+		pObj2._setAcquired(acquired);
+		touch();
+		return obj2;
 	}
 
 	/**
@@ -490,12 +644,11 @@ public class ObjectPool extends org.sadun.util.pool.ObjectPool {
 
 	/**
 	 * Method setPool. Set the given pool as the pool refrenced by each BasePooledObject.
-	 * @param objects
 	 * @param objectPool
 	 */
-	private void setPool(Object[] objects, ObjectPool objectPool) {
-		for (int i = 0; i < objects.length; i++) {
-			((BasePooledObject) objects[i]).setObjectPool(objectPool);
+	private void setPool(ObjectPool objectPool) {
+		for (int i = 0; i < pool.length; i++) {
+			getPooledObject(i).setObjectPool(objectPool);
 		}
 	}
 
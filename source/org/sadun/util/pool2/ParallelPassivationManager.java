@@ -0,0 +1,248 @@
+package org.sadun.util.pool2;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * A {@link DefaultPassivationManager DefaultPassivationManager} which splits
+ * each service cycle among a fixed set of worker threads, and is therefore
+ * suitable to monitor a large number of pools.
+ * <p>
+ * On each cycle, the pools to check are distributed among the workers'
+ * queues. Each worker checks the pools in its own queue and, when its queue
+ * is empty, steals pools from the tail of the other workers' queues, so that
+ * a few large pools do not leave the other workers idle.
+ * <p>
+ * A pool is not checked at all if it hasn't changed since its last check
+ * (as reported by {@link ObjectPool#getLastChangeTime() getLastChangeTime()})
+ * and such check found no object which was passivable but has been kept active.
+ * <p>
+ * The {@link #rotatePools rotatePools} and {@link #rotationRate rotationRate}
+ * settings are ignored by this manager.
+ *
+ * @author Cristiano Sadun
+ */
+public class ParallelPassivationManager extends DefaultPassivationManager {
+
+	private int parallelism;
+	private Worker[] workers;
+	private int pending;
+	private int cycle;
+	private Object cycleLock = new Object();
+
+	/**
+	 * A map of ObjectPools to their PoolCheckInfo.
+	 */
+	private Map checksMap = new HashMap();
+
+	private static class PoolCheckInfo {
+		private long lastCheckTime;
+		private int kept;
+	}
+
+	/*
+	 * A worker thread, with its own queue of pools to check.
+	 */
+	private class Worker extends Thread {
+
+		private LinkedList queue = new LinkedList();
+		private int index;
+
+		Worker(int index) {
+			super(ParallelPassivationManager.this.getName() + " worker #" + index);
+			this.index = index;
+			setDaemon(true);
+		}
+
+		void add(ObjectPool pool) {
+			synchronized (queue) {
+				queue.addLast(pool);
+			}
+		}
+
+		ObjectPool take() {
+			synchronized (queue) {
+				if (queue.isEmpty())
+					return null;
+				return (ObjectPool) queue.removeFirst();
+			}
+		}
+
+		ObjectPool steal() {
+			synchronized (queue) {
+				if (queue.isEmpty())
+					return null;
+				return (ObjectPool) queue.removeLast();
+			}
+		}
+
+		public void run() {
+			while (!isShuttingDown()) {
+				int seenCycle;
+				synchronized (cycleLock) {
+					seenCycle = cycle;
+				}
+				ObjectPool pool = take();
+				if (pool == null)
+					pool = stealFromOthers(index);
+				if (pool == null) {
+					// Wait for the next cycle
+					synchronized (cycleLock) {
+						while (cycle == seenCycle && !isShuttingDown()) {
+							try {
+								cycleLock.wait();
+							} catch (InterruptedException e) {
+								// do nothing
+							}
+						}
+					}
+					continue;
+				}
+				try {
+					check(pool);
+				} catch (RuntimeException e) {
+					if (logStream != null) {
+						logStream.println(
+							getName()
+								+ " failed checking \""
+								+ pool.getName()
+								+ "\"");
+						e.printStackTrace(logStream);
+					}
+				} finally {
+					synchronized (cycleLock) {
+						if (--pending == 0)
+							cycleLock.notifyAll();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Create a parallel passivation manager with the given name, sleep time and
+	 * number of worker threads.
+	 * @param name the thread name
+	 * @param sleepTime the sleep time between service cycles
+	 * @param parallelism the number of worker threads
+	 */
+	public ParallelPassivationManager(
+		String name,
+		int sleepTime,
+		int parallelism) {
+		super(name, sleepTime);
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism must be at least 1");
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Create a parallel passivation manager with the given name and sleep time,
+	 * using one worker thread per available processor.
+	 * @param name the thread name
+	 * @param sleepTime the sleep time between service cycles
+	 */
+	public ParallelPassivationManager(String name, int sleepTime) {
+		this(name, sleepTime, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Run a service cycle, distributing the pools which need to be checked
+	 * among the worker threads and waiting for all of them to be checked.
+	 */
+	protected void doPassivationCheck() {
+		ObjectPool[] pools = getMonitoredPools();
+		synchronized (cycleLock) {
+			if (workers == null)
+				startWorkers();
+			int c = 0;
+			for (int i = 0; i < pools.length; i++) {
+				if (!isToCheck(pools[i]))
+					continue;
+				pending++;
+				workers[c++ % workers.length].add(pools[i]);
+			}
+			if (c == 0)
+				return;
+			cycle++;
+			cycleLock.notifyAll();
+			while (pending > 0 && !isShuttingDown()) {
+				try {
+					cycleLock.wait();
+				} catch (InterruptedException e) {
+					// do nothing
+				}
+			}
+		}
+	}
+
+	/**
+	 * @see org.sadun.util.pool2.BasePassivationManager#removePool(org.sadun.util.pool2.ObjectPool)
+	 */
+	public synchronized void removePool(ObjectPool pool) {
+		super.removePool(pool);
+		synchronized (checksMap) {
+			checksMap.remove(pool);
+		}
+	}
+
+	/**
+	 * @see org.sadun.util.Terminable#shutdown()
+	 */
+	public void shutdown() {
+		super.shutdown();
+		synchronized (cycleLock) {
+			cycleLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Returns the number of worker threads.
+	 * @return int
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	private void startWorkers() {
+		workers = new Worker[parallelism];
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Worker(i);
+			workers[i].start();
+		}
+	}
+
+	private ObjectPool stealFromOthers(int index) {
+		for (int i = 1; i < workers.length; i++) {
+			ObjectPool pool = workers[(index + i) % workers.length].steal();
+			if (pool != null)
+				return pool;
+		}
+		return null;
+	}
+
+	private boolean isToCheck(ObjectPool pool) {
+		synchronized (checksMap) {
+			PoolCheckInfo info = (PoolCheckInfo) checksMap.get(pool);
+			if (info == null)
+				return true;
+			return info.kept > 0 || pool.getLastChangeTime() >= info.lastCheckTime;
+		}
+	}
+
+	private void check(ObjectPool pool) {
+		long checkTime = System.currentTimeMillis();
+		int kept = doPassivationCheck(pool);
+		synchronized (checksMap) {
+			PoolCheckInfo info = (PoolCheckInfo) checksMap.get(pool);
+			if (info == null) {
+				info = new PoolCheckInfo();
+				checksMap.put(pool, info);
+			}
+			info.lastCheckTime = checkTime;
+			info.kept = kept;
+		}
+	}
+
+}
@@ -0,0 +1,113 @@
+package org.sadun.util.test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.sadun.util.BlockSequentialIdGenerator;
+import org.sadun.util.JdbcIdStorage;
+import org.sadun.util.pool.connection.ConnectionPool;
+
+/**
+ * A contention benchmark for {@link JdbcIdStorage}: many generators, each with its
+ * own storage object, draw ids from the same sequence of one table, with
+ * different block sizes. It reports the throughput and checks that no id is
+ * handed out twice.
+ * <p>
+ * By default it uses an in-memory embedded Derby database (<tt>derby.jar</tt> must
+ * be in the classpath). Usage:
+ * <pre>
+ *  java org.sadun.util.test.JdbcIdStorageBenchmark [jdbc url [driver class [generators [ids per generator]]]]
+ * </pre>
+ *
+ * @author Cristiano Sadun
+ * @version 1.0
+ */
+public class JdbcIdStorageBenchmark {
+
+	private static final int[] BLOCK_SIZES = { 1, 10, 100, 1000 };
+
+	private static class Worker extends Thread {
+
+		private BlockSequentialIdGenerator generator;
+		private long[] ids;
+		private Exception failure;
+
+		Worker(BlockSequentialIdGenerator generator, int n) {
+			this.generator = generator;
+			this.ids = new long[n];
+		}
+
+		public void run() {
+			try {
+				for (int i = 0; i < ids.length; i++)
+					ids[i] = generator.getNextLongId();
+			} catch (Exception e) {
+				failure = e;
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		String url = args.length > 0 ? args[0] : "jdbc:derby:memory:idbenchmark;create=true";
+		String driver = args.length > 1 ? args[1] : "org.apache.derby.jdbc.EmbeddedDriver";
+		int generators = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+		int n = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+
+		Class.forName(driver);
+		ConnectionPool pool = new ConnectionPool(Math.min(generators, 8), url);
+		try {
+			new JdbcIdStorage(pool, "benchmark").createTable();
+			for (int b = 0; b < BLOCK_SIZES.length; b++) {
+				String sequence = "benchmark-" + BLOCK_SIZES[b];
+				Worker[] workers = new Worker[generators];
+				for (int i = 0; i < generators; i++) {
+					BlockSequentialIdGenerator generator =
+						new BlockSequentialIdGenerator(
+							new JdbcIdStorage(pool, sequence),
+							BLOCK_SIZES[b],
+							BLOCK_SIZES[b]);
+					workers[i] = new Worker(generator, n);
+				}
+				long start = System.currentTimeMillis();
+				for (int i = 0; i < generators; i++)
+					workers[i].start();
+				for (int i = 0; i < generators; i++)
+					workers[i].join();
+				long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+
+				Set seen = new HashSet();
+				int duplicates = 0;
+				long blocks = 0, stalls = 0;
+				for (int i = 0; i < generators; i++) {
+					if (workers[i].failure != null)
+						throw workers[i].failure;
+					for (int j = 0; j < n; j++)
+						if (!seen.add(new Long(workers[i].ids[j])))
+							duplicates++;
+					blocks += workers[i].generator.getReservedBlockCount();
+					stalls += workers[i].generator.getStallCount();
+				}
+				System.out.println(
+					"block size "
+						+ BLOCK_SIZES[b]
+						+ ": "
+						+ (long) generators * n
+						+ " ids in "
+						+ elapsed
+						+ "ms ("
+						+ (long) generators * n * 1000 / elapsed
+						+ " ids/s), "
+						+ blocks
+						+ " blocks, "
+						+ stalls
+						+ " stalls, "
+						+ duplicates
+						+ " duplicates");
+				if (duplicates > 0)
+					throw new IllegalStateException("Duplicate ids generated");
+			}
+		} finally {
+			pool.destroy(false);
+		}
+	}
+}
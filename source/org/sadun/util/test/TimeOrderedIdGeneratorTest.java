@@ -0,0 +1,128 @@
+package org.sadun.util.test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.sadun.util.TimeOrderedIdGenerator;
+
+/**
+ * Tests {@link TimeOrderedIdGenerator}.
+ *
+ * @author Cristiano Sadun
+ * @version 1.0
+ */
+public class TimeOrderedIdGeneratorTest extends TestCase {
+
+	private static final int N = 100000;
+
+	public static void main(String[] args) {
+		junit.swingui.TestRunner.run(TimeOrderedIdGeneratorTest.class);
+	}
+
+	public void testIncreasing() {
+		TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator(1);
+		long last = generator.getNextLongId();
+		// More than 4096 ids per millisecond are likely, so the generator borrows
+		for (int i = 0; i < N; i++) {
+			long id = generator.getNextLongId();
+			assertTrue("Ids must be increasing", id > last);
+			last = id;
+		}
+	}
+
+	public void testConcurrentUnique() throws InterruptedException {
+		final TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator(2);
+		final long[][] ids = new long[4][N];
+		Thread[] threads = new Thread[ids.length];
+		for (int i = 0; i < threads.length; i++) {
+			final long[] t = ids[i];
+			threads[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < t.length; j++)
+						t[j] = generator.getNextLongId();
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++)
+			threads[i].join();
+		Set seen = new HashSet();
+		for (int i = 0; i < ids.length; i++)
+			for (int j = 0; j < N; j++) {
+				assertTrue("Duplicate id " + ids[i][j], seen.add(new Long(ids[i][j])));
+				if (j > 0)
+					assertTrue("Ids must be increasing in each thread", ids[i][j] > ids[i][j - 1]);
+			}
+	}
+
+	public void testNodesDoNotCollide() {
+		TimeOrderedIdGenerator g1 = new TimeOrderedIdGenerator(3);
+		TimeOrderedIdGenerator g2 = new TimeOrderedIdGenerator(4);
+		Set seen = new HashSet();
+		for (int i = 0; i < N; i++) {
+			assertTrue(seen.add(new Long(g1.getNextLongId())));
+			assertTrue(seen.add(new Long(g2.getNextLongId())));
+		}
+	}
+
+	public void testTimeAndNode() {
+		TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator(TimeOrderedIdGenerator.MAX_NODE);
+		long before = System.currentTimeMillis();
+		long id = generator.getNextLongId();
+		long after = System.currentTimeMillis();
+		assertTrue(id > 0);
+		assertTrue(TimeOrderedIdGenerator.getTime(id) >= before);
+		assertTrue(TimeOrderedIdGenerator.getTime(id) <= after);
+		assertEquals(TimeOrderedIdGenerator.MAX_NODE, TimeOrderedIdGenerator.getNode(id));
+		assertEquals(TimeOrderedIdGenerator.MAX_NODE, generator.getNode());
+	}
+
+	public void testEncodeDecode() {
+		long[] ids = { 0, 1, 31, 32, Long.MAX_VALUE };
+		for (int i = 0; i < ids.length; i++)
+			assertEquals(ids[i], TimeOrderedIdGenerator.decode(TimeOrderedIdGenerator.encode(ids[i])));
+		Random random = new Random(0);
+		for (int i = 0; i < N; i++) {
+			long a = random.nextLong() >>> 1;
+			long b = random.nextLong() >>> 1;
+			String ea = TimeOrderedIdGenerator.encode(a);
+			String eb = TimeOrderedIdGenerator.encode(b);
+			assertEquals(13, ea.length());
+			assertEquals(a, TimeOrderedIdGenerator.decode(ea));
+			assertEquals(a, TimeOrderedIdGenerator.decode(ea.toLowerCase()));
+			assertEquals(a < b, ea.compareTo(eb) < 0);
+		}
+	}
+
+	public void testDecodeInvalid() {
+		String[] invalid = { "", "0000000000000000", "000000000000U", "ZZZZZZZZZZZZZ" };
+		for (int i = 0; i < invalid.length; i++)
+			try {
+				TimeOrderedIdGenerator.decode(invalid[i]);
+				fail("\"" + invalid[i] + "\" decoded");
+			} catch (IllegalArgumentException e) {
+			}
+	}
+
+	public void testInvalidNode() {
+		try {
+			new TimeOrderedIdGenerator(-1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new TimeOrderedIdGenerator(TimeOrderedIdGenerator.MAX_NODE + 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	public void testInstance() {
+		TimeOrderedIdGenerator generator = TimeOrderedIdGenerator.getInstance();
+		assertSame(generator, TimeOrderedIdGenerator.getInstance());
+		assertTrue(generator.getNode() >= 0 && generator.getNode() <= TimeOrderedIdGenerator.MAX_NODE);
+	}
+}
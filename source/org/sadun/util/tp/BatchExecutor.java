@@ -0,0 +1,389 @@
+package org.sadun.util.tp;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Runs a batch of units of work - {@link Task Tasks} or Runnables - connected by
+ * dependencies, on a {@link ThreadPool ThreadPool}, returning when all of them
+ * have completed.
+ * <p>
+ * A unit starts as soon as all the units it {@link Unit#dependsOn(BatchExecutor.Unit)
+ * depends on} have completed, so that as many independent units as possible are
+ * running at any time, up to the batch's <i>parallelism</i>. The dependencies must
+ * form an acyclic graph.
+ * <p>
+ * Units are not bound to threads: a thread which completes a unit goes on running the
+ * next ready unit, and the thread invoking {@link #run() run()} runs units as well, instead
+ * of just waiting. Therefore the pool threads are used only as long as there are ready
+ * units, and a batch can run on a pool which is busy, or even from a pool's own thread.
+ * <p>
+ * If a unit fails, the units which depend on it, directly or not, are cancelled; the
+ * other units run normally. The result or failure of each unit is available from
+ * its {@link Unit#getFuture() future}.
+ * <p>
+ * For example:
+ * <pre>
+ *  BatchExecutor batch = new BatchExecutor();
+ *  BatchExecutor.Unit load = batch.add(loadTask);
+ *  BatchExecutor.Unit index = batch.add(indexTask, new BatchExecutor.Unit[] { load });
+ *  BatchExecutor.Unit report = batch.add(reportTask, new BatchExecutor.Unit[] { load });
+ *  batch.run(); <font color="green">// index and report run concurrently after load</font>
+ * </pre>
+ * A batch can be run only once.
+ *
+ * @author Cristiano Sadun
+ * @version 1.0
+ */
+public class BatchExecutor {
+
+    private static ThreadPool sharedPool;
+
+    private ThreadPool pool;
+    private int parallelism;
+    private List units = new ArrayList();
+
+    private Object lock = new Object();
+    private LinkedList ready = new LinkedList();
+    private int remaining;
+    private int active;
+    private int starting;
+    private boolean started;
+    private boolean aborted;
+    private Thread runner;
+    private TaskFuture firstFailed;
+
+    /**
+     * A unit of work in a batch.
+     */
+    public class Unit {
+
+        private TaskFuture future;
+        private int index;
+        private List dependents = new ArrayList();
+        private List dependencies = new ArrayList();
+        private int pending;
+
+        private Unit(TaskFuture future) {
+            this.future=future;
+        }
+
+        /**
+         * Declare that this unit can start only after the given unit has completed.
+         * @param unit a unit in the same batch
+         */
+        public void dependsOn(Unit unit) {
+            if (unit.getBatch() != BatchExecutor.this)
+                throw new IllegalArgumentException("The unit belongs to a different batch");
+            if (unit == this)
+                throw new IllegalArgumentException("A unit cannot depend on itself");
+            synchronized(lock) {
+                checkNotStarted();
+                if (dependencies.contains(unit)) return;
+                dependencies.add(unit);
+                unit.dependents.add(this);
+            }
+        }
+
+        /**
+         * Return the future result of this unit.
+         * @return the future result of this unit
+         */
+        public TaskFuture getFuture() {
+            return future;
+        }
+
+        private BatchExecutor getBatch() {
+            return BatchExecutor.this;
+        }
+
+        public String toString() {
+            return "unit "+index+" ("+future+")";
+        }
+    }
+
+    /*
+     * Runs ready units in a pool thread, as long as there are any.
+     */
+    private class Drainer implements Runnable {
+        public void run() {
+            synchronized(lock) {
+                starting--;
+            }
+            drain();
+        }
+    }
+
+    /**
+     * Create a batch which runs on the given pool, with the given maximum
+     * number of concurrently running units.
+     * @param pool the pool to use
+     * @param parallelism the maximum number of units running concurrently, including the one
+     *        run by the thread invoking {@link #run() run()}
+     */
+    public BatchExecutor(ThreadPool pool, int parallelism) {
+        if (pool == null) throw new IllegalArgumentException("pool cannot be null");
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be at least 1");
+        this.pool=pool;
+        this.parallelism=parallelism;
+    }
+
+    /**
+     * Create a batch which runs on the given pool, with a parallelism equal to the
+     * pool's maximum size plus the invoking thread.
+     * @param pool the pool to use
+     */
+    public BatchExecutor(ThreadPool pool) {
+        this(pool, pool.getMaxSize()+1);
+    }
+
+    /**
+     * Create a batch which runs on a pool shared by all the batches created
+     * by this constructor, with one daemon thread per available processor.
+     */
+    public BatchExecutor() {
+        this(getSharedPool());
+    }
+
+    /**
+     * Return the pool shared by the batches which do not specify one.
+     * @return the shared pool
+     */
+    public static synchronized ThreadPool getSharedPool() {
+        if (sharedPool == null)
+            sharedPool = new ThreadPool(Runtime.getRuntime().availableProcessors(), true);
+        return sharedPool;
+    }
+
+    /**
+     * Add a task to the batch.
+     * @param task the task
+     * @return the unit of work for the task
+     */
+    public Unit add(Task task) {
+        return add(new TaskFuture(task), null);
+    }
+
+    /**
+     * Add a task to the batch, which will start after the given units have completed.
+     * @param task the task
+     * @param dependencies the units the task depends on, or <b>null</b>
+     * @return the unit of work for the task
+     */
+    public Unit add(Task task, Unit [] dependencies) {
+        return add(new TaskFuture(task), dependencies);
+    }
+
+    /**
+     * Add a runnable to the batch.
+     * @param runnable the runnable
+     * @return the unit of work for the runnable
+     */
+    public Unit add(Runnable runnable) {
+        return add(new TaskFuture(runnable, null), null);
+    }
+
+    /**
+     * Add a runnable to the batch, which will start after the given units have completed.
+     * @param runnable the runnable
+     * @param dependencies the units the runnable depends on, or <b>null</b>
+     * @return the unit of work for the runnable
+     */
+    public Unit add(Runnable runnable, Unit [] dependencies) {
+        return add(new TaskFuture(runnable, null), dependencies);
+    }
+
+    private Unit add(TaskFuture future, Unit [] dependencies) {
+        Unit unit = new Unit(future);
+        synchronized(lock) {
+            checkNotStarted();
+            unit.index=units.size();
+            units.add(unit);
+        }
+        if (dependencies != null)
+            for(int i=0;i<dependencies.length;i++) unit.dependsOn(dependencies[i]);
+        return unit;
+    }
+
+    /**
+     * Return the number of units in the batch.
+     * @return the number of units in the batch
+     */
+    public int size() {
+        synchronized(lock) {
+            return units.size();
+        }
+    }
+
+    /**
+     * Run the batch, returning when all the units have completed or have been cancelled
+     * because a unit they depend on has failed.
+     *
+     * @exception TaskFailedException if any unit has failed; the cause is the failure
+     *            of the first unit which failed
+     * @exception InterruptedException if the invoking thread is interrupted while running
+     *            units or waiting for the units running in the pool. The units not yet
+     *            started are cancelled, including the ones whose dependencies are still
+     *            running; the running ones are not interrupted.
+     * @exception IllegalStateException if the batch has already been run, or the dependencies
+     *            contain a cycle
+     */
+    public void run() throws TaskFailedException, InterruptedException {
+        synchronized(lock) {
+            checkNotStarted();
+            checkAcyclic();
+            started=true;
+            runner=Thread.currentThread();
+            remaining=units.size();
+            for(Iterator i=units.iterator();i.hasNext();) {
+                Unit unit = (Unit)i.next();
+                unit.pending=unit.dependencies.size();
+                if (unit.pending == 0) ready.add(unit);
+            }
+        }
+        dispatch();
+        while(true) {
+            drain();
+            synchronized(lock) {
+                try {
+                    if (aborted || remaining > 0 && runner.isInterrupted()) {
+                        Thread.interrupted();
+                        throw new InterruptedException();
+                    }
+                    while(remaining > 0 && (ready.isEmpty() || active >= parallelism)) lock.wait();
+                } catch(InterruptedException e) {
+                    // Don't start anything else, even when the running units complete
+                    aborted=true;
+                    cancelReady();
+                    throw e;
+                }
+                if (remaining == 0) break;
+            }
+        }
+        synchronized(lock) {
+            if (firstFailed != null)
+                throw new TaskFailedException("A unit of the batch has failed", firstFailed.getFailure());
+        }
+    }
+
+    /*
+     * Run ready units until none is available or the parallelism is reached
+     */
+    private void drain() {
+        while(true) {
+            Unit unit;
+            synchronized(lock) {
+                checkAborted();
+                if (ready.isEmpty() || active >= parallelism) return;
+                unit=(Unit)ready.removeFirst();
+                active++;
+            }
+            unit.future.run();
+            synchronized(lock) {
+                active--;
+                // Before completing, so that no dependent is dispatched
+                checkAborted();
+                completed(unit);
+            }
+            dispatch();
+        }
+    }
+
+    /*
+     * Start pool threads for the ready units which can't be run by the threads
+     * already running units
+     */
+    private void dispatch() {
+        while(true) {
+            synchronized(lock) {
+                if (ready.size() <= starting || active + starting >= parallelism) return;
+                starting++;
+            }
+            if (!pool.start(new Drainer(), true)) {
+                // No free thread: the ready units will be run as the running ones complete
+                synchronized(lock) {
+                    starting--;
+                }
+                return;
+            }
+        }
+    }
+
+    /*
+     * Must be invoked holding the lock
+     */
+    private void completed(Unit unit) {
+        remaining--;
+        if (unit.future.isFailed() || unit.future.isCancelled()) {
+            if (firstFailed == null && unit.future.isFailed()) firstFailed=unit.future;
+            for(Iterator i=unit.dependents.iterator();i.hasNext();) cancel((Unit)i.next());
+        } else {
+            for(Iterator i=unit.dependents.iterator();i.hasNext();) {
+                Unit dependent = (Unit)i.next();
+                // A dependent may have been cancelled because of another failed dependency
+                if (--dependent.pending == 0 && !dependent.future.isDone()) {
+                    if (aborted) cancel(dependent);
+                    else ready.add(dependent);
+                }
+            }
+        }
+        // Wake up the thread in run(), to complete or help
+        lock.notifyAll();
+    }
+
+    /*
+     * Must be invoked holding the lock
+     */
+    private void cancel(Unit unit) {
+        if (unit.future.cancel(false)) completed(unit);
+    }
+
+    /*
+     * Must be invoked holding the lock. Once the thread in run() is interrupted,
+     * no other unit starts
+     */
+    private void checkAborted() {
+        if (Thread.currentThread() == runner && runner.isInterrupted()) aborted=true;
+        if (aborted) cancelReady();
+    }
+
+    /*
+     * Must be invoked holding the lock
+     */
+    private void cancelReady() {
+        while(!ready.isEmpty()) cancel((Unit)ready.removeFirst());
+    }
+
+    /*
+     * Must be invoked holding the lock
+     */
+    private void checkNotStarted() {
+        if (started) throw new IllegalStateException("The batch has already been run");
+    }
+
+    /*
+     * Must be invoked holding the lock
+     */
+    private void checkAcyclic() {
+        // Kahn's algorithm: if the units can't be all sorted, there's a cycle
+        int [] pending = new int[units.size()];
+        LinkedList free = new LinkedList();
+        for(int i=0;i<pending.length;i++) {
+            pending[i]=((Unit)units.get(i)).dependencies.size();
+            if (pending[i] == 0) free.add(units.get(i));
+        }
+        int sorted=0;
+        while(!free.isEmpty()) {
+            Unit unit = (Unit)free.removeFirst();
+            sorted++;
+            for(Iterator i=unit.dependents.iterator();i.hasNext();) {
+                Unit dependent = (Unit)i.next();
+                if (--pending[dependent.index] == 0) free.add(dependent);
+            }
+        }
+        if (sorted < pending.length)
+            throw new IllegalStateException("The dependencies between the units contain a cycle");
+    }
+}
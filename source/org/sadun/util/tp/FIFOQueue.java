@@ -1,18 +1,48 @@
 package org.sadun.util.tp;
 
+/**
+ * A FIFO {@link Queue Queue} backed by a circular array, so that both
+ * {@link #put(Runnable) put()} and {@link #get() get()} take constant time.
+ * <p>
+ * The array doubles when full and is never shrunk.
+ */
 class FIFOQueue implements Queue {
 
-    private com.deltax.util.FIFOQueue q = new com.deltax.util.FIFOQueue();
+    private Runnable [] elements;
+    private int head;
+    private int count;
+
+    FIFOQueue(int initialCapacity) {
+        elements = new Runnable[Math.max(initialCapacity, 1)];
+    }
+
+    FIFOQueue() {
+        this(16);
+    }
+
+    public void put(Runnable obj) {
+        if (count == elements.length) grow();
+        elements[(head + count) % elements.length] = obj;
+        count++;
+    }
 
-    public void put(Runnable obj) { q.put(obj); }
     public Runnable get() {
-        try {
-            return (Runnable)q.get();
-        } catch(com.deltax.util.QueueEmptyException e) {
-            return null;
-        }
+        if (count == 0) return null;
+        Runnable obj = elements[head];
+        elements[head] = null;
+        head = (head + 1) % elements.length;
+        count--;
+        return obj;
     }
 
-    public int size() { return q.size(); }
-    public boolean isEmpty()  { return q.isEmpty(); }
-}
\ No newline at end of file
+    public int size() { return count; }
+    public boolean isEmpty()  { return count == 0; }
+
+    private void grow() {
+        Runnable [] newElements = new Runnable[elements.length * 2];
+        for(int i=0;i<count;i++)
+            newElements[i]=elements[(head + i) % elements.length];
+        elements=newElements;
+        head=0;
+    }
+}
@@ -0,0 +1,126 @@
+package org.sadun.util.tp;
+
+/**
+ * A histogram of durations (in ms.) with exponential buckets: bucket 0
+ * holds 0ms, bucket <i>i</i> holds durations between 2<sup>i-1</sup> and
+ * 2<sup>i</sup>-1 ms, and the last bucket holds everything above.
+ * <p>
+ * Recording a value takes constant time and doesn't allocate. The class
+ * is not thread-safe.
+ *
+ * @author Cristiano Sadun
+ * @version 1.0
+ */
+public class Histogram {
+
+    /**
+     * The number of buckets. The last bucket holds durations of 16384ms or more.
+     */
+    public static final int BUCKETS = 16;
+
+    private long [] counts = new long[BUCKETS];
+    private long count;
+    private long total;
+    private long max;
+
+    /**
+     * Record a duration.
+     *
+     * @param value the duration in ms.
+     */
+    public void record(long value) {
+        if (value < 0) value=0;
+        counts[getBucket(value)]++;
+        count++;
+        total+=value;
+        if (value > max) max=value;
+    }
+
+    /**
+     * Return the number of recorded durations.
+     */
+    public long getCount() { return count; }
+
+    /**
+     * Return the longest recorded duration.
+     */
+    public long getMax() { return max; }
+
+    /**
+     * Return the average of the recorded durations.
+     */
+    public double getAverage() {
+        return count == 0 ? 0 : (double)total / count;
+    }
+
+    /**
+     * Return the number of durations recorded in each bucket.
+     */
+    public long [] getCounts() {
+        long [] result = new long[BUCKETS];
+        System.arraycopy(counts, 0, result, 0, BUCKETS);
+        return result;
+    }
+
+    /**
+     * Return the upper bound of the bucket which contains the given
+     * percentile of the recorded values, or 0 if no value has been recorded.
+     */
+    public long getPercentile(double percentile) {
+        if (count == 0) return 0;
+        long threshold = (long)Math.ceil(count * percentile / 100.0);
+        long c=0;
+        for(int i=0;i<BUCKETS-1;i++) {
+            c+=counts[i];
+            if (c >= threshold) return Math.min(getUpperBound(i), max);
+        }
+        return max;
+    }
+
+    /**
+     * Return a copy of the histogram.
+     */
+    public Histogram copy() {
+        Histogram h = new Histogram();
+        System.arraycopy(counts, 0, h.counts, 0, BUCKETS);
+        h.count=count;
+        h.total=total;
+        h.max=max;
+        return h;
+    }
+
+    /**
+     * Return the bucket holding the given duration.
+     */
+    public static int getBucket(long value) {
+        int b=0;
+        while(value > 0 && b < BUCKETS-1) {
+            value >>= 1;
+            b++;
+        }
+        return b;
+    }
+
+    /**
+     * Return the largest duration held by the given bucket.
+     */
+    public static long getUpperBound(int bucket) {
+        if (bucket >= BUCKETS-1) return Long.MAX_VALUE;
+        return (1L << bucket) - 1;
+    }
+
+    /**
+     * Return a description of the durations held by each bucket.
+     */
+    public static String [] getBucketLabels() {
+        String [] labels = new String[BUCKETS];
+        labels[0]="0ms";
+        for(int i=1;i<BUCKETS-1;i++) {
+            long lower = getUpperBound(i-1)+1;
+            if (lower == getUpperBound(i)) labels[i]=lower+"ms";
+            else labels[i]=lower+"-"+getUpperBound(i)+"ms";
+        }
+        labels[BUCKETS-1]=">="+(getUpperBound(BUCKETS-2)+1)+"ms";
+        return labels;
+    }
+}
@@ -0,0 +1,137 @@
+package org.sadun.util.tp;
+
+/**
+ * An implementation of {@link ManagedThreadPoolMBean} which instruments
+ * an existing {@link ThreadPool ThreadPool}.
+ * <p>
+ * The statistics are always collected by the pool, at a negligible cost: they
+ * are updated only when the pool already holds its lock, and without allocating.
+ * The average queue wait time accounts for all runnables; the maximum and the
+ * distribution of queue wait times account for the tasks {@link ThreadPool#submit(Task)
+ * submitted} to the pool, which carry their queueing time.
+ * <p>
+ * Each attribute read takes a consistent snapshot of the statistics.
+ *
+ * @author Cristiano Sadun
+ * @version 1.0
+ */
+public class ManagedThreadPool implements ManagedThreadPoolMBean {
+
+    private ThreadPool pool;
+
+    /**
+     * Create a managed pool instrumenting the given pool.
+     * @param pool the pool to instrument
+     */
+    public ManagedThreadPool(ThreadPool pool) {
+        if (pool == null) throw new IllegalArgumentException("pool cannot be null");
+        this.pool=pool;
+    }
+
+    /**
+     * Return the instrumented pool.
+     * @return the instrumented pool
+     */
+    public ThreadPool getThreadPool() {
+        return pool;
+    }
+
+    public int getSize() {
+        return pool.size();
+    }
+
+    public int getCoreSize() {
+        return pool.getCoreSize();
+    }
+
+    public void setCoreSize(int coreSize) {
+        pool.setCoreSize(coreSize);
+    }
+
+    public int getMaxSize() {
+        return pool.getMaxSize();
+    }
+
+    public void setMaxSize(int maxSize) {
+        pool.setMaxSize(maxSize);
+    }
+
+    public int getBusyCount() {
+        return pool.getBusyCount();
+    }
+
+    public int getQueueSize() {
+        return pool.getQueueSize();
+    }
+
+    public int getQueueCapacity() {
+        return pool.getQueueCapacity();
+    }
+
+    public long getCompletedCount() {
+        return pool.getStatistics().completed;
+    }
+
+    public long getFailedCount() {
+        return pool.getStatistics().failed;
+    }
+
+    public long getRejectedCount() {
+        return pool.getStatistics().rejected;
+    }
+
+    public long getCallerRunsCount() {
+        return pool.getStatistics().callerRuns;
+    }
+
+    public double getThroughput() {
+        return pool.getStatistics().getThroughput(System.currentTimeMillis());
+    }
+
+    public double getAverageQueueWaitTime() {
+        return pool.getStatistics().getAverageQueueWaitTime();
+    }
+
+    public long getMaxQueueWaitTime() {
+        return pool.getStatistics().queueWaitTime.getMax();
+    }
+
+    public long[] getQueueWaitTimeHistogram() {
+        return pool.getStatistics().queueWaitTime.getCounts();
+    }
+
+    public double getAverageRunTime() {
+        return pool.getStatistics().runTime.getAverage();
+    }
+
+    public long getMaxRunTime() {
+        return pool.getStatistics().runTime.getMax();
+    }
+
+    public long getRunTime99thPercentile() {
+        return pool.getStatistics().runTime.getPercentile(99);
+    }
+
+    public long[] getRunTimeHistogram() {
+        return pool.getStatistics().runTime.getCounts();
+    }
+
+    public String[] getHistogramBuckets() {
+        return Histogram.getBucketLabels();
+    }
+
+    public double[] getThreadUtilization() {
+        return pool.getUtilization();
+    }
+
+    public void resetStatistics() {
+        pool.resetStatistics();
+    }
+
+    public String toString() {
+        Statistics s = pool.getStatistics();
+        return "thread pool: "+pool.size()+" threads, "+pool.getBusyCount()+" busy, "
+            +pool.getQueueSize()+" queued, "+s.completed+" completed ("+s.failed+" failed), "
+            +s.rejected+" rejected";
+    }
+}
@@ -0,0 +1,153 @@
+package org.sadun.util.tp;
+
+/**
+ * A JMX instrumentation of a {@link ThreadPool ThreadPool}, exposing its
+ * size and its execution statistics.
+ * <p>
+ * Durations are in milliseconds. The histograms have exponential buckets,
+ * described by {@link #getHistogramBuckets() HistogramBuckets}.
+ *
+ * @author Cristiano Sadun
+ * @version 1.0
+ */
+public interface ManagedThreadPoolMBean {
+
+    /**
+     * Return the current number of threads in the pool
+     * @return the current number of threads in the pool
+     */
+    public int getSize();
+
+    /**
+     * Return the number of threads kept in the pool even if idle
+     * @return the core size of the pool
+     */
+    public int getCoreSize();
+
+    /**
+     * Set the number of threads kept in the pool even if idle
+     * @param coreSize the core size of the pool
+     */
+    public void setCoreSize(int coreSize);
+
+    /**
+     * Return the maximum number of threads in the pool
+     * @return the maximum size of the pool
+     */
+    public int getMaxSize();
+
+    /**
+     * Set the maximum number of threads in the pool
+     * @param maxSize the maximum size of the pool
+     */
+    public void setMaxSize(int maxSize);
+
+    /**
+     * Return the number of threads currently running a runnable
+     * @return the number of threads currently running a runnable
+     */
+    public int getBusyCount();
+
+    /**
+     * Return the number of runnables waiting in the queue
+     * @return the number of runnables waiting in the queue
+     */
+    public int getQueueSize();
+
+    /**
+     * Return the capacity of the queue, or 0 if it is unbounded
+     * @return the capacity of the queue, or 0
+     */
+    public int getQueueCapacity();
+
+    /**
+     * Return the number of runnables completed by the pooled threads
+     * @return the number of runnables completed by the pooled threads
+     */
+    public long getCompletedCount();
+
+    /**
+     * Return the number of completed runnables which have raised an exception
+     * @return the number of completed runnables which have raised an exception
+     */
+    public long getFailedCount();
+
+    /**
+     * Return the number of runnables rejected by the pool
+     * @return the number of runnables rejected by the pool
+     */
+    public long getRejectedCount();
+
+    /**
+     * Return the number of runnables executed by the caller since the queue was full
+     * @return the number of runnables executed by the caller
+     */
+    public long getCallerRunsCount();
+
+    /**
+     * Return the number of runnables completed per second
+     * @return the number of runnables completed per second
+     */
+    public double getThroughput();
+
+    /**
+     * Return the average time spent in the queue by the dequeued runnables
+     * @return the average queue wait time
+     */
+    public double getAverageQueueWaitTime();
+
+    /**
+     * Return the maximum time spent in the queue by a submitted task
+     * @return the maximum queue wait time of a submitted task
+     */
+    public long getMaxQueueWaitTime();
+
+    /**
+     * Return the distribution of the time spent in the queue by submitted tasks
+     * @return the count of submitted tasks in each histogram bucket
+     */
+    public long [] getQueueWaitTimeHistogram();
+
+    /**
+     * Return the average run time of the completed runnables
+     * @return the average run time
+     */
+    public double getAverageRunTime();
+
+    /**
+     * Return the maximum run time of a completed runnable
+     * @return the maximum run time
+     */
+    public long getMaxRunTime();
+
+    /**
+     * Return an upper bound of the run time of 99% of the completed runnables
+     * @return the 99th percentile of the run time, at the histogram resolution
+     */
+    public long getRunTime99thPercentile();
+
+    /**
+     * Return the distribution of the run time of the completed runnables
+     * @return the count of completed runnables in each histogram bucket
+     */
+    public long [] getRunTimeHistogram();
+
+    /**
+     * Return a description of each histogram bucket
+     * @return a description of each histogram bucket
+     */
+    public String [] getHistogramBuckets();
+
+    /**
+     * Return, for each thread in the pool, the fraction (between 0 and 1) of its
+     * lifetime spent running runnables
+     * @return the utilization of each thread in the pool
+     */
+    public double [] getThreadUtilization();
+
+    /**
+     * Reset the execution statistics
+     */
+    public void resetStatistics();
+
+}
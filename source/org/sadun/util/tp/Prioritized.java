@@ -0,0 +1,19 @@
+package org.sadun.util.tp;
+
+/**
+ * Runnables or {@link Task Task}s implementing this interface are ordered by their 
+ * priority when queued in a {@link PriorityQueue PriorityQueue}.
+ *
+ * @author Cristiano Sadun
+ * @version 1.0
+ */
+public interface Prioritized {
+
+    /**
+     * Return the priority of the object. Objects with higher priority
+     * are dequeued first.
+     * @return the priority of the object
+     */
+    public int getPriority();
+
+}
@@ -0,0 +1,109 @@
+package org.sadun.util.tp;
+
+import java.util.Comparator;
+
+/**
+ * A {@link Queue Queue} which returns first the runnable with the highest
+ * priority, backed by a binary heap so that both {@link #put(Runnable) put()}
+ * and {@link #get() get()} take logarithmic time.
+ * <p>
+ * By default, runnables are ordered by their {@link Prioritized#getPriority()
+ * priority} (runnables which are not {@link Prioritized Prioritized} have priority 0),
+ * and runnables with the same priority are returned in FIFO order. A different
+ * ordering can be given by a Comparator, in which case the smallest runnable
+ * is returned first.
+ *
+ * @author Cristiano Sadun
+ * @version 1.0
+ */
+public class PriorityQueue implements Queue {
+
+    private static class Entry {
+        private Runnable runnable;
+        private int priority;
+        private long seq;
+
+        Entry(Runnable runnable, int priority, long seq) {
+            this.runnable=runnable;
+            this.priority=priority;
+            this.seq=seq;
+        }
+    }
+
+    private Comparator comparator;
+    private Entry [] heap;
+    private int count;
+    private long nextSeq;
+
+    /**
+     * Create a queue ordered by the runnables' {@link Prioritized#getPriority() priority}.
+     */
+    public PriorityQueue() {
+        this(null);
+    }
+
+    /**
+     * Create a queue ordered by the given comparator, which must accept
+     * the Runnable objects which are put in the queue. Runnables which are equal
+     * according to the comparator are returned in FIFO order.
+     * @param comparator the comparator, or <b>null</b> to order by priority
+     */
+    public PriorityQueue(Comparator comparator) {
+        this.comparator=comparator;
+        this.heap=new Entry[16];
+    }
+
+    public void put(Runnable obj) {
+        if (count == heap.length) {
+            Entry [] newHeap = new Entry[heap.length * 2];
+            System.arraycopy(heap, 0, newHeap, 0, count);
+            heap=newHeap;
+        }
+        int priority = obj instanceof Prioritized ? ((Prioritized)obj).getPriority() : 0;
+        Entry e = new Entry(obj, priority, nextSeq++);
+        // Sift up
+        int i=count++;
+        while(i > 0) {
+            int parent = (i - 1) / 2;
+            if (!before(e, heap[parent])) break;
+            heap[i]=heap[parent];
+            i=parent;
+        }
+        heap[i]=e;
+    }
+
+    public Runnable get() {
+        if (count == 0) return null;
+        Runnable obj = heap[0].runnable;
+        Entry last = heap[--count];
+        heap[count]=null;
+        if (count > 0) {
+            // Sift down
+            int i=0;
+            while(true) {
+                int child = 2 * i + 1;
+                if (child >= count) break;
+                if (child + 1 < count && before(heap[child + 1], heap[child])) child++;
+                if (!before(heap[child], last)) break;
+                heap[i]=heap[child];
+                i=child;
+            }
+            heap[i]=last;
+        }
+        return obj;
+    }
+
+    public int size() { return count; }
+    public boolean isEmpty()  { return count == 0; }
+
+    /*
+     * Return true if a must be returned before b
+     */
+    private boolean before(Entry a, Entry b) {
+        int c;
+        if (comparator != null) c = comparator.compare(a.runnable, b.runnable);
+        else c = a.priority > b.priority ? -1 : (a.priority < b.priority ? 1 : 0);
+        if (c != 0) return c < 0;
+        return a.seq < b.seq;
+    }
+}
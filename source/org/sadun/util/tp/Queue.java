@@ -5,6 +5,9 @@ package org.sadun.util.tp;
  * <p>
  * This queue may decide the order with which a certain Runnable object
  * may be selected by implementing appropriately the {@link Queue#get() get()} method.
+ * <p>
+ * A {@link ThreadPool ThreadPool} always accesses its queue while holding its own 
+ * lock, so implementations do not need to be thread-safe.
  *
  * @author C. Sadun
  * @version 1.0
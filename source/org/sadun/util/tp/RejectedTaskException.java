@@ -0,0 +1,42 @@
+package org.sadun.util.tp;
+
+/**
+ * An exception raised by a {@link ThreadPool ThreadPool} when a runnable
+ * cannot be accepted, because the pool is bounded and full and its saturation
+ * policy is {@link ThreadPool#REJECT REJECT}, or because the pool is
+ * terminated.
+ *
+ * @author Cristiano Sadun
+ */
+public class RejectedTaskException extends RuntimeException {
+
+    /**
+     * 
+     */
+    public RejectedTaskException() {
+        super();
+    }
+
+    /**
+     * @param message
+     */
+    public RejectedTaskException(String message) {
+        super(message);
+    }
+
+    /**
+     * @param cause
+     */
+    public RejectedTaskException(Throwable cause) {
+        super(cause);
+    }
+
+    /**
+     * @param message
+     * @param cause
+     */
+    public RejectedTaskException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
@@ -0,0 +1,73 @@
+package org.sadun.util.tp;
+
+/**
+ * The execution statistics of a {@link ThreadPool ThreadPool}.
+ * <p>
+ * The pool updates its statistics while holding its own lock, and only
+ * at points where it already holds it - when queueing and dequeuing runnables -
+ * so that collecting them doesn't add any synchronization to the pool.
+ *
+ * @author Cristiano Sadun
+ * @version 1.0
+ */
+class Statistics {
+
+    long startTime;
+    long completed;
+    long failed;
+    long rejected;
+    long callerRuns;
+    long dequeued;
+    Histogram queueWaitTime = new Histogram();
+    Histogram runTime = new Histogram();
+
+    /*
+     * The integral of the queue size over time, which is the total
+     * time spent in the queue by all the runnables.
+     */
+    long queueTimeIntegral;
+    long lastQueueChange;
+
+    Statistics(long now) {
+        startTime=now;
+        lastQueueChange=now;
+    }
+
+    /**
+     * Invoked before the queue size changes.
+     */
+    void queueChanging(int queueSize, long now) {
+        queueTimeIntegral+=queueSize * (now - lastQueueChange);
+        lastQueueChange=now;
+    }
+
+    /**
+     * Return the average time spent in the queue by the dequeued runnables.
+     */
+    double getAverageQueueWaitTime() {
+        return dequeued == 0 ? 0 : (double)queueTimeIntegral / dequeued;
+    }
+
+    /**
+     * Return the number of completed runnables per second since the
+     * statistics have been started.
+     */
+    double getThroughput(long now) {
+        long elapsed = now - startTime;
+        return elapsed <= 0 ? 0 : completed * 1000.0 / elapsed;
+    }
+
+    Statistics copy() {
+        Statistics s = new Statistics(startTime);
+        s.completed=completed;
+        s.failed=failed;
+        s.rejected=rejected;
+        s.callerRuns=callerRuns;
+        s.dequeued=dequeued;
+        s.queueWaitTime=queueWaitTime.copy();
+        s.runTime=runTime.copy();
+        s.queueTimeIntegral=queueTimeIntegral;
+        s.lastQueueChange=lastQueueChange;
+        return s;
+    }
+}
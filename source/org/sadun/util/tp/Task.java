@@ -0,0 +1,19 @@
+package org.sadun.util.tp;
+
+/**
+ * A unit of work which produces a result, and can be 
+ * {@link ThreadPool#submit(Task) submitted} to a {@link ThreadPool ThreadPool}.
+ *
+ * @author Cristiano Sadun
+ * @version 1.0
+ */
+public interface Task {
+
+    /**
+     * Execute the task.
+     * @return the result of the task, or <b>null</b>
+     * @exception Exception if the task fails
+     */
+    public Object call() throws Exception;
+
+}
@@ -0,0 +1,40 @@
+package org.sadun.util.tp;
+
+/**
+ * An exception raised by {@link TaskFuture#get() TaskFuture.get()} when the
+ * task has been cancelled.
+ *
+ * @author Cristiano Sadun
+ */
+public class TaskCancelledException extends RuntimeException {
+
+    /**
+     * 
+     */
+    public TaskCancelledException() {
+        super();
+    }
+
+    /**
+     * @param message
+     */
+    public TaskCancelledException(String message) {
+        super(message);
+    }
+
+    /**
+     * @param cause
+     */
+    public TaskCancelledException(Throwable cause) {
+        super(cause);
+    }
+
+    /**
+     * @param message
+     * @param cause
+     */
+    public TaskCancelledException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
@@ -0,0 +1,41 @@
+package org.sadun.util.tp;
+
+/**
+ * An exception raised by {@link TaskFuture#get() TaskFuture.get()} when the
+ * task has failed. The exception thrown by the task is the cause of this
+ * exception.
+ *
+ * @author Cristiano Sadun
+ */
+public class TaskFailedException extends Exception {
+
+    /**
+     * 
+     */
+    public TaskFailedException() {
+        super();
+    }
+
+    /**
+     * @param message
+     */
+    public TaskFailedException(String message) {
+        super(message);
+    }
+
+    /**
+     * @param cause
+     */
+    public TaskFailedException(Throwable cause) {
+        super(cause);
+    }
+
+    /**
+     * @param message
+     * @param cause
+     */
+    public TaskFailedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
@@ -0,0 +1,210 @@
+package org.sadun.util.tp;
+
+import org.sadun.util.OperationTimedoutException;
+
+/**
+ * The pending result of a {@link Task Task} or Runnable
+ * {@link ThreadPool#submit(Task) submitted} to a {@link ThreadPool ThreadPool}.
+ * <p>
+ * The result can be waited for by {@link #get() get()}, and the execution
+ * can be {@link #cancel(boolean) cancelled}. A task which is cancelled before
+ * starting never runs; a running task can optionally be interrupted.
+ * <p>
+ * A future is itself a Runnable - this is what the pool actually queues and runs.
+ * It implements {@link Prioritized Prioritized} by delegating to the task, so that
+ * the priority of the task is honored by a {@link PriorityQueue PriorityQueue}.
+ *
+ * @author Cristiano Sadun
+ * @version 1.0
+ */
+public class TaskFuture implements Runnable, Prioritized {
+
+    private static final int READY = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+    private static final int FAILED = 3;
+    private static final int CANCELLED = 4;
+
+    private Task task;
+    private Runnable runnable;
+    private int state = READY;
+    private Object result;
+    private Throwable failure;
+    private Thread runner;
+
+    /*
+     * The time the future has been queued by the pool, guarded by the pool's lock
+     */
+    long enqueueTime;
+
+    /**
+     * Create a future for the given task.
+     * @param task the task to execute
+     */
+    public TaskFuture(Task task) {
+        if (task == null) throw new IllegalArgumentException("task cannot be null");
+        this.task=task;
+    }
+
+    /**
+     * Create a future for the given runnable, which will produce
+     * the given result on successful completion.
+     * @param runnable the runnable to execute
+     * @param result the result of the future, or <b>null</b>
+     */
+    public TaskFuture(Runnable runnable, Object result) {
+        if (runnable == null) throw new IllegalArgumentException("runnable cannot be null");
+        this.runnable=runnable;
+        this.result=result;
+    }
+
+    /**
+     * Execute the task, unless it has been cancelled or already executed.
+     */
+    public void run() {
+        synchronized(this) {
+            if (state != READY) return;
+            state=RUNNING;
+            runner=Thread.currentThread();
+        }
+        Object res=null;
+        Throwable exc=null;
+        try {
+            if (task != null) res=task.call();
+            else {
+                runnable.run();
+                res=result;
+            }
+        } catch(Throwable e) {
+            exc=e;
+        }
+        boolean cancelled;
+        synchronized(this) {
+            runner=null;
+            if (state == RUNNING) {
+                if (exc == null) {
+                    result=res;
+                    state=DONE;
+                } else {
+                    failure=exc;
+                    state=FAILED;
+                }
+            }
+            cancelled = state == CANCELLED;
+            notifyAll();
+        }
+        // Don't leave a pooled thread interrupted by cancel()
+        if (cancelled) Thread.interrupted();
+    }
+
+    /**
+     * Attempt to cancel the execution of the task.
+     * <p>
+     * If the task hasn't started yet, it will never run. If it is running and
+     * <tt>mayInterrupt</tt> is <b>true</b>, the thread running it is interrupted.
+     *
+     * @param mayInterrupt if <b>true</b>, a running task is interrupted
+     * @return <b>false</b> if the task couldn't be cancelled, since it had already completed
+     *          or had already been cancelled; <b>true</b> otherwise
+     */
+    public synchronized boolean cancel(boolean mayInterrupt) {
+        if (state != READY && state != RUNNING) return false;
+        if (state == RUNNING && mayInterrupt && runner != null) runner.interrupt();
+        state=CANCELLED;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Return <b>true</b> if the task has been cancelled before completing.
+     * @return <b>true</b> if the task has been cancelled
+     */
+    public synchronized boolean isCancelled() {
+        return state == CANCELLED;
+    }
+
+    /**
+     * Return <b>true</b> if the task has completed, successfully or not, or
+     * has been cancelled.
+     * @return <b>true</b> if the task has completed or has been cancelled
+     */
+    public synchronized boolean isDone() {
+        return state >= DONE;
+    }
+
+    /*
+     * Return true if the task has raised an exception
+     */
+    synchronized boolean isFailed() {
+        return state == FAILED;
+    }
+
+    /*
+     * Return the exception raised by the task, or null
+     */
+    synchronized Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Wait for the task to complete and return its result.
+     *
+     * @return the result of the task
+     * @exception InterruptedException if the waiting thread is interrupted
+     * @exception TaskFailedException if the task has failed; the cause is the exception
+     *             raised by the task
+     * @exception TaskCancelledException if the task has been cancelled
+     */
+    public synchronized Object get() throws InterruptedException, TaskFailedException {
+        while (state < DONE) wait();
+        return getResult();
+    }
+
+    /**
+     * Wait at most the given time for the task to complete and return its result.
+     *
+     * @param timeout the maximum time to wait, in milliseconds
+     * @return the result of the task
+     * @exception InterruptedException if the waiting thread is interrupted
+     * @exception TaskFailedException if the task has failed; the cause is the exception
+     *             raised by the task
+     * @exception TaskCancelledException if the task has been cancelled
+     * @exception OperationTimedoutException if the task hasn't completed within the timeout
+     */
+    public synchronized Object get(long timeout)
+        throws InterruptedException, TaskFailedException, OperationTimedoutException {
+        long end=System.currentTimeMillis()+timeout;
+        while (state < DONE) {
+            long toWait=end-System.currentTimeMillis();
+            if (toWait <= 0) throw new OperationTimedoutException("The task hasn't completed in "+timeout+"ms");
+            wait(toWait);
+        }
+        return getResult();
+    }
+
+    private Object getResult() throws TaskFailedException {
+        switch(state) {
+            case FAILED:
+                throw new TaskFailedException("The task has failed", failure);
+            case CANCELLED:
+                throw new TaskCancelledException("The task has been cancelled");
+            default:
+                return result;
+        }
+    }
+
+    /**
+     * Return the priority of the task, if it implements {@link Prioritized Prioritized},
+     * or 0.
+     * @return the priority of the task
+     */
+    public int getPriority() {
+        Object obj = task != null ? (Object)task : (Object)runnable;
+        if (obj instanceof Prioritized) return ((Prioritized)obj).getPriority();
+        return 0;
+    }
+
+    public String toString() {
+        return "future for "+(task != null ? (Object)task : (Object)runnable);
+    }
+}
@@ -1,5 +1,8 @@
 package org.sadun.util.tp;
 
+import java.util.ArrayList;
+import java.util.List;
+
 
 /**
  * A thread pooling class. Ensures that no more than <i>n</i> thread are alive
@@ -11,99 +14,213 @@ package org.sadun.util.tp;
  * Note that a thread pool is <i>not</i> a thread in itself, i.e. is executed
  * in the thread of the caller.
  * <p>
+ * All the start requests go through the pool's {@link Queue Queue}. Pooled
+ * threads take the next runnable from the queue as soon as they are free, and
+ * wait on the pool when the queue is empty; a start request wakes up exactly
+ * one waiting thread, if any. Therefore, starting a runnable does not require
+ * scanning the pool.
+ * <p>
+ * A pool can scale automatically between a <i>core</i> and a <i>maximum</i> size.
+ * When a start request finds no free thread and the pool is below its maximum size,
+ * a new thread is added. When a thread beyond the core size has been waiting
+ * for {@link #getKeepAliveTime() keep alive time} milliseconds without any
+ * runnable to execute, it retires. Pools created with a single size do not
+ * scale. The pool can also be explicitly {@link #resize(int, boolean) resized}.
+ * <p>
+ * Optionally, the pooled threads can be virtual threads (see {@link VirtualThreads
+ * VirtualThreads}), which makes it viable to have pools of many thousands of threads
+ * running blocking code. Virtual threads are never kept idle: one is created when a 
+ * runnable is started and no more than the maximum size are running, runs runnables
+ * as long as the queue is not empty, and then terminates - so that it never waits
+ * on a monitor, which would pin its carrier thread. If the virtual machine does 
+ * not support virtual threads, the pool uses ordinary threads.
+ * <p>
+ * By default the queue is unbounded. If a {@link #setQueueCapacity(int) queue capacity}
+ * is set, a start request which would exceed it is handled according to the
+ * {@link #setSaturationPolicy(int) saturation policy}: the caller can be blocked until
+ * there's room in the queue, the request can be rejected, or the runnable can be
+ * executed directly by the caller.
+ * <p>
+ * Runnables or {@link Task Tasks} can also be {@link #submit(Task) submitted}, obtaining a
+ * {@link TaskFuture TaskFuture} which allows to wait for their result or cancel them.
+ * Using a {@link PriorityQueue PriorityQueue}, submitted tasks which are
+ * {@link Prioritized Prioritized} run in priority order.
+ * <p>
+ * The pool collects execution statistics at a negligible cost, which can be
+ * exposed via JMX by a {@link ManagedThreadPool ManagedThreadPool}.
+ * <p>
  * Use the {@link ThreadPoolThread ThreadPoolThread} for a pool which runs in a
  * thread on its own and on emtpy queue just sleeps.
  *
  * @author Cris Sadun
- * @version 1.1
+ * @version 1.4
  */
 public class ThreadPool {
 
-    private boolean shutdown=false;
+    /**
+     * The default time (in ms.) a thread beyond the core size
+     * waits for a runnable before retiring.
+     */
+    public static final long DEFAULT_KEEP_ALIVE_TIME = 60000L;
+
+    /**
+     * Saturation policy: when the queue is full, the caller waits for room in the queue.
+     */
+    public static final int BLOCK = 0;
+
+    /**
+     * Saturation policy: when the queue is full, a {@link RejectedTaskException
+     * RejectedTaskException} is raised.
+     */
+    public static final int REJECT = 1;
+
+    /**
+     * Saturation policy: when the queue is full, the runnable is executed directly
+     * in the caller's thread.
+     */
+    public static final int CALLER_RUNS = 2;
+
+    private volatile boolean shutdown=false;
     private Queue queue;
-    private PooledThread [] pool;
+    private List pool = new ArrayList();
+    private ThreadGroup tg;
+    private boolean daemon;
+    private boolean virtual;
+    private int nextId;
+    private int coreSize;
+    private int maxSize;
+    private long keepAliveTime = DEFAULT_KEEP_ALIVE_TIME;
+    private int queueCapacity = 0;
+    private int saturationPolicy = BLOCK;
     public boolean verbose=( System.getProperty("org.sadun.verbose") != null);
 
     /**
-     * A thread class that waits() undefinitely unless explicitly
-     * notified. When notified, it attempts to run the associated
-     * runnable. If no runnable exists, or when the runnable exits or
-     * fails, it goes back to waiting.
+     * The lock guarding the queue and the list of pooled threads.
+     * Free pooled threads wait on this lock.
      */
-    public class PooledThread extends Thread {
+    private Object lock = new Object();
+
+    /**
+     * The number of pooled threads waiting on the lock.
+     */
+    private int idleCount;
+
+    /**
+     * The number of pooled threads not running a runnable, including the ones
+     * just created or just done which are not waiting on the lock yet.
+     */
+    private int freeCount;
+
+    /**
+     * The number of callers waiting on the lock for room in the queue.
+     */
+    private int blockedCount;
+
+    /**
+     * The number of pooled threads currently running a runnable.
+     */
+    private volatile int busyCount;
+
+    /**
+     * The execution statistics, guarded by the lock.
+     */
+    private Statistics stats = new Statistics(System.currentTimeMillis());
 
-        private Runnable runnable;
-        private boolean waiting=true;
+    /*
+     * The pooled thread logic, which waits undefinitely for runnables to be available
+     * in the pool's queue. When a runnable is available, it runs it;
+     * when the runnable exits or fails, it goes back to the queue.
+     * <p>
+     * A worker runs either in a PooledThread or in a virtual thread.
+     */
+    private class Worker implements Runnable {
+
+        private volatile Runnable runnable;
+        private volatile boolean waiting=true;
+        private volatile boolean retired=false;
+        // Guarded by the lock
+        private boolean busy=false;
+        private Thread thread;
         int i;
 
-        /**
-         * Create a PooledThread on the given group, with the given
-         * identifier and the given daemon property
-         */
-        PooledThread(ThreadGroup tg, int i, boolean daemon) {
-            super(tg, "pooled-thread-"+i);
-            //super(tg, "pooled-thread-"+i+" (free)");
-            this.i=i;
-            setDaemon(daemon);
-        }
+        // Execution data of the last runnable, recorded by getNextThread()
+        private boolean ran;
+        private boolean failed;
+        private long runTime;
+
+        // Utilization data
+        private long creationTime=System.currentTimeMillis();
+        private volatile long busyTime;
+        private volatile long runStart;
 
-        private synchronized void setRunnable(Runnable r) {
-            if (! isFree())
-                throw new IllegalStateException("Thread "+getName()+" in the pool is not free");
-            if (verbose) System.out.println("{"+Thread.currentThread()+"} "+"Thread "+this+" is free, associating "+r);
-            //setName("pooled-thread-"+i+" hosting "+r);
-            runnable=r;
-            waiting=false;
-            notify();
+        Worker(int i) {
+            this.i=i;
         }
 
         /**
-         * Runs the available runnable object, or waits.
+         * Runs the available runnable objects, or waits.
          */
-        public final synchronized void run() {
-            do {
-                if (runnable != null) {
-                    waiting=false;
-                    try {
-                        runnable.run();
-                    } catch(Exception exc) {
-                        // An exception must just set the pooled thread to free
-						runnable=null;
-						exc.printStackTrace();
-                        //setName("pooled-thread-"+i+" (free)");
-                    }
-                }
-
-                // Notify the pool the thread is free and ask for a new runnable,
-                // if any
-                runnable = getNextThread();
-                if (runnable != null) {
-                    if (verbose) System.out.println("{"+Thread.currentThread()+"} "+"Dequeueed "+runnable+" ("+queue.size()+" in queue)");
+        public void run() {
+            while(true) {
+                Runnable r = getNextThread(this);
+                if (r == null) {
+                    if (shutdown || retired) break;
                     continue;
                 }
-
-                waiting=true;
+                runnable=r;
+                waiting=false;
+                failed=false;
+                long start=System.currentTimeMillis();
+                runStart=start;
                 try {
-                    if (verbose) System.out.println("{"+Thread.currentThread()+"} "+this+" going to wait.");
-                    wait(0);
-                    if (verbose) System.out.println("{"+Thread.currentThread()+"} "+this+" notified.");
-                } catch(InterruptedException e) {
-                    if (verbose) System.out.println("{"+Thread.currentThread()+"} "+this+" INTERRUPTED!");
+                    r.run();
+                } catch(Exception exc) {
+                    // An exception must just set the pooled thread to free
+                    failed=true;
+                    exc.printStackTrace();
+                } finally {
+                    runTime=System.currentTimeMillis()-start;
+                    busyTime+=runTime;
+                    runStart=0;
+                    ran=true;
+                    runnable=null;
+                    waiting=true;
                 }
-                waiting=false;
-            } while(!shutdown);
+                if (r instanceof TaskFuture && ((TaskFuture)r).isFailed()) failed=true;
+            }
+            if (verbose) System.out.println("{"+Thread.currentThread()+"} retired.");
+        }
+    }
+
+    /**
+     * A thread class that waits undefinitely for runnables to be available
+     * in the pool's queue. When a runnable is available, it runs it;
+     * when the runnable exits or fails, it goes back to the queue.
+     */
+    public class PooledThread extends Thread {
+
+        private Worker worker;
+
+        /**
+         * Create a PooledThread on the given group, running the given
+         * worker and with the given daemon property
+         */
+        PooledThread(ThreadGroup tg, Worker worker, boolean daemon) {
+            super(tg, worker, "pooled-thread-"+worker.i);
+            this.worker=worker;
+            setDaemon(daemon);
         }
 
         /**
          * Return true if the thread is not associated to any runnable
          */
-        protected boolean isFree() { return waiting; }
+        protected boolean isFree() { return worker.waiting; }
 
         /**
          * Return the associated Runnable, or <b>null</b>
          * @return the associated Runnable, or <b>null</b>
          */
-        protected Runnable getRunnable() { return runnable; }
+        protected Runnable getRunnable() { return worker.runnable; }
 
         public String toString() { return getName(); }
 
@@ -116,11 +233,142 @@ public class ThreadPool {
     }
 
     /**
-     * Return the next thread to run, as scheduled by the queue
+     * Return the next thread to run, as scheduled by the queue, waiting
+     * for one to be available. Returns <b>null</b> if the waiting thread
+     * is interrupted, has been retired or the pool is terminated.
+     * <p>
+     * A thread beyond the core size which doesn't find any runnable to
+     * run within the keep alive time retires itself.
+     */
+    private Runnable getNextThread(Worker current) {
+        synchronized(lock) {
+            if (current.ran) {
+                current.ran=false;
+                current.busy=false;
+                if (!current.retired) freeCount++;
+                busyCount--;
+                stats.completed++;
+                if (current.failed) stats.failed++;
+                stats.runTime.record(current.runTime);
+            }
+            while(true) {
+                if (shutdown) return null;
+                // The pool may have been shrunk while this thread was busy
+                if (!current.retired && pool.size() > maxSize) retire(current);
+                if (current.retired) {
+                    // Pass on any notification this thread may have consumed
+                    if (!queue.isEmpty()) lock.notify();
+                    return null;
+                }
+                if (!queue.isEmpty()) break;
+                if (virtual) {
+                    // Virtual threads are not kept idle
+                    retire(current);
+                    return null;
+                }
+
+                boolean mayRetire = pool.size() > coreSize;
+                long waitStart = System.currentTimeMillis();
+                idleCount++;
+                try {
+                    lock.wait(mayRetire ? keepAliveTime : 0);
+                } catch(InterruptedException e) {
+                    if (verbose) System.out.println("{"+Thread.currentThread()+"} INTERRUPTED!");
+                    return null;
+                } finally {
+                    idleCount--;
+                }
+                if (mayRetire
+                    && queue.isEmpty()
+                    && pool.size() > coreSize
+                    && System.currentTimeMillis() - waitStart >= keepAliveTime) {
+                    retire(current);
+                    return null;
+                }
+            }
+            long now=System.currentTimeMillis();
+            stats.queueChanging(queue.size(), now);
+            Runnable r = queue.get();
+            stats.dequeued++;
+            if (r instanceof TaskFuture) stats.queueWaitTime.record(now - ((TaskFuture)r).enqueueTime);
+            busyCount++;
+            current.busy=true;
+            freeCount--;
+            // Waiting callers share the lock with idle threads, so notify() can't be used
+            if (blockedCount > 0) lock.notifyAll();
+            return r;
+        }
+    }
+
+    /**
+     * Create a pool which scales between the given core and maximum size,
+     * using the given queue object.
+     * @param coreSize the number of threads which are kept in the pool even if idle
+     * @param maxSize the maximum number of threads in the pool
+     * @param keepAliveTime the time (in ms.) a thread beyond the core size waits
+     *         for a runnable before retiring
+     * @param daemon if <b>true</b> the pools will be daemon
+     * @param queue the queue to use for determining the next thread to
+     *        instantiate when there are pending start requests.
+     */
+    public ThreadPool(int coreSize, int maxSize, long keepAliveTime, boolean daemon, Queue queue) {
+        this(coreSize, maxSize, keepAliveTime, daemon, queue, false);
+    }
+
+    /**
+     * Create a pool which scales between the given core and maximum size,
+     * using the given queue object and optionally running the runnables in
+     * virtual threads.
+     * @param coreSize the number of threads which are kept in the pool even if idle
+     *        (virtual threads are never kept idle)
+     * @param maxSize the maximum number of threads in the pool
+     * @param keepAliveTime the time (in ms.) a thread beyond the core size waits
+     *         for a runnable before retiring
+     * @param daemon if <b>true</b> the pools will be daemon (virtual threads are always daemon)
+     * @param queue the queue to use for determining the next thread to
+     *        instantiate when there are pending start requests.
+     * @param virtual if <b>true</b>, and the virtual machine {@link VirtualThreads#isSupported()
+     *        supports} it, the pooled threads are virtual threads
+     */
+    public ThreadPool(int coreSize, int maxSize, long keepAliveTime, boolean daemon, Queue queue, boolean virtual) {
+        if (maxSize <= 0 || coreSize < 0 || coreSize > maxSize)
+            throw new IllegalArgumentException("Invalid pool sizes: core "+coreSize+", max "+maxSize);
+        if (verbose) System.out.println("Creating thread pool of size "+coreSize+" (max "+maxSize+")");
+        this.queue=queue;
+        this.coreSize=coreSize;
+        this.maxSize=maxSize;
+        this.keepAliveTime=keepAliveTime;
+        this.daemon=daemon;
+        this.virtual=virtual && VirtualThreads.isSupported();
+        if (!this.virtual) {
+            this.tg = new ThreadGroup("thread-pool");
+            synchronized(lock) {
+                for(int i=0;i<coreSize;i++) addThread();
+            }
+        }
+    }
+
+    /**
+     * Create a pool which scales between the given core and maximum size,
+     * with a FIFO queue and the {@link #DEFAULT_KEEP_ALIVE_TIME default keep alive time}.
+     * @param coreSize the number of threads which are kept in the pool even if idle
+     * @param maxSize the maximum number of threads in the pool
+     * @param daemon if <b>true</b> the pools will be daemon
+     */
+    public ThreadPool(int coreSize, int maxSize, boolean daemon) {
+        this(coreSize, maxSize, DEFAULT_KEEP_ALIVE_TIME, daemon, new FIFOQueue());
+    }
+
+    /**
+     * Create a pool with the given size with a FIFO queue, optionally running 
+     * the runnables in virtual threads.
+     * @param size the size of the pool
+     * @param daemon if <b>true</b> the pools will be daemon (virtual threads are always daemon)
+     * @param virtual if <b>true</b>, and the virtual machine {@link VirtualThreads#isSupported()
+     *        supports} it, the pooled threads are virtual threads
      */
-    private Runnable getNextThread() {
-        if (queue.isEmpty()) return null;
-        return (Runnable)queue.get();
+    public ThreadPool(int size, boolean daemon, boolean virtual) {
+        this(size, size, DEFAULT_KEEP_ALIVE_TIME, daemon, new FIFOQueue(), virtual);
     }
 
     /**
@@ -132,17 +380,9 @@ public class ThreadPool {
      *
      */
     public ThreadPool(int size, boolean daemon, Queue queue) {
-        if (verbose) System.out.println("Creating thread pool of size "+size);
-        this.queue=queue;
-        this.pool=new PooledThread[size];
-        ThreadGroup tg = new ThreadGroup("thread-pool");
-        for(int i=0;i<size;i++) {
-            pool[i]= new PooledThread(tg, i, daemon);
-            pool[i].start();
-        }
-
+        this(size, size, DEFAULT_KEEP_ALIVE_TIME, daemon, queue);
     }
-    
+
     /**
      * Create a pool with the given size with a FIFO queue
      * @param size the size of the pool
@@ -159,38 +399,225 @@ public class ThreadPool {
     public ThreadPool(int size) {
         this(size, true);
     }
-    
+
+    /*
+     * Must be invoked holding the lock
+     */
+    private Worker addThread() {
+        Worker w = new Worker(nextId++);
+        if (virtual) w.thread=VirtualThreads.newThread(w, "pooled-virtual-thread-"+w.i);
+        else w.thread=new PooledThread(tg, w, daemon);
+        pool.add(w);
+        freeCount++;
+        w.thread.start();
+        return w;
+    }
+
+    /*
+     * Must be invoked holding the lock
+     */
+    private void retire(Worker t) {
+        t.retired=true;
+        pool.remove(t);
+        if (!t.busy) freeCount--;
+    }
+
     /**
-     * Resize the pool. 
+     * Resize the pool, setting both the core and the maximum size to the given
+     * value.
      * <p>
      * The new size must be greater than 0.
      * If the new size is greater than the previous size, an attempt is made to add
      * threads to the pool.
      * <p>
      * If the old size is lower than the previous size, free threads are removed first.
-     * If the new size requires that some busy thread is removed, the thread is interrupted as 
-     * specified and removed from the pool, but it will continue running  until its natural 
+     * If the new size requires that some busy thread is removed, the thread is interrupted as
+     * specified and removed from the pool, but it will continue running  until its natural
      * termination until the executing code doesn't explicitly handle the interruption.
-     *   
+     *
      * @param newSize
      * @param interrupt determines wether or not to invoke interrupt() on busy thread if necessary.
      */
     public void resize(int newSize, boolean interrupt) {
-        throw new UnsupportedOperationException("Not implemented yet");
+        if (newSize <= 0)
+            throw new IllegalArgumentException("The new size must be greater than 0");
+        synchronized(lock) {
+            coreSize=newSize;
+            maxSize=newSize;
+            if (pool.size() < newSize) {
+                if (!virtual) while(pool.size() < newSize) addThread();
+                return;
+            }
+            // Retire free threads first
+            for(int i=pool.size()-1;i>=0 && pool.size() > newSize;i--) {
+                Worker t = (Worker)pool.get(i);
+                if (t.waiting) retire(t);
+            }
+            // Then busy ones
+            while(pool.size() > newSize) {
+                Worker t = (Worker)pool.get(pool.size()-1);
+                retire(t);
+                if (interrupt) t.thread.interrupt();
+            }
+            lock.notifyAll();
+        }
     }
 
-
     /**
      * Return the size of the pool
      * @return the size of the pool
      */
-    public int size() { return pool.length; }
+    public int size() {
+        synchronized(lock) {
+            return pool.size();
+        }
+    }
+
+    /**
+     * Return the number of threads kept in the pool even if idle.
+     * @return the core size of the pool
+     */
+    public int getCoreSize() {
+        synchronized(lock) {
+            return coreSize;
+        }
+    }
+
+    /**
+     * Set the number of threads kept in the pool even if idle. If the
+     * pool is currently smaller, threads are added.
+     * @param coreSize the core size of the pool, not greater than the maximum size
+     */
+    public void setCoreSize(int coreSize) {
+        synchronized(lock) {
+            if (coreSize < 0 || coreSize > maxSize)
+                throw new IllegalArgumentException("Invalid core size "+coreSize+" (max size is "+maxSize+")");
+            this.coreSize=coreSize;
+            if (!virtual) while(pool.size() < coreSize) addThread();
+            // Let idle threads beyond the core size start their keep alive time
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Return the maximum number of threads in the pool.
+     * @return the maximum size of the pool
+     */
+    public int getMaxSize() {
+        synchronized(lock) {
+            return maxSize;
+        }
+    }
+
+    /**
+     * Set the maximum number of threads in the pool. If the pool is currently
+     * larger, the threads in excess retire as they become free.
+     * @param maxSize the maximum size of the pool, not smaller than the core size
+     */
+    public void setMaxSize(int maxSize) {
+        synchronized(lock) {
+            if (maxSize <= 0 || maxSize < coreSize)
+                throw new IllegalArgumentException("Invalid max size "+maxSize+" (core size is "+coreSize+")");
+            this.maxSize=maxSize;
+            for(int i=pool.size()-1;i>=0 && pool.size() > maxSize;i--) {
+                Worker t = (Worker)pool.get(i);
+                if (t.waiting) retire(t);
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Return <b>true</b> if the pooled threads are virtual threads.
+     * @return <b>true</b> if the pooled threads are virtual threads
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Return the time (in ms.) a thread beyond the core size waits for
+     * a runnable before retiring.
+     * @return the keep alive time
+     */
+    public long getKeepAliveTime() {
+        return keepAliveTime;
+    }
+
+    /**
+     * Set the time (in ms.) a thread beyond the core size waits for
+     * a runnable before retiring.
+     * @param keepAliveTime the keep alive time
+     */
+    public void setKeepAliveTime(long keepAliveTime) {
+        if (keepAliveTime <= 0)
+            throw new IllegalArgumentException("The keep alive time must be greater than 0");
+        this.keepAliveTime = keepAliveTime;
+    }
 
     /**
      * Return the number of thread currently queued
      * @return the number of thread currently queued
      */
-    public int getQueueSize() { return queue.size(); }
+    public int getQueueSize() {
+        synchronized(lock) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * Return the maximum number of runnables waiting in the queue, or 0 if the
+     * queue is unbounded.
+     * @return the capacity of the queue, or 0
+     */
+    public int getQueueCapacity() {
+        synchronized(lock) {
+            return queueCapacity;
+        }
+    }
+
+    /**
+     * Set the maximum number of runnables waiting in the queue. When the queue is
+     * full, start requests are handled according to the {@link #setSaturationPolicy(int)
+     * saturation policy}.
+     * <p>
+     * Note that cancelled {@link TaskFuture TaskFutures} occupy the queue until a
+     * thread dequeues them.
+     * @param queueCapacity the capacity of the queue, or 0 for an unbounded queue (the default)
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 0)
+            throw new IllegalArgumentException("The queue capacity cannot be negative");
+        synchronized(lock) {
+            this.queueCapacity=queueCapacity;
+            if (blockedCount > 0) lock.notifyAll();
+        }
+    }
+
+    /**
+     * Return the policy applied to start requests when the queue is full.
+     * @return one of {@link #BLOCK BLOCK}, {@link #REJECT REJECT} or {@link #CALLER_RUNS CALLER_RUNS}
+     */
+    public int getSaturationPolicy() {
+        synchronized(lock) {
+            return saturationPolicy;
+        }
+    }
+
+    /**
+     * Set the policy applied to start requests when the queue has a
+     * {@link #setQueueCapacity(int) capacity} and is full.
+     * @param saturationPolicy one of {@link #BLOCK BLOCK} (the default),
+     *        {@link #REJECT REJECT} or {@link #CALLER_RUNS CALLER_RUNS}
+     */
+    public void setSaturationPolicy(int saturationPolicy) {
+        if (saturationPolicy != BLOCK && saturationPolicy != REJECT && saturationPolicy != CALLER_RUNS)
+            throw new IllegalArgumentException("Invalid saturation policy "+saturationPolicy);
+        synchronized(lock) {
+            this.saturationPolicy=saturationPolicy;
+            if (blockedCount > 0) lock.notifyAll();
+        }
+    }
 
     /**
      * Add a runnable object to the pool.
@@ -204,53 +631,190 @@ public class ThreadPool {
     public boolean start(Runnable runnable) {
     	return start(runnable, false);
     }
-    
+
     /**
      * Add a runnable object to the pool.
      * <p>
      * If there's a thread available, the runnable is associated to the thread
-     * and started. Else, it is queued (unless failIfNoFree is <code>true</code>), and will run as soon as one thread becomes
-     * available.
+     * and started. If there isn't and the pool is below its maximum size, a
+     * thread is added to the pool. Else, it is queued (unless failIfNoFree is <code>true</code>),
+     * and will run as soon as one thread becomes available.
+     * <p>
+     * If the queue is bounded and full, the {@link #setSaturationPolicy(int) saturation policy}
+     * applies.
      * @param runnable the Runnable object to execute
      * @param failIfNoFree if <code>true</code>, returns false without queuing the request
      * @return <b>true</b> if the runnable is started, </b>false</b> if it's not started.
+     * @exception RejectedTaskException if the queue is full and the saturation policy is
+     *            {@link #REJECT REJECT}, or the caller is interrupted or the pool terminated
+     *            while waiting for room in the queue
      */
     public boolean start(Runnable runnable, boolean failIfNoFree) {
-        for(int i=0;i<size();i++) {
-            if (pool[i].isFree()) {
-				pool[i].setRunnable(runnable);
-                return true;
+        synchronized(lock) {
+            while(true) {
+                // A free thread is available if it's not already going to take a queued runnable
+                boolean free = !shutdown && freeCount > queue.size();
+                boolean grow = !free && pool.size() < maxSize && !shutdown;
+                if (!free && !grow) {
+                    if (failIfNoFree) return false;
+                    if (queueCapacity > 0 && queue.size() >= queueCapacity) {
+                        if (saturationPolicy == REJECT) {
+                            stats.rejected++;
+                            throw new RejectedTaskException("The queue is full ("+queue.size()+" runnables)");
+                        }
+                        if (saturationPolicy == CALLER_RUNS) {
+                            stats.callerRuns++;
+                            break;
+                        }
+                        waitForRoom();
+                        continue;
+                    }
+                }
+                long now=System.currentTimeMillis();
+                stats.queueChanging(queue.size(), now);
+                if (runnable instanceof TaskFuture) ((TaskFuture)runnable).enqueueTime=now;
+                queue.put(runnable);
+                if (grow) addThread();
+                else if (idleCount > 0) {
+                    if (blockedCount > 0) lock.notifyAll();
+                    else lock.notify();
+                }
+                return free || grow;
             }
         }
-        // Queue the thread
-        if (!failIfNoFree) {
-	        if (verbose) System.out.println("{"+Thread.currentThread()+"} "+"Queueing "+runnable);
-	        queue.put(runnable);
+        runnable.run();
+        return true;
+    }
+
+    /*
+     * Must be invoked holding the lock
+     */
+    private void waitForRoom() {
+        if (shutdown) {
+            stats.rejected++;
+            throw new RejectedTaskException("The pool has been terminated");
         }
-        return false;
+        blockedCount++;
+        try {
+            lock.wait();
+        } catch(InterruptedException e) {
+            stats.rejected++;
+            Thread.currentThread().interrupt();
+            throw new RejectedTaskException("Interrupted while waiting for room in the queue", e);
+        } finally {
+            blockedCount--;
+        }
+        if (shutdown) {
+            stats.rejected++;
+            throw new RejectedTaskException("The pool has been terminated");
+        }
+    }
+
+    /**
+     * Submit a task for execution, returning a {@link TaskFuture TaskFuture}
+     * which allows to wait for its result or to cancel it.
+     * <p>
+     * The task is started as by {@link #start(Runnable) start()}, so the
+     * {@link #setSaturationPolicy(int) saturation policy} applies if the queue is full.
+     * @param task the task to execute
+     * @return the future result of the task
+     * @exception RejectedTaskException if the pool is terminated, or the task
+     *            is rejected by the saturation policy
+     */
+    public TaskFuture submit(Task task) {
+        TaskFuture future = new TaskFuture(task);
+        submit(future);
+        return future;
+    }
+
+    /**
+     * Submit a runnable for execution, returning a {@link TaskFuture TaskFuture}
+     * which allows to wait for its completion or to cancel it. The result of the
+     * future is <b>null</b>.
+     * <p>
+     * The runnable is started as by {@link #start(Runnable) start()}, so the
+     * {@link #setSaturationPolicy(int) saturation policy} applies if the queue is full.
+     * @param runnable the runnable to execute
+     * @return the future completion of the runnable
+     * @exception RejectedTaskException if the pool is terminated, or the runnable
+     *            is rejected by the saturation policy
+     */
+    public TaskFuture submit(Runnable runnable) {
+        TaskFuture future = new TaskFuture(runnable, null);
+        submit(future);
+        return future;
+    }
+
+    private void submit(TaskFuture future) {
+        if (shutdown) {
+            synchronized(lock) {
+                stats.rejected++;
+            }
+            throw new RejectedTaskException("The pool has been terminated");
+        }
+        start(future, false);
     }
 
     /**
      * Return <b>true</b> if the Runnable is associated with any pooled thread.
      * @return <b>true</b> if the Runnable is associated with any pooled thread.
      */
-    public synchronized boolean isAlive(Runnable r) {
-        for(int i=0;i<pool.length;i++) {
-            if (r == pool[i].getRunnable()) return true;
+    public boolean isAlive(Runnable r) {
+        Worker [] workers = getWorkers();
+        for(int i=0;i<workers.length;i++) {
+            if (r == workers[i].runnable) return true;
         }
         return false;
     }
-    
+
     /**
-     * Return an estimation of the number of threads in the pool currently associated to 
+     * Return an estimation of the number of threads in the pool currently associated to
      * a runnable.
-     * @return an estimation of the number of threads in the pool currently associated to 
+     * <p>
+     * This method takes constant time and does not synchronize.
+     * @return an estimation of the number of threads in the pool currently associated to
      * a runnable.
      */
-    public synchronized int getBusyCount() {
-    	int c=0;
-    	for(int i=0;i<size();i++) if (! pool[i].isFree()) c++;
-    	return c;
+    public int getBusyCount() {
+        return busyCount;
+    }
+
+    /**
+     * Return a snapshot of the execution statistics.
+     */
+    Statistics getStatistics() {
+        synchronized(lock) {
+            long now=System.currentTimeMillis();
+            stats.queueChanging(queue.size(), now);
+            return stats.copy();
+        }
+    }
+
+    /**
+     * Reset the execution statistics.
+     */
+    void resetStatistics() {
+        synchronized(lock) {
+            stats=new Statistics(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Return, for each thread in the pool, the fraction of its lifetime spent
+     * running runnables.
+     */
+    double [] getUtilization() {
+        Worker [] workers = getWorkers();
+        double [] result = new double[workers.length];
+        long now=System.currentTimeMillis();
+        for(int i=0;i<workers.length;i++) {
+            long busy = workers[i].busyTime;
+            long runStart = workers[i].runStart;
+            if (runStart != 0) busy+=now-runStart;
+            long life = now - workers[i].creationTime;
+            result[i] = life <= 0 ? 0 : Math.min(1.0, (double)busy / life);
+        }
+        return result;
     }
 
     /**
@@ -260,9 +824,21 @@ public class ThreadPool {
      */
     public void terminate() {
         shutdown=true;
-        for(int i=0;i<pool.length;i++) {
-            if (verbose) System.out.println("{"+Thread.currentThread()+"} "+"Interrupting "+pool[i].getName());
-            pool[i].interrupt();
+        synchronized(lock) {
+            lock.notifyAll();
+        }
+        Worker [] workers = getWorkers();
+        for(int i=0;i<workers.length;i++) {
+            if (verbose) System.out.println("{"+Thread.currentThread()+"} "+"Interrupting "+workers[i].thread.getName());
+            workers[i].thread.interrupt();
+        }
+    }
+
+    private Worker [] getWorkers() {
+        synchronized(lock) {
+            Worker [] workers = new Worker[pool.size()];
+            pool.toArray(workers);
+            return workers;
         }
     }
-}  
\ No newline at end of file
+}
@@ -0,0 +1,94 @@
+package org.sadun.util.tp;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Access to the virtual threads of the Java platform, when available.
+ * <p>
+ * Virtual threads are cheap threads scheduled by the virtual machine over
+ * a small set of carrier threads; blocking one of them costs almost no memory, so
+ * that tens of thousands of them can coexist.
+ * <p>
+ * Since this library is compiled for older virtual machines, virtual threads are
+ * accessed by reflection. On a virtual machine which does not support them,
+ * {@link #isSupported() isSupported()} returns <b>false</b> and the callers are
+ * expected to fall back to ordinary threads.
+ *
+ * @author Cristiano Sadun
+ * @version 1.0
+ */
+public final class VirtualThreads {
+
+    private static Method ofVirtualMethod;
+    private static Method nameMethod;
+    private static Method unstartedMethod;
+    private static boolean supported;
+
+    static {
+        try {
+            ofVirtualMethod = Thread.class.getMethod("ofVirtual", new Class[0]);
+            Class builderCls = Class.forName("java.lang.Thread$Builder");
+            nameMethod = builderCls.getMethod("name", new Class[] { String.class });
+            unstartedMethod = builderCls.getMethod("unstarted", new Class[] { Runnable.class });
+            // Virtual threads may exist but be disabled (preview feature)
+            ofVirtualMethod.invoke(null, new Object[0]);
+            supported = true;
+        } catch (Exception e) {
+            supported = false;
+        } catch (LinkageError e) {
+            supported = false;
+        }
+    }
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Return <b>true</b> if the running virtual machine supports virtual threads.
+     * @return <b>true</b> if the running virtual machine supports virtual threads
+     */
+    public static boolean isSupported() {
+        return supported;
+    }
+
+    /**
+     * Create a new, unstarted virtual thread with the given name and target.
+     * @param target the runnable to be run by the thread
+     * @param name the name of the thread
+     * @return a new, unstarted virtual thread
+     * @exception UnsupportedOperationException if the virtual machine does
+     *            not {@link #isSupported() support} virtual threads
+     */
+    public static Thread newThread(Runnable target, String name) {
+        if (!supported)
+            throw new UnsupportedOperationException("Virtual threads are not supported by this virtual machine");
+        try {
+            Object builder = ofVirtualMethod.invoke(null, new Object[0]);
+            builder = nameMethod.invoke(builder, new Object[] { name });
+            return (Thread)unstartedMethod.invoke(builder, new Object[] { target });
+        } catch (IllegalAccessException e) {
+            throw new UnsupportedOperationException("Cannot access virtual thread builder: "+e.getMessage());
+        } catch (InvocationTargetException e) {
+            throw new UnsupportedOperationException("Cannot create virtual thread: "+e.getTargetException());
+        }
+    }
+
+    /**
+     * Create a new, unstarted thread with the given name and target, which is
+     * virtual if requested and supported, or an ordinary thread with the given
+     * daemon property otherwise.
+     * @param target the runnable to be run by the thread
+     * @param name the name of the thread
+     * @param virtual if <b>true</b>, a virtual thread is created if possible
+     * @param daemon the daemon property of an ordinary thread (virtual threads
+     *        are always daemon)
+     * @return a new, unstarted thread
+     */
+    public static Thread newThread(Runnable target, String name, boolean virtual, boolean daemon) {
+        if (virtual && supported) return newThread(target, name);
+        Thread t = new Thread(target, name);
+        t.setDaemon(daemon);
+        return t;
+    }
+}
@@ -0,0 +1,101 @@
+package org.sadun.util.tp.test;
+
+import junit.framework.TestCase;
+
+import org.sadun.util.tp.ThreadPool;
+
+/**
+ * Tests {@link ThreadPool}.
+ *
+ * @author Cristiano Sadun
+ * @version 1.0
+ */
+public class ThreadPoolTest extends TestCase {
+
+    public static void main(String[] args) {
+        junit.swingui.TestRunner.run(ThreadPoolTest.class);
+    }
+
+    /*
+     * A runnable which blocks until released
+     */
+    private static class Blocker implements Runnable {
+        private boolean released;
+        private int started;
+
+        public synchronized void run() {
+            started++;
+            notifyAll();
+            while(!released)
+                try {
+                    wait();
+                } catch(InterruptedException e) {
+                    return;
+                }
+        }
+
+        synchronized void waitStarted(int n) throws InterruptedException {
+            while(started < n) wait();
+        }
+
+        synchronized void release() {
+            released=true;
+            notifyAll();
+        }
+    }
+
+    public void testStartOnNewPool() throws InterruptedException {
+        for(int i=0;i<50;i++) {
+            ThreadPool pool = new ThreadPool(4);
+            Blocker b = new Blocker();
+            try {
+                // The threads are free even if they have not reached their wait yet
+                for(int j=0;j<4;j++)
+                    assertTrue("Thread "+j+" of a new pool not free", pool.start(b, true));
+                assertFalse("No thread should be free", pool.start(b, true));
+                b.waitStarted(4);
+            } finally {
+                b.release();
+                pool.terminate();
+            }
+        }
+    }
+
+    public void testShrinkBusyPool() throws InterruptedException {
+        ThreadPool pool = new ThreadPool(1, 4, true);
+        try {
+            Runnable r = new Runnable() {
+                public void run() {
+                    try {
+                        Thread.sleep(5);
+                    } catch(InterruptedException e) {
+                    }
+                }
+            };
+            Blocker b = new Blocker();
+            for(int i=0;i<4;i++) pool.start(b);
+            b.waitStarted(4);
+            assertEquals(4, pool.size());
+            // No thread is free, so none retires right away
+            pool.setMaxSize(2);
+            assertEquals(4, pool.size());
+            for(int i=0;i<4;i++) pool.start(r);
+            b.release();
+            // Keep the pool busy: the threads in excess must retire anyway
+            long end = System.currentTimeMillis()+5000;
+            while(pool.size() > 2 && System.currentTimeMillis() < end) {
+                for(int i=0;i<4;i++) pool.start(r);
+                Thread.sleep(10);
+            }
+            assertEquals(2, pool.size());
+        } finally {
+            pool.terminate();
+        }
+    }
+
+    public void testStartAfterTerminate() {
+        ThreadPool pool = new ThreadPool(2);
+        pool.terminate();
+        assertFalse(pool.start(new Blocker(), true));
+    }
+}
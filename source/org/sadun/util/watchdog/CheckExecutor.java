@@ -0,0 +1,380 @@
+package org.sadun.util.watchdog;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.sadun.util.tp.Task;
+import org.sadun.util.tp.ThreadPool;
+
+/**
+ * An engine which runs the checks of {@link WatchDog WatchDog}s on a pool of threads,
+ * with a timeout: a watchdog with a {@link WatchDog#setCheckTimeout(long) check timeout}
+ * waits for its check at most that time, and then reports it as
+ * {@link WatchDog.Listener#checkImpossible(Object, WatchDogException) impossible} with a
+ * {@link CheckTimedoutException CheckTimedoutException}. The thread running the check
+ * is interrupted when the last watchdog waiting for it times out.
+ * <p>
+ * Watchdogs running in their own thread wait for their checks; watchdogs running on
+ * a {@link WatchDogScheduler WatchDogScheduler} do not: the scheduler's thread only
+ * starts the check, and the result (or the timeout) is passed back to the scheduler,
+ * so that the number of checks running at the same time is limited only by the
+ * executor's pool, and a check which hangs does not hold a scheduler thread.
+ * <p>
+ * At most one check per watchdog is running at any time: if a check is still running
+ * (for example, blocked on a resource which doesn't respond) when the watchdog
+ * checks again, no new check is started, and the watchdog waits for the running
+ * one instead. So a check which hangs holds at most one thread.
+ * <p>
+ * Watchdogs which check the same {@link WatchDog#getCheckedResource() resource} share
+ * their checks: at most one check per resource is running at any time, and a check
+ * started less than the {@link #setMinResourceInterval(long) minimum resource interval}
+ * ago is not repeated, but its result is reported again.
+ *
+ * @author Cristiano Sadun
+ * @version 1.0
+ */
+public class CheckExecutor {
+
+	/**
+	 * The default maximum number of threads of the {@link #getShared() shared} executor,
+	 * which can be changed by setting the system property
+	 * <tt>org.sadun.util.watchdog.check.threads</tt>.
+	 */
+	public static final int DEFAULT_MAX_THREADS = 16;
+
+	private static CheckExecutor shared;
+
+	/**
+	 * Receives the result of a check started by {@link CheckExecutor#submit(WatchDog, Object, long, Callback)
+	 * submit()}.
+	 */
+	interface Callback {
+
+		/**
+		 * Receive the result of a check. This is invoked by the thread which has run the
+		 * check or, if the check has timed out, by the executor's timer thread, so it
+		 * must not block.
+		 *
+		 * @param result <b>null</b> if the check has succeeded, the failure, or the
+		 *         {@link WatchDogException WatchDogException} which made the check impossible
+		 * @param impossible <b>true</b> if the check has been impossible
+		 */
+		public void checked(Throwable result, boolean impossible);
+	}
+
+	private class CheckTask implements Task {
+		private WatchDog watchDog;
+		private Object obj;
+		private Check check;
+		private Thread runner;
+
+		CheckTask(WatchDog watchDog, Object obj, Check check) {
+			this.watchDog = watchDog;
+			this.obj = obj;
+			this.check = check;
+		}
+
+		public Object call() {
+			synchronized (this) {
+				runner = Thread.currentThread();
+			}
+			Throwable result;
+			boolean impossible = false;
+			try {
+				result = watchDog.doCheck(obj);
+			} catch (WatchDogException e) {
+				result = e;
+				impossible = true;
+			} catch (Throwable e) {
+				// An unexpected exception means the check has failed
+				result = e;
+			} finally {
+				synchronized (this) {
+					runner = null;
+				}
+				// Don't leave a pooled thread interrupted by a timeout
+				Thread.interrupted();
+			}
+			complete(check, result, impossible);
+			return null;
+		}
+
+		synchronized void interrupt() {
+			if (runner != null)
+				runner.interrupt();
+		}
+	}
+
+	private static class Check {
+		private CheckTask task;
+		private long started;
+		private boolean done;
+		private Throwable result;
+		private boolean impossible;
+		private List waiters = new LinkedList();
+	}
+
+	/*
+	 * A watchdog waiting for a check. It's run by the timer if the check does not
+	 * complete in time
+	 */
+	private class Waiter extends TimerTask {
+		private WatchDog watchDog;
+		private long timeout;
+		private Callback callback;
+		private Check check;
+
+		Waiter(WatchDog watchDog, long timeout, Callback callback) {
+			this.watchDog = watchDog;
+			this.timeout = timeout;
+			this.callback = callback;
+		}
+
+		public void run() {
+			boolean last;
+			synchronized (checks) {
+				// The check may have completed meanwhile
+				if (!check.waiters.remove(this))
+					return;
+				last = check.waiters.isEmpty();
+			}
+			// Other watchdogs may be still waiting for a shared check
+			if (last)
+				check.task.interrupt();
+			report(
+				callback,
+				new CheckTimedoutException(
+					"The check of " + watchDog.getName() + " did not complete in " + timeout + "ms"),
+				true);
+		}
+	}
+
+	/*
+	 * Waits for the result of a check
+	 */
+	private static class Result implements Callback {
+		private boolean done;
+		private Throwable result;
+		private boolean impossible;
+
+		public synchronized void checked(Throwable result, boolean impossible) {
+			this.result = result;
+			this.impossible = impossible;
+			done = true;
+			notifyAll();
+		}
+	}
+
+	private ThreadPool pool;
+	private Map checks = new IdentityHashMap();
+	private long minResourceInterval;
+	private Timer timer;
+
+	/**
+	 * Create an executor which runs the checks on the given pool.
+	 *
+	 * @param pool the pool
+	 */
+	public CheckExecutor(ThreadPool pool) {
+		if (pool == null)
+			throw new IllegalArgumentException("pool cannot be null");
+		this.pool = pool;
+	}
+
+	/**
+	 * Create an executor which runs the checks on a pool of at most the given
+	 * number of daemon threads.
+	 *
+	 * @param maxThreads the maximum number of threads
+	 */
+	public CheckExecutor(int maxThreads) {
+		this(new ThreadPool(0, maxThreads, true));
+	}
+
+	/**
+	 * Return the executor shared by the whole virtual machine, creating it if
+	 * necessary.
+	 *
+	 * @return the shared executor
+	 */
+	public static synchronized CheckExecutor getShared() {
+		if (shared == null) {
+			int threads = DEFAULT_MAX_THREADS;
+			String s = System.getProperty("org.sadun.util.watchdog.check.threads");
+			if (s != null)
+				try {
+					threads = Integer.parseInt(s);
+				} catch (NumberFormatException e) {
+					System.err.println(
+						"Warning: value of property org.sadun.util.watchdog.check.threads must be a number, \""
+							+ s
+							+ "\" ignored, using "
+							+ threads);
+				}
+			shared = new CheckExecutor(threads);
+		}
+		return shared;
+	}
+
+	/**
+	 * Run the check of the given watchdog, waiting at most the given time.
+	 *
+	 * @param watchDog the watchdog
+	 * @param obj the object to check
+	 * @param timeout the maximum time to wait for the check, in milliseconds
+	 * @return the result of the check (see {@link WatchDog#doCheck(Object) doCheck()})
+	 * @throws WatchDogException if the check is impossible, or does not complete in time
+	 */
+	public Throwable check(WatchDog watchDog, Object obj, long timeout)
+		throws WatchDogException {
+		Result r = new Result();
+		submit(watchDog, obj, timeout, r);
+		synchronized (r) {
+			while (!r.done)
+				try {
+					r.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new WatchDogException("Interrupted while waiting for the check", e);
+				}
+		}
+		if (r.impossible)
+			throw (WatchDogException) r.result;
+		return r.result;
+	}
+
+	/**
+	 * Start the check of the given watchdog, without waiting for it. The callback
+	 * receives the result when the check completes, or a {@link CheckTimedoutException
+	 * CheckTimedoutException} after the given time. The thread running the check is
+	 * interrupted when the last watchdog waiting for it times out.
+	 *
+	 * @param watchDog the watchdog
+	 * @param obj the object to check
+	 * @param timeout the maximum time to wait for the check, in milliseconds
+	 * @param callback the callback receiving the result
+	 */
+	void submit(WatchDog watchDog, Object obj, long timeout, Callback callback) {
+		Object resource = watchDog.getCheckedResource();
+		Object key = resource == null ? watchDog : resource;
+		Waiter waiter = new Waiter(watchDog, timeout, callback);
+		Check check;
+		boolean start = false;
+		synchronized (checks) {
+			check = (Check) checks.get(key);
+			boolean reuse =
+				check != null
+					&& (!check.done
+						|| (resource != null
+							&& System.currentTimeMillis() - check.started < minResourceInterval));
+			if (!reuse) {
+				check = new Check();
+				check.task = new CheckTask(watchDog, obj, check);
+				check.started = System.currentTimeMillis();
+				checks.put(key, check);
+				start = true;
+			}
+			if (!check.done) {
+				waiter.check = check;
+				check.waiters.add(waiter);
+				getTimer().schedule(waiter, timeout);
+			}
+		}
+		if (start)
+			try {
+				pool.submit(check.task);
+			} catch (RuntimeException e) {
+				complete(check, new WatchDogException("Could not start the check", e), true);
+			}
+		else if (waiter.check == null)
+			// A recent check of the same resource
+			report(callback, check.result, check.impossible);
+	}
+
+	/*
+	 * Record the result of a check, and pass it to the watchdogs still waiting for it
+	 */
+	private void complete(Check check, Throwable result, boolean impossible) {
+		List waiters;
+		synchronized (checks) {
+			check.done = true;
+			check.result = result;
+			check.impossible = impossible;
+			waiters = new ArrayList(check.waiters);
+			check.waiters.clear();
+		}
+		for (Iterator i = waiters.iterator(); i.hasNext();) {
+			Waiter waiter = (Waiter) i.next();
+			waiter.cancel();
+			report(waiter.callback, result, impossible);
+		}
+	}
+
+	private void report(Callback callback, Throwable result, boolean impossible) {
+		try {
+			callback.checked(result, impossible);
+		} catch (Throwable t) {
+			System.err.println("Warning: the notification of a check result has generated a " + t);
+		}
+	}
+
+	private synchronized Timer getTimer() {
+		if (timer == null)
+			timer = new Timer(true);
+		return timer;
+	}
+
+	/**
+	 * Forget the checks of the given watchdog, or its resource.
+	 */
+	void release(WatchDog watchDog) {
+		synchronized (checks) {
+			Object resource = watchDog.getCheckedResource();
+			Check check = (Check) checks.get(resource == null ? watchDog : resource);
+			if (check != null && check.task.watchDog == watchDog && check.done)
+				checks.remove(resource == null ? watchDog : resource);
+		}
+	}
+
+	/**
+	 * Return the minimum time between the start of two checks of the same resource.
+	 *
+	 * @return the minimum time between two checks of the same resource, in milliseconds
+	 */
+	public long getMinResourceInterval() {
+		synchronized (checks) {
+			return minResourceInterval;
+		}
+	}
+
+	/**
+	 * Set the minimum time between the start of two checks of the same
+	 * {@link WatchDog#getCheckedResource() resource}: a watchdog checking a resource
+	 * which has been checked more recently gets the result of the previous check.
+	 *
+	 * @param minResourceInterval the minimum time between two checks of the same
+	 *         resource, in milliseconds; 0 (the default) only prevents concurrent checks
+	 */
+	public void setMinResourceInterval(long minResourceInterval) {
+		if (minResourceInterval < 0)
+			throw new IllegalArgumentException("The interval cannot be negative");
+		synchronized (checks) {
+			this.minResourceInterval = minResourceInterval;
+		}
+	}
+
+	/**
+	 * Return the pool running the checks.
+	 *
+	 * @return the pool running the checks
+	 */
+	public ThreadPool getThreadPool() {
+		return pool;
+	}
+}
@@ -0,0 +1,289 @@
+package org.sadun.util.watchdog;
+
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * The recent history of the checks of a {@link WatchDog WatchDog}: the time,
+ * latency and outcome of the last {@link #getSize() size} checks, kept in a
+ * fixed-size ring buffer, with summaries of the latencies.
+ * <p>
+ * A latency which grows, or a growing number of impossible checks, often shows
+ * that a resource is degrading before it fails outright.
+ *
+ * @author Cristiano Sadun
+ * @version 1.0
+ */
+public class CheckHistory {
+
+	/**
+	 * The default number of checks kept by the history.
+	 */
+	public static final int DEFAULT_SIZE = 100;
+
+	/**
+	 * The outcome of a successful check.
+	 */
+	public static final int OK = 0;
+
+	/**
+	 * The outcome of a failed check.
+	 */
+	public static final int FAILED = 1;
+
+	/**
+	 * The outcome of a check which could not be performed.
+	 */
+	public static final int IMPOSSIBLE = 2;
+
+	private static final String[] OUTCOME_NAMES = { "ok", "failed", "impossible" };
+
+	private long[] times;
+	private long[] latencies;
+	private byte[] outcomes;
+	private int next;
+	private int count;
+	private long totalCount;
+
+	/**
+	 * Create a history which keeps the given number of checks.
+	 *
+	 * @param size the number of checks to keep
+	 */
+	public CheckHistory(int size) {
+		if (size < 1)
+			throw new IllegalArgumentException("The history must keep at least one check");
+		times = new long[size];
+		latencies = new long[size];
+		outcomes = new byte[size];
+	}
+
+	/**
+	 * Create a history which keeps {@link #DEFAULT_SIZE} checks.
+	 */
+	public CheckHistory() {
+		this(DEFAULT_SIZE);
+	}
+
+	/**
+	 * Record a check, replacing the oldest one if the history is full.
+	 *
+	 * @param time the time the check started
+	 * @param latency the time the check took, in milliseconds
+	 * @param outcome {@link #OK}, {@link #FAILED} or {@link #IMPOSSIBLE}
+	 */
+	public synchronized void record(long time, long latency, int outcome) {
+		times[next] = time;
+		latencies[next] = latency;
+		outcomes[next] = (byte) outcome;
+		next = (next + 1) % times.length;
+		if (count < times.length)
+			count++;
+		totalCount++;
+	}
+
+	/**
+	 * Forget all the recorded checks.
+	 */
+	public synchronized void clear() {
+		next = 0;
+		count = 0;
+		totalCount = 0;
+	}
+
+	/**
+	 * Return the number of checks the history can keep.
+	 *
+	 * @return the number of checks the history can keep
+	 */
+	public int getSize() {
+		return times.length;
+	}
+
+	/**
+	 * Return the number of checks currently kept.
+	 *
+	 * @return the number of checks currently kept
+	 */
+	public synchronized int getCount() {
+		return count;
+	}
+
+	/**
+	 * Return the number of checks recorded since the history was created or
+	 * {@link #clear() cleared}.
+	 *
+	 * @return the number of checks recorded
+	 */
+	public synchronized long getTotalCount() {
+		return totalCount;
+	}
+
+	/**
+	 * Return the start times of the kept checks, the oldest first.
+	 *
+	 * @return the start times of the kept checks
+	 */
+	public synchronized long[] getTimes() {
+		return copy(times);
+	}
+
+	/**
+	 * Return the latencies (in ms.) of the kept checks, the oldest first.
+	 *
+	 * @return the latencies of the kept checks
+	 */
+	public synchronized long[] getLatencies() {
+		return copy(latencies);
+	}
+
+	/**
+	 * Return the outcomes of the kept checks, the oldest first.
+	 *
+	 * @return the outcomes of the kept checks
+	 */
+	public synchronized int[] getOutcomes() {
+		int[] result = new int[count];
+		for (int i = 0; i < count; i++)
+			result[i] = outcomes[index(i)];
+		return result;
+	}
+
+	/**
+	 * Return the outcome of the last check.
+	 *
+	 * @return the outcome of the last check, or -1 if no check is kept
+	 */
+	public synchronized int getLastOutcome() {
+		return count == 0 ? -1 : outcomes[index(count - 1)];
+	}
+
+	/**
+	 * Return the latency of the last check.
+	 *
+	 * @return the latency of the last check, in milliseconds, or -1 if no check is kept
+	 */
+	public synchronized long getLastLatency() {
+		return count == 0 ? -1 : latencies[index(count - 1)];
+	}
+
+	/**
+	 * Return the number of kept checks with the given outcome.
+	 *
+	 * @param outcome {@link #OK}, {@link #FAILED} or {@link #IMPOSSIBLE}
+	 * @return the number of kept checks with the given outcome
+	 */
+	public synchronized int getOutcomeCount(int outcome) {
+		int n = 0;
+		for (int i = 0; i < count; i++)
+			if (outcomes[i] == outcome)
+				n++;
+		return n;
+	}
+
+	/**
+	 * Return the fraction of the kept checks which have failed or could not be
+	 * performed.
+	 *
+	 * @return the failure rate, between 0 and 1
+	 */
+	public synchronized double getFailureRate() {
+		return count == 0 ? 0 : (double) (count - getOutcomeCount(OK)) / count;
+	}
+
+	/**
+	 * Return the average latency of the kept checks.
+	 *
+	 * @return the average latency, in milliseconds
+	 */
+	public synchronized double getAverageLatency() {
+		if (count == 0)
+			return 0;
+		long total = 0;
+		for (int i = 0; i < count; i++)
+			total += latencies[i];
+		return (double) total / count;
+	}
+
+	/**
+	 * Return the longest latency of the kept checks.
+	 *
+	 * @return the longest latency, in milliseconds
+	 */
+	public synchronized long getMaxLatency() {
+		long max = 0;
+		for (int i = 0; i < count; i++)
+			if (latencies[i] > max)
+				max = latencies[i];
+		return max;
+	}
+
+	/**
+	 * Return the given percentile of the latencies of the kept checks: for example,
+	 * the 95th percentile is the latency which 95% of the checks did not exceed.
+	 *
+	 * @param percentile the percentile, between 0 and 100
+	 * @return the latency, in milliseconds, or 0 if no check is kept
+	 */
+	public long getLatencyPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100)
+			throw new IllegalArgumentException("The percentile must be between 0 and 100");
+		long[] sorted = getLatencies();
+		if (sorted.length == 0)
+			return 0;
+		Arrays.sort(sorted);
+		int rank = (int) Math.ceil(sorted.length * percentile / 100.0);
+		return sorted[Math.max(rank, 1) - 1];
+	}
+
+	/**
+	 * Return the name of the given outcome.
+	 *
+	 * @param outcome {@link #OK}, {@link #FAILED} or {@link #IMPOSSIBLE}
+	 * @return the name of the outcome
+	 */
+	public static String getOutcomeName(int outcome) {
+		if (outcome < 0 || outcome >= OUTCOME_NAMES.length)
+			return "unknown";
+		return OUTCOME_NAMES[outcome];
+	}
+
+	/**
+	 * Return a description of each kept check, the oldest first.
+	 *
+	 * @return a description of each kept check
+	 */
+	public synchronized String[] describe() {
+		String[] result = new String[count];
+		for (int i = 0; i < count; i++) {
+			int j = index(i);
+			result[i] = new Date(times[j]) + " " + getOutcomeName(outcomes[j]) + " "
+				+ latencies[j] + "ms";
+		}
+		return result;
+	}
+
+	public String toString() {
+		return getCount() + " checks, " + (int) Math.round(getFailureRate() * 100)
+			+ "% failed, latency avg " + (long) getAverageLatency() + "ms, 50% "
+			+ getLatencyPercentile(50) + "ms, 99% " + getLatencyPercentile(99) + "ms, max "
+			+ getMaxLatency() + "ms";
+	}
+
+	/*
+	 * Must be invoked holding the lock
+	 */
+	private int index(int i) {
+		return (next - count + i + times.length) % times.length;
+	}
+
+	/*
+	 * Must be invoked holding the lock
+	 */
+	private long[] copy(long[] values) {
+		long[] result = new long[count];
+		for (int i = 0; i < count; i++)
+			result[i] = values[index(i)];
+		return result;
+	}
+}
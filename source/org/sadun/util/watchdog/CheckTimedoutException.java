@@ -0,0 +1,40 @@
+package org.sadun.util.watchdog;
+
+/**
+ * A {@link WatchDogException WatchDogException} raised when a check does not
+ * complete within the watchdog's {@link WatchDog#setCheckTimeout(long) check timeout}.
+ * 
+ * @author Cristiano Sadun
+ */
+public class CheckTimedoutException extends WatchDogException {
+
+	/**
+	 * 
+	 */
+	public CheckTimedoutException() {
+		super();
+	}
+
+	/**
+	 * @param message
+	 */
+	public CheckTimedoutException(String message) {
+		super(message);
+	}
+
+	/**
+	 * @param message
+	 * @param cause
+	 */
+	public CheckTimedoutException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+	/**
+	 * @param cause
+	 */
+	public CheckTimedoutException(Throwable cause) {
+		super(cause);
+	}
+
+}
@@ -15,6 +15,7 @@ import org.sadun.util.Terminable;
 import com.deltax.util.TimeInterval;
 import com.deltax.util.listener.IListenerSupport;
 import com.deltax.util.listener.ListenerSupport;
+import com.deltax.util.listener.PooledListenerSupport;
 import com.deltax.util.listener.Signal;
 
 /**
@@ -58,6 +59,34 @@ import com.deltax.util.listener.Signal;
  * listening framework</a> for further information).
  * <p>
  * Asynchronous mode uses more system resources.
+ * <p>
+ * <b>Shared scheduling</b>
+ * <p>
+ * If a {@link WatchDogScheduler WatchDogScheduler} is {@link #setScheduler(WatchDogScheduler)
+ * set} (or a {@link WatchDogScheduler#setDefault(WatchDogScheduler) default} one exists at
+ * construction), {@link #start() starting} the watchdog schedules its checks on the
+ * scheduler's threads instead of starting the watchdog thread, and asynchronous
+ * listeners are notified by the scheduler's pool. Subclasses need no change.
+ * <p>
+ * <b>Check timeout</b>
+ * <p>
+ * If a {@link #setCheckTimeout(long) check timeout} is set, the check runs in a
+ * thread of a {@link CheckExecutor CheckExecutor}, and the watchdog waits for it at most
+ * the timeout: a check which does not complete in time is reported as
+ * {@link WatchDog.Listener#checkImpossible(Object, WatchDogException) impossible}, with a
+ * {@link CheckTimedoutException CheckTimedoutException}, so that a hanging check
+ * does not block the watchdog. On a scheduler, the check does not hold a scheduler
+ * thread while it runs.
+ * <p>
+ * <b>Adaptive check period</b>
+ * <p>
+ * With an {@link #setAdaptiveCheckPeriod(long, long) adaptive check period}, the
+ * watchdog checks more often after a failure, and backs off exponentially while
+ * the checks succeed. A {@link org.sadun.util.watchdog.listeners.CircuitBreaker CircuitBreaker}
+ * listener lets other components know quickly whether the last checks have failed.
+ * <p>
+ * The latency and outcome of the last checks are kept in the watchdog's
+ * {@link #getCheckHistory() check history}.
  * 
  * @version 1.1
  * @author Cristiano Sadun
@@ -243,7 +272,15 @@ public abstract class WatchDog extends Thread implements Terminable {
 	}
 
 	private volatile boolean shutdown;
+	private volatile boolean scheduled;
+	private WatchDogScheduler scheduler;
+	private volatile long checkTimeout;
+	private CheckExecutor checkExecutor;
 	private long checkPeriodTime;
+	private long minCheckPeriodTime;
+	private long maxCheckPeriodTime;
+	private volatile long currentCheckPeriodTime;
+	private volatile CheckHistory checkHistory = new CheckHistory();
 	Set listeners = new HashSet();
 	// This is used only for the synchronous notification
 	IListenerSupport ls;
@@ -294,6 +331,7 @@ public abstract class WatchDog extends Thread implements Terminable {
 		long checkPeriodTime,
 		boolean synchronous) {
 		super(name);
+		scheduler = WatchDogScheduler.getDefault();
 		ls = createListenerSupport();
 		this.checkPeriodTime = checkPeriodTime;
 		this.synchronous = synchronous;
@@ -330,6 +368,14 @@ public abstract class WatchDog extends Thread implements Terminable {
 		 * (instances.size()>0) { // Pick up the first ObjectInstance instance =
 		 * (ObjectInstance)instances.iterator().next(); instance. } }
 		 */
+		if (scheduler != null) {
+			PooledListenerSupport pls =
+				new PooledListenerSupport(
+					scheduler.getNotificationPool(),
+					PooledListenerSupport.DEFAULT_MAILBOX_CAPACITY);
+			// Failures wait for room in a full mailbox, OK signals are dropped (see notifyAsynchronous())
+			return pls;
+		}
 		return new ListenerSupport();
 	}
 
@@ -364,20 +410,120 @@ public abstract class WatchDog extends Thread implements Terminable {
 						Thread.sleep(checkPeriodTime);
 					firstCycle = false;
 				} else
-					Thread.sleep(checkPeriodTime);
-				Object obj = getObjectToCheck();
-				try {
-					Throwable t = doCheck(obj);
-					notify(obj, t);
-				} catch (WatchDogException e) {
-					notify(obj, e);
-				}
+					Thread.sleep(getCurrentCheckPeriodTime());
+				check();
 			} catch (InterruptedException e) {
 				// Ignore, will exit on shutdown
 			}
 		}
 	}
 
+	/**
+	 * Perform a check and notify the listeners of its result.
+	 */
+	void check() {
+		Object obj = getObjectToCheck();
+		long start = System.currentTimeMillis();
+		try {
+			Throwable t;
+			if (checkTimeout > 0)
+				t = getCheckExecutor().check(this, obj, checkTimeout);
+			else
+				t = doCheck(obj);
+			checkCompleted(obj, start, t, false);
+		} catch (WatchDogException e) {
+			checkCompleted(obj, start, e, true);
+		}
+	}
+
+	/**
+	 * Record the result of a check, and notify the listeners.
+	 */
+	void checkCompleted(Object obj, long start, Throwable t, boolean impossible) {
+		if (impossible)
+			checked(start, CheckHistory.IMPOSSIBLE);
+		else
+			checked(start, t == null ? CheckHistory.OK : CheckHistory.FAILED);
+		notify(obj, t);
+	}
+
+	/*
+	 * Record the outcome of the last check, and adapt the current check period
+	 */
+	private synchronized void checked(long start, int outcome) {
+		checkHistory.record(start, System.currentTimeMillis() - start, outcome);
+		if (maxCheckPeriodTime == 0)
+			return;
+		if (outcome == CheckHistory.OK)
+			currentCheckPeriodTime = Math.min(currentCheckPeriodTime * 2, maxCheckPeriodTime);
+		else
+			currentCheckPeriodTime = minCheckPeriodTime;
+	}
+
+	/**
+	 * Start the watchdog. If the watchdog has a {@link #setScheduler(WatchDogScheduler) scheduler},
+	 * its checks are scheduled and the watchdog thread is not started.
+	 */
+	public synchronized void start() {
+		if (scheduler == null) {
+			super.start();
+			return;
+		}
+		if (scheduled)
+			throw new IllegalThreadStateException("The watchdog is already running");
+		scheduler.schedule(this, startBySleeping ? checkPeriodTime : 0);
+		shutdown = false;
+		scheduled = true;
+	}
+
+	/*
+	 * Invoked by the scheduler when it's shut down
+	 */
+	synchronized void unscheduled() {
+		if (!scheduled)
+			return;
+		scheduled = false;
+		shutdown = true;
+		if (checkExecutor != null)
+			checkExecutor.release(this);
+	}
+
+	/**
+	 * Return <b>true</b> if the watchdog thread is running or, if the watchdog
+	 * has a {@link #setScheduler(WatchDogScheduler) scheduler}, if its checks are scheduled.
+	 * 
+	 * @return <b>true</b> if the watchdog is running
+	 */
+	public boolean isRunning() {
+		return scheduled || isAlive();
+	}
+
+	/**
+	 * Return the scheduler running the checks.
+	 * 
+	 * @return the scheduler, or <b>null</b> if the checks run in the watchdog thread
+	 */
+	public WatchDogScheduler getScheduler() {
+		return scheduler;
+	}
+
+	/**
+	 * Set the scheduler running the checks. If no listener is registered yet,
+	 * the asynchronous listeners will also be notified by the scheduler's pool.
+	 * 
+	 * @param scheduler the scheduler, or <b>null</b> to run the checks in the
+	 *         watchdog thread
+	 */
+	public synchronized void setScheduler(WatchDogScheduler scheduler) {
+		if (isRunning())
+			throw new IllegalStateException("The watchdog is already running");
+		this.scheduler = scheduler;
+		synchronized (listeners) {
+			if (listeners.isEmpty())
+				ls = createListenerSupport();
+		}
+	}
+
 	/**
 	 * This method can be implemented by subclasses if the checking action
 	 * implies one or more objects. The default implemntation returns <n>null
@@ -389,6 +535,19 @@ public abstract class WatchDog extends Thread implements Terminable {
 		return null;
 	}
 
+	/**
+	 * This method can be implemented by subclasses whose check uses a resource
+	 * which is checked by other watchdogs as well, and should not be checked
+	 * concurrently or too often (see {@link CheckExecutor CheckExecutor}). It's
+	 * used only if a {@link #setCheckTimeout(long) check timeout} is set. The
+	 * default implementation returns <b>null</b>.
+	 * 
+	 * @return the resource used by the check, or <b>null</b>
+	 */
+	protected Object getCheckedResource() {
+		return null;
+	}
+
 	/**
 	 * The implementation of notify now can use the LF listner support
 	 * 
@@ -431,10 +590,14 @@ public abstract class WatchDog extends Thread implements Terminable {
 	}
 
 	void notifyAsynchronous(Object obj, Throwable t) {
-		if (t == null)
-			ls.notify(
-				new WatchDogSignal(obj, WatchDogSignal.SIGNAL_CHECK_OK, t));
-		else if (t instanceof WatchDogException)
+		if (t == null) {
+			Signal s = new WatchDogSignal(obj, WatchDogSignal.SIGNAL_CHECK_OK, t);
+			if (ls instanceof PooledListenerSupport)
+				// A slow listener may miss OK signals, but must not block the scheduler for them
+				((PooledListenerSupport) ls).notify(s, PooledListenerSupport.DROP_NEWEST);
+			else
+				ls.notify(s);
+		} else if (t instanceof WatchDogException)
 			ls.notify(
 				new WatchDogSignal(
 					obj,
@@ -482,6 +645,12 @@ public abstract class WatchDog extends Thread implements Terminable {
 	 */
 	public synchronized void shutdown() {
 		shutdown = true;
+		if (scheduled) {
+			scheduled = false;
+			scheduler.cancel(this);
+		}
+		if (checkExecutor != null)
+			checkExecutor.release(this);
 		interrupt();
 
 	}
@@ -540,8 +709,141 @@ public abstract class WatchDog extends Thread implements Terminable {
 	 * @param checkPeriodTime
 	 *            the amount of time the watchdog waits between each check.
 	 */
-	public void setCheckPeriodTime(long checkPeriodTime) {
+	public synchronized void setCheckPeriodTime(long checkPeriodTime) {
 		this.checkPeriodTime = checkPeriodTime;
+		if (maxCheckPeriodTime > 0)
+			currentCheckPeriodTime = Math.max(minCheckPeriodTime, Math.min(checkPeriodTime, maxCheckPeriodTime));
+		else
+			currentCheckPeriodTime = 0;
+	}
+
+	/**
+	 * Make the check period adaptive: after a check which fails or is impossible,
+	 * the watchdog checks again after the given minimum period; after each
+	 * successful check, the period doubles, up to the given maximum. The period
+	 * starts from the {@link #getCheckPeriodTime() check period time}.
+	 * <p>
+	 * So the watchdog notices quickly when a resource recovers, and checks rarely
+	 * a resource which is healthy.
+	 * 
+	 * @param minCheckPeriodTime the period after a failure, in milliseconds
+	 * @param maxCheckPeriodTime the longest period, in milliseconds, or 0 to use
+	 *         the fixed {@link #getCheckPeriodTime() check period time} (the default)
+	 */
+	public synchronized void setAdaptiveCheckPeriod(long minCheckPeriodTime, long maxCheckPeriodTime) {
+		if (maxCheckPeriodTime != 0 && (minCheckPeriodTime <= 0 || minCheckPeriodTime > maxCheckPeriodTime))
+			throw new IllegalArgumentException(
+				"The minimum period must be positive, and not greater than the maximum period");
+		this.minCheckPeriodTime = maxCheckPeriodTime == 0 ? 0 : minCheckPeriodTime;
+		this.maxCheckPeriodTime = maxCheckPeriodTime;
+		setCheckPeriodTime(checkPeriodTime);
+	}
+
+	/**
+	 * Return <b>true</b> if the check period is {@link #setAdaptiveCheckPeriod(long, long) adaptive}.
+	 * 
+	 * @return <b>true</b> if the check period is adaptive
+	 */
+	public synchronized boolean isAdaptiveCheckPeriod() {
+		return maxCheckPeriodTime > 0;
+	}
+
+	/**
+	 * Return the shortest period of an {@link #setAdaptiveCheckPeriod(long, long) adaptive}
+	 * watchdog.
+	 * 
+	 * @return the period after a failure, in milliseconds, or 0 if the period is fixed
+	 */
+	public synchronized long getMinCheckPeriodTime() {
+		return minCheckPeriodTime;
+	}
+
+	/**
+	 * Return the longest period of an {@link #setAdaptiveCheckPeriod(long, long) adaptive}
+	 * watchdog.
+	 * 
+	 * @return the longest period, in milliseconds, or 0 if the period is fixed
+	 */
+	public synchronized long getMaxCheckPeriodTime() {
+		return maxCheckPeriodTime;
+	}
+
+	/**
+	 * Return the amount of time the watchdog waits before the next check: the
+	 * {@link #getCheckPeriodTime() check period time}, or the current period of an
+	 * {@link #setAdaptiveCheckPeriod(long, long) adaptive} watchdog.
+	 * 
+	 * @return the amount of time the watchdog waits before the next check
+	 */
+	public long getCurrentCheckPeriodTime() {
+		return currentCheckPeriodTime > 0 ? currentCheckPeriodTime : checkPeriodTime;
+	}
+
+	/**
+	 * Return the history of the last checks.
+	 * 
+	 * @return the history of the last checks
+	 */
+	public CheckHistory getCheckHistory() {
+		return checkHistory;
+	}
+
+	/**
+	 * Set the number of checks kept in the {@link #getCheckHistory() check history}.
+	 * The checks recorded so far are forgotten.
+	 * 
+	 * @param size the number of checks to keep (by default, {@link CheckHistory#DEFAULT_SIZE})
+	 */
+	public synchronized void setCheckHistorySize(int size) {
+		checkHistory = new CheckHistory(size);
+	}
+
+	/**
+	 * Return the maximum time a check is waited for.
+	 * 
+	 * @return the maximum time a check is waited for, in milliseconds, or 0 if the
+	 *         check runs in the watchdog's thread with no timeout
+	 */
+	public long getCheckTimeout() {
+		return checkTimeout;
+	}
+
+	/**
+	 * Set the maximum time a check is waited for. If the check does not complete in
+	 * time, it's interrupted and the listeners are notified that the check is
+	 * {@link WatchDog.Listener#checkImpossible(Object, WatchDogException) impossible}.
+	 * 
+	 * @param checkTimeout the maximum time a check is waited for, in milliseconds, or
+	 *         0 (the default) to run the check in the watchdog's thread with no timeout
+	 */
+	public void setCheckTimeout(long checkTimeout) {
+		if (checkTimeout < 0)
+			throw new IllegalArgumentException("The check timeout cannot be negative");
+		this.checkTimeout = checkTimeout;
+	}
+
+	/**
+	 * Return the executor running the checks when a {@link #setCheckTimeout(long)
+	 * check timeout} is set.
+	 * 
+	 * @return the executor, by default the {@link CheckExecutor#getShared() shared} one
+	 */
+	public synchronized CheckExecutor getCheckExecutor() {
+		if (checkExecutor == null)
+			checkExecutor = CheckExecutor.getShared();
+		return checkExecutor;
+	}
+
+	/**
+	 * Set the executor running the checks when a {@link #setCheckTimeout(long)
+	 * check timeout} is set.
+	 * 
+	 * @param checkExecutor the executor
+	 */
+	public synchronized void setCheckExecutor(CheckExecutor checkExecutor) {
+		if (checkExecutor == null)
+			throw new IllegalArgumentException("checkExecutor cannot be null");
+		this.checkExecutor = checkExecutor;
 	}
 
 	/**
@@ -561,7 +863,7 @@ public abstract class WatchDog extends Thread implements Terminable {
 	 *            comment).
 	 */
 	public void setSynchronous(boolean v) {
-		if (isAlive())
+		if (isRunning())
 			throw new IllegalStateException("The watchdog is already running");
 		this.synchronous = v;
 
@@ -582,7 +884,7 @@ public abstract class WatchDog extends Thread implements Terminable {
 	 *            The startBySleeping to set.
 	 */
 	public void setStartBySleeping(boolean startBySleeping) {
-		if (isAlive())
+		if (isRunning())
 			throw new IllegalStateException("The watchdog is already running");
 		this.startBySleeping = startBySleeping;
 	}
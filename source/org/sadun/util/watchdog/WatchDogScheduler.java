@@ -0,0 +1,391 @@
+package org.sadun.util.watchdog;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.sadun.util.tp.ThreadPool;
+
+/**
+ * A scheduler which runs the checks of many {@link WatchDog WatchDog}s on a small
+ * pool of shared daemon threads, so that a watchdog does not need a thread of its own.
+ * <p>
+ * A watchdog uses a scheduler if one is {@link WatchDog#setScheduler(WatchDogScheduler)
+ * set} before it's started, or if a {@link #setDefault(WatchDogScheduler) default scheduler}
+ * exists when the watchdog is created; in this case, {@link WatchDog#start() starting}
+ * the watchdog schedules its checks rather than starting its thread, and existing
+ * {@link WatchDog WatchDog} subclasses run unchanged. The {@link #getShared() shared}
+ * scheduler becomes the default one if the system property
+ * <tt>org.sadun.util.watchdog.shared</tt> is <tt>true</tt>.
+ * <p>
+ * Each watchdog is checked again {@link WatchDog#getCurrentCheckPeriodTime() check period time}
+ * milliseconds after its last check has completed, so that two checks of the same watchdog
+ * never run at the same time. Each period is changed by a random {@link #setJitter(double) jitter},
+ * so that watchdogs started together do not keep running their checks at the same time.
+ * <p>
+ * The checks of watchdogs with a {@link WatchDog#setCheckTimeout(long) check timeout} run
+ * on their {@link CheckExecutor CheckExecutor}: a scheduler thread only starts them, and
+ * later notifies their result, so that many of them can run at the same time.
+ * <p>
+ * The listeners of asynchronous watchdogs using the scheduler are notified by the
+ * scheduler's {@link #getNotificationPool() notification pool}, rather than by threads
+ * of their own. If a listener falls behind and its mailbox fills up, further OK
+ * signals are dropped, while failures wait for room in the mailbox.
+ * <p>
+ * Since the threads are shared, checks (and synchronous listeners) should not block
+ * for long.
+ *
+ * @author Cristiano Sadun
+ * @version 1.0
+ */
+public class WatchDogScheduler {
+
+	/**
+	 * The default jitter: each period is changed randomly by up to 10%.
+	 */
+	public static final double DEFAULT_JITTER = 0.1;
+
+	/**
+	 * The default number of threads of the {@link #getShared() shared} scheduler, which
+	 * can be changed by setting the system property <tt>org.sadun.util.watchdog.scheduler.threads</tt>.
+	 */
+	public static final int DEFAULT_THREADS = 2;
+
+	private static WatchDogScheduler shared;
+	private static WatchDogScheduler defaultScheduler;
+	private static boolean defaultInitialized;
+
+	private static class Entry {
+		private WatchDog watchDog;
+		private long time;
+		private long seq;
+		private Completion completion;
+
+		Entry(WatchDog watchDog) {
+			this.watchDog = watchDog;
+		}
+	}
+
+	/*
+	 * Receives the result of a check with a timeout, and queues it for a worker
+	 */
+	private class Completion implements CheckExecutor.Callback {
+		private Entry entry;
+		private Object obj;
+		private long start;
+		private Throwable result;
+		private boolean impossible;
+
+		Completion(Entry entry, Object obj, long start) {
+			this.entry = entry;
+			this.obj = obj;
+			this.start = start;
+		}
+
+		public void checked(Throwable result, boolean impossible) {
+			synchronized (lock) {
+				this.result = result;
+				this.impossible = impossible;
+				if (!shutdown && entries.get(entry.watchDog) == entry) {
+					entry.completion = this;
+					enqueue(entry, 0);
+				}
+			}
+		}
+
+		void notifyResult() {
+			entry.watchDog.checkCompleted(obj, start, result, impossible);
+		}
+	}
+
+	private static final Comparator ENTRY_ORDER = new Comparator() {
+		public int compare(Object o1, Object o2) {
+			Entry e1 = (Entry) o1;
+			Entry e2 = (Entry) o2;
+			if (e1.time != e2.time)
+				return e1.time < e2.time ? -1 : 1;
+			if (e1.seq != e2.seq)
+				return e1.seq < e2.seq ? -1 : 1;
+			return 0;
+		}
+	};
+
+	private class Worker implements Runnable {
+		public void run() {
+			while (true) {
+				Entry e;
+				synchronized (lock) {
+					while (true) {
+						if (shutdown)
+							return;
+						if (queue.isEmpty()) {
+							waitForEntries(0);
+							continue;
+						}
+						e = (Entry) queue.first();
+						long delay = e.time - System.currentTimeMillis();
+						if (delay <= 0)
+							break;
+						waitForEntries(delay);
+					}
+					queue.remove(e);
+				}
+				try {
+					if (e.completion != null) {
+						Completion completion = e.completion;
+						e.completion = null;
+						completion.notifyResult();
+					} else if (e.watchDog.getCheckTimeout() > 0) {
+						// Rescheduled when the check completes or times out
+						startCheck(e);
+						continue;
+					} else
+						e.watchDog.check();
+				} catch (Throwable t) {
+					System.err.println("Warning: the check of " + e.watchDog.getName()
+						+ " has generated a " + t);
+				}
+				synchronized (lock) {
+					// Reschedule, unless cancelled meanwhile
+					if (!shutdown && entries.get(e.watchDog) == e)
+						enqueue(e, e.watchDog.getCurrentCheckPeriodTime());
+				}
+			}
+		}
+	}
+
+	private Object lock = new Object();
+	private TreeSet queue = new TreeSet(ENTRY_ORDER);
+	private Map entries = new HashMap();
+	private long seq;
+	private Thread[] threads;
+	private ThreadPool notificationPool;
+	private volatile boolean shutdown;
+	private double jitter = DEFAULT_JITTER;
+	private Random random = new Random();
+
+	/**
+	 * Create a scheduler with the given number of threads, whose names begin with the
+	 * given name.
+	 *
+	 * @param name the name of the scheduler
+	 * @param threads the number of threads running the checks
+	 */
+	public WatchDogScheduler(String name, int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("At least one thread is required");
+		this.threads = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			this.threads[i] = new Thread(new Worker(), name + "-" + i);
+			this.threads[i].setDaemon(true);
+			this.threads[i].start();
+		}
+		notificationPool = new ThreadPool(threads, true);
+	}
+
+	/**
+	 * Create a scheduler with the given number of threads.
+	 *
+	 * @param threads the number of threads running the checks
+	 */
+	public WatchDogScheduler(int threads) {
+		this("watchdog-scheduler", threads);
+	}
+
+	/**
+	 * Return the scheduler shared by the whole virtual machine, creating it if
+	 * necessary.
+	 *
+	 * @return the shared scheduler
+	 */
+	public static synchronized WatchDogScheduler getShared() {
+		if (shared == null) {
+			int threads = DEFAULT_THREADS;
+			String s = System.getProperty("org.sadun.util.watchdog.scheduler.threads");
+			if (s != null)
+				try {
+					threads = Integer.parseInt(s);
+				} catch (NumberFormatException e) {
+					System.err.println(
+						"Warning: value of property org.sadun.util.watchdog.scheduler.threads must be a number, \""
+							+ s
+							+ "\" ignored, using "
+							+ threads);
+				}
+			shared = new WatchDogScheduler("shared-watchdog-scheduler", threads);
+		}
+		return shared;
+	}
+
+	/**
+	 * Return the scheduler used by the watchdogs created from now on, or <b>null</b>
+	 * if they run in their own thread.
+	 *
+	 * @return the default scheduler, or <b>null</b>
+	 */
+	public static synchronized WatchDogScheduler getDefault() {
+		if (!defaultInitialized) {
+			if (Boolean.getBoolean("org.sadun.util.watchdog.shared"))
+				defaultScheduler = getShared();
+			defaultInitialized = true;
+		}
+		return defaultScheduler;
+	}
+
+	/**
+	 * Set the scheduler used by the watchdogs created from now on.
+	 *
+	 * @param scheduler the default scheduler, or <b>null</b> to run each watchdog
+	 *         in its own thread
+	 */
+	public static synchronized void setDefault(WatchDogScheduler scheduler) {
+		defaultScheduler = scheduler;
+		defaultInitialized = true;
+	}
+
+	/**
+	 * Schedule the checks of the given watchdog, the first one after the given delay.
+	 */
+	void schedule(WatchDog watchDog, long delay) {
+		synchronized (lock) {
+			if (shutdown)
+				throw new IllegalStateException("The scheduler has been shut down");
+			if (entries.containsKey(watchDog))
+				throw new IllegalStateException(watchDog.getName() + " is already scheduled");
+			Entry e = new Entry(watchDog);
+			entries.put(watchDog, e);
+			enqueue(e, delay);
+		}
+	}
+
+	/**
+	 * Stop scheduling the checks of the given watchdog. A check in progress is not
+	 * interrupted.
+	 */
+	void cancel(WatchDog watchDog) {
+		synchronized (lock) {
+			Entry e = (Entry) entries.remove(watchDog);
+			if (e != null)
+				queue.remove(e);
+		}
+	}
+
+	/**
+	 * Return the number of watchdogs currently scheduled.
+	 *
+	 * @return the number of watchdogs currently scheduled
+	 */
+	public int getScheduledCount() {
+		synchronized (lock) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * Return the fraction by which each period is randomly changed.
+	 *
+	 * @return the jitter, between 0 and 1
+	 */
+	public double getJitter() {
+		synchronized (lock) {
+			return jitter;
+		}
+	}
+
+	/**
+	 * Set the fraction by which each period is randomly changed. For example, with 0.1
+	 * a period of 10 seconds becomes a period between 9 and 11 seconds.
+	 *
+	 * @param jitter the jitter, between 0 (no jitter) and 1
+	 */
+	public void setJitter(double jitter) {
+		if (jitter < 0 || jitter > 1)
+			throw new IllegalArgumentException("The jitter must be between 0 and 1");
+		synchronized (lock) {
+			this.jitter = jitter;
+		}
+	}
+
+	/**
+	 * Return the number of threads running the checks.
+	 *
+	 * @return the number of threads running the checks
+	 */
+	public int getThreadCount() {
+		return threads.length;
+	}
+
+	/**
+	 * Return the pool which notifies the listeners of the asynchronous watchdogs
+	 * using the scheduler.
+	 *
+	 * @return the notification pool
+	 */
+	public ThreadPool getNotificationPool() {
+		return notificationPool;
+	}
+
+	/**
+	 * Stop running checks, and terminate the scheduler's threads. A check in progress
+	 * is completed. The scheduled watchdogs are shut down, so that they can be
+	 * given another scheduler and started again.
+	 */
+	public void shutdown() {
+		Object[] watchDogs;
+		synchronized (lock) {
+			shutdown = true;
+			watchDogs = entries.keySet().toArray();
+			entries.clear();
+			queue.clear();
+			lock.notifyAll();
+		}
+		// Outside the lock, since WatchDog.shutdown() holds the watchdog while cancelling
+		for (int i = 0; i < watchDogs.length; i++)
+			((WatchDog) watchDogs[i]).unscheduled();
+		notificationPool.terminate();
+	}
+
+	/**
+	 * Return <b>true</b> if the scheduler has been shut down.
+	 *
+	 * @return <b>true</b> if the scheduler has been shut down
+	 */
+	public boolean isShuttingDown() {
+		return shutdown;
+	}
+
+	private void startCheck(Entry e) {
+		Object obj = e.watchDog.getObjectToCheck();
+		e.watchDog.getCheckExecutor().submit(
+			e.watchDog,
+			obj,
+			e.watchDog.getCheckTimeout(),
+			new Completion(e, obj, System.currentTimeMillis()));
+	}
+
+	/*
+	 * Must be invoked holding the lock
+	 */
+	private void enqueue(Entry e, long delay) {
+		if (jitter > 0)
+			delay += (long) (delay * jitter * (2 * random.nextDouble() - 1));
+		e.time = System.currentTimeMillis() + Math.max(delay, 0);
+		e.seq = seq++;
+		queue.add(e);
+		if (queue.first() == e)
+			lock.notify();
+	}
+
+	/*
+	 * Must be invoked holding the lock
+	 */
+	private void waitForEntries(long timeout) {
+		try {
+			lock.wait(timeout);
+		} catch (InterruptedException e) {
+			// Ignore, will exit on shutdown
+		}
+	}
+}
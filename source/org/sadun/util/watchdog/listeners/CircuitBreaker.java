@@ -0,0 +1,208 @@
+package org.sadun.util.watchdog.listeners;
+
+import java.util.Date;
+
+import org.sadun.util.watchdog.WatchDogException;
+
+/**
+ * A listener which keeps track of the health of the checked resource, so that
+ * its users can fail fast rather than wait for a resource which is known to be down.
+ * <p>
+ * The breaker is initially {@link #CLOSED closed}. It {@link #OPEN opens} when a
+ * check fails, or when the check could not be performed for
+ * {@link #getMaxRetryCount() a certain number} of consecutive times (as for any
+ * {@link WaitAndRetryListener WaitAndRetryListener}), and it closes again at the
+ * first successful check.
+ * <p>
+ * If a {@link #setHalfOpenTimeout(long) half-open timeout} is set, an open breaker
+ * becomes {@link #HALF_OPEN half-open} when no check has failed for that time, and
+ * {@link #allowRequest() allows} one trial request per timeout, until the next check
+ * closes or opens it again.
+ * <p>
+ * The breaker is usually combined with an {@link org.sadun.util.watchdog.WatchDog#setAdaptiveCheckPeriod(long, long)
+ * adaptive} watchdog, which checks again soon after a failure, so that the breaker
+ * closes soon after the resource recovers.
+ * 
+ * @author Cristiano Sadun
+ * @version 1.0
+ */
+public class CircuitBreaker extends WaitAndRetryListener {
+
+	/**
+	 * The state of a breaker which allows all requests.
+	 */
+	public static final int CLOSED = 0;
+
+	/**
+	 * The state of a breaker which rejects all requests.
+	 */
+	public static final int OPEN = 1;
+
+	/**
+	 * The state of a breaker which allows one trial request per half-open timeout.
+	 */
+	public static final int HALF_OPEN = 2;
+
+	private boolean open;
+	private long openedTime;
+	private long lastTrialTime;
+	private long halfOpenTimeout;
+	private Throwable lastFailure;
+
+	/**
+	 * Create a breaker which opens after {@link WaitAndRetryListener#DEFAULT_MAX_RETRY_COUNT}
+	 * impossible checks, and stays open until a check succeeds.
+	 */
+	public CircuitBreaker() {
+		this(DEFAULT_MAX_RETRY_COUNT, 0);
+	}
+
+	/**
+	 * Create a breaker which opens after the given number of impossible checks,
+	 * and stays open until a check succeeds.
+	 * 
+	 * @param maxRetryCount the max number of impossible checks before opening
+	 */
+	public CircuitBreaker(int maxRetryCount) {
+		this(maxRetryCount, 0);
+	}
+
+	/**
+	 * Create a breaker which opens after the given number of impossible checks,
+	 * and becomes half-open after the given time.
+	 * 
+	 * @param maxRetryCount the max number of impossible checks before opening
+	 * @param halfOpenTimeout the time after which an open breaker allows a trial
+	 *         request, in milliseconds, or 0 to never allow requests while open
+	 */
+	public CircuitBreaker(int maxRetryCount, long halfOpenTimeout) {
+		super(maxRetryCount);
+		setHalfOpenTimeout(halfOpenTimeout);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.sadun.util.watchdog.WatchDog.Listener#checkOk(java.lang.Object)
+	 */
+	public synchronized void checkOk(Object obj) {
+		super.checkOk(obj);
+		open = false;
+		lastFailure = null;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.sadun.util.watchdog.WatchDog.Listener#checkFailed(java.lang.Object, java.lang.Throwable)
+	 */
+	public synchronized void checkFailed(Object obj, Throwable e) {
+		reset();
+		if (!open) {
+			open = true;
+			openedTime = System.currentTimeMillis();
+		}
+		lastTrialTime = System.currentTimeMillis();
+		lastFailure = e;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.sadun.util.watchdog.WatchDog.Listener#checkImpossible(java.lang.Object, org.sadun.util.watchdog.WatchDogException)
+	 */
+	public synchronized void checkImpossible(Object obj, WatchDogException e) {
+		super.checkImpossible(obj, e);
+	}
+
+	/**
+	 * Return the state of the breaker.
+	 * 
+	 * @return {@link #CLOSED}, {@link #OPEN} or {@link #HALF_OPEN}
+	 */
+	public synchronized int getState() {
+		if (!open)
+			return CLOSED;
+		if (halfOpenTimeout > 0
+			&& System.currentTimeMillis() - lastTrialTime >= halfOpenTimeout)
+			return HALF_OPEN;
+		return OPEN;
+	}
+
+	/**
+	 * Return <b>true</b> if the breaker is open or half-open, that is, the last
+	 * checks have failed.
+	 * 
+	 * @return <b>true</b> if the breaker is not closed
+	 */
+	public synchronized boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * Return <b>true</b> if a request to the checked resource should be attempted:
+	 * always if the breaker is closed, never if it's open. If the breaker is half-open,
+	 * the request is a trial, and the breaker is open for the other requests until the
+	 * half-open timeout elapses again.
+	 * 
+	 * @return <b>true</b> if a request should be attempted
+	 */
+	public synchronized boolean allowRequest() {
+		switch (getState()) {
+			case CLOSED :
+				return true;
+			case HALF_OPEN :
+				lastTrialTime = System.currentTimeMillis();
+				return true;
+			default :
+				return false;
+		}
+	}
+
+	/**
+	 * Return the time at which the breaker has opened.
+	 * 
+	 * @return the time at which the breaker has opened, or 0 if it's closed
+	 */
+	public synchronized long getOpenedTime() {
+		return open ? openedTime : 0;
+	}
+
+	/**
+	 * Return the failure which has opened the breaker.
+	 * 
+	 * @return the last failure, or <b>null</b> if the breaker is closed
+	 */
+	public synchronized Throwable getLastFailure() {
+		return lastFailure;
+	}
+
+	/**
+	 * Return the time after which an open breaker allows a trial request.
+	 * 
+	 * @return the half-open timeout, in milliseconds, or 0
+	 */
+	public synchronized long getHalfOpenTimeout() {
+		return halfOpenTimeout;
+	}
+
+	/**
+	 * Set the time after which an open breaker allows a trial request. The time
+	 * starts again at each failed check, and at each trial request.
+	 * 
+	 * @param halfOpenTimeout the half-open timeout, in milliseconds, or 0 to never
+	 *         allow requests while open
+	 */
+	public synchronized void setHalfOpenTimeout(long halfOpenTimeout) {
+		if (halfOpenTimeout < 0)
+			throw new IllegalArgumentException("The half-open timeout cannot be negative");
+		this.halfOpenTimeout = halfOpenTimeout;
+	}
+
+	public String toString() {
+		switch (getState()) {
+			case CLOSED :
+				return "circuit breaker (closed)";
+			case HALF_OPEN :
+				return "circuit breaker (half-open since " + new Date(openedTime)
+					+ ": " + lastFailure + ")";
+			default :
+				return "circuit breaker (open since " + new Date(openedTime)
+					+ ": " + lastFailure + ")";
+		}
+	}
+}
@@ -78,6 +78,16 @@ public abstract class WaitAndRetryListener implements Listener {
 		retryOutcomes.clear();
 	}
 
+	/**
+	 * Return the number of consecutive impossible checks since the last successful
+	 * check or declared failure.
+	 * 
+	 * @return the number of consecutive impossible checks
+	 */
+	public synchronized int getRetryCount() {
+		return retryCount;
+	}
+
 	/**
 	 * @return Returns the maxRetryCount.
 	 */
@@ -17,6 +17,7 @@ import javax.management.MBeanRegistration;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 
+import org.sadun.util.watchdog.CheckHistory;
 import org.sadun.util.watchdog.WatchDog;
 import org.sadun.util.watchdog.WatchDogException;
 import org.sadun.util.watchdog.WatchDog.Listener;
@@ -387,7 +388,7 @@ public class ManagedWatchDog
 	 * @see org.sadun.util.watchdog.mbean.ManagedWatchDogMBean#isAlive()
 	 */
 	public boolean isAlive() {
-		return watchDog.isAlive();
+		return watchDog.isRunning();
 	}
 
 	/*
@@ -499,7 +500,11 @@ public class ManagedWatchDog
 					*/
 			if (isAlive()) throw new MBeanException(new IllegalStateException("The watchdog is already running"));
 			
-			if (watchDog!=null) watchDog.dispose();
+			int historySize = CheckHistory.DEFAULT_SIZE;
+			if (watchDog!=null) {
+				historySize = watchDog.getCheckHistory().getSize();
+				watchDog.dispose();
+			}
 			Class cls = Class.forName(name);
 			Object obj = cls.newInstance();
 			if (!(obj instanceof CheckAction))
@@ -512,6 +517,8 @@ public class ManagedWatchDog
 			final CheckAction action = (CheckAction) obj;
 			try {
 				this.watchDog = new DelegatedWatchDog(action);
+				if (historySize != CheckHistory.DEFAULT_SIZE)
+					watchDog.setCheckHistorySize(historySize);
 			} catch (IntrospectionException e) {
 				throw new MBeanException(
 					e,
@@ -557,4 +564,122 @@ public class ManagedWatchDog
 		}
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.sadun.util.watchdog.mbean.ManagedWatchDogMBean#getCheckHistorySize()
+	 */
+	public int getCheckHistorySize() {
+		return watchDog.getCheckHistory().getSize();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.sadun.util.watchdog.mbean.ManagedWatchDogMBean#setCheckHistorySize(int)
+	 */
+	public void setCheckHistorySize(int size) {
+		watchDog.setCheckHistorySize(size);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.sadun.util.watchdog.mbean.ManagedWatchDogMBean#getCheckCount()
+	 */
+	public long getCheckCount() {
+		return watchDog.getCheckHistory().getTotalCount();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.sadun.util.watchdog.mbean.ManagedWatchDogMBean#getLastCheckOutcome()
+	 */
+	public String getLastCheckOutcome() {
+		int outcome = watchDog.getCheckHistory().getLastOutcome();
+		return outcome == -1 ? null : CheckHistory.getOutcomeName(outcome);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.sadun.util.watchdog.mbean.ManagedWatchDogMBean#getLastCheckLatency()
+	 */
+	public long getLastCheckLatency() {
+		return watchDog.getCheckHistory().getLastLatency();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.sadun.util.watchdog.mbean.ManagedWatchDogMBean#getAverageCheckLatency()
+	 */
+	public double getAverageCheckLatency() {
+		return watchDog.getCheckHistory().getAverageLatency();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.sadun.util.watchdog.mbean.ManagedWatchDogMBean#getMaxCheckLatency()
+	 */
+	public long getMaxCheckLatency() {
+		return watchDog.getCheckHistory().getMaxLatency();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.sadun.util.watchdog.mbean.ManagedWatchDogMBean#getMedianCheckLatency()
+	 */
+	public long getMedianCheckLatency() {
+		return watchDog.getCheckHistory().getLatencyPercentile(50);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.sadun.util.watchdog.mbean.ManagedWatchDogMBean#getCheckLatency99thPercentile()
+	 */
+	public long getCheckLatency99thPercentile() {
+		return watchDog.getCheckHistory().getLatencyPercentile(99);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.sadun.util.watchdog.mbean.ManagedWatchDogMBean#getCheckFailureRate()
+	 */
+	public double getCheckFailureRate() {
+		return watchDog.getCheckHistory().getFailureRate();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.sadun.util.watchdog.mbean.ManagedWatchDogMBean#getCheckLatencyPercentile(double)
+	 */
+	public long getCheckLatencyPercentile(double percentile) {
+		return watchDog.getCheckHistory().getLatencyPercentile(percentile);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.sadun.util.watchdog.mbean.ManagedWatchDogMBean#listCheckHistory()
+	 */
+	public String[] listCheckHistory() {
+		return watchDog.getCheckHistory().describe();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.sadun.util.watchdog.mbean.ManagedWatchDogMBean#clearCheckHistory()
+	 */
+	public void clearCheckHistory() {
+		watchDog.getCheckHistory().clear();
+	}
+
 }
@@ -197,7 +197,100 @@ public interface ManagedWatchDogMBean {
 	 * @throws MBeanException
 	 */ 
 	public Object getCheckActionParameter(String name)  throws MBeanException;
-	
-	
+
+	/**
+	 * Return the number of checks kept in the check history.
+	 * 
+	 * @return the number of checks kept in the check history
+	 */
+	public int getCheckHistorySize();
+
+	/**
+	 * Set the number of checks kept in the check history. The checks recorded
+	 * so far are forgotten.
+	 * 
+	 * @param size the number of checks to keep
+	 */
+	public void setCheckHistorySize(int size);
+
+	/**
+	 * Return the number of checks performed since the watchdog was created or
+	 * the check history was cleared.
+	 * 
+	 * @return the number of checks performed
+	 */
+	public long getCheckCount();
+
+	/**
+	 * Return the outcome of the last check (<tt>ok</tt>, <tt>failed</tt> or
+	 * <tt>impossible</tt>).
+	 * 
+	 * @return the outcome of the last check, or <b>null</b> if no check has been performed
+	 */
+	public String getLastCheckOutcome();
+
+	/**
+	 * Return the latency of the last check.
+	 * 
+	 * @return the latency of the last check, in milliseconds, or -1 if no check has
+	 *         been performed
+	 */
+	public long getLastCheckLatency();
+
+	/**
+	 * Return the average latency of the checks in the history.
+	 * 
+	 * @return the average latency, in milliseconds
+	 */
+	public double getAverageCheckLatency();
+
+	/**
+	 * Return the longest latency of the checks in the history.
+	 * 
+	 * @return the longest latency, in milliseconds
+	 */
+	public long getMaxCheckLatency();
+
+	/**
+	 * Return the median latency of the checks in the history.
+	 * 
+	 * @return the median latency, in milliseconds
+	 */
+	public long getMedianCheckLatency();
+
+	/**
+	 * Return the 99th percentile of the latencies of the checks in the history.
+	 * 
+	 * @return the 99th percentile of the latencies, in milliseconds
+	 */
+	public long getCheckLatency99thPercentile();
+
+	/**
+	 * Return the fraction of the checks in the history which have failed or could
+	 * not be performed.
+	 * 
+	 * @return the failure rate, between 0 and 1
+	 */
+	public double getCheckFailureRate();
+
+	/**
+	 * Return the given percentile of the latencies of the checks in the history.
+	 * 
+	 * @param percentile the percentile, between 0 and 100
+	 * @return the latency, in milliseconds
+	 */
+	public long getCheckLatencyPercentile(double percentile);
+
+	/**
+	 * Return a description of each check in the history, the oldest first.
+	 * 
+	 * @return a description of each check in the history
+	 */
+	public String[] listCheckHistory();
+
+	/**
+	 * Forget the checks in the history.
+	 */
+	public void clearCheckHistory();
 
 }